@@ -22,7 +22,7 @@ UBER_JAR=`echo ${CONNECTOR_SAMPLES_DIR}/target/edgent-samples-apps-*-uber.jar`
 
 # Runs the DeviceComms client
 #
-# ./runDeviceComms.sh watch | send <commandLabel> <commandArg>
+# ./runDeviceComms.sh watch [-e <eventId>[,<eventId>...]] [<field> ...] | send <commandLabel> <commandArg>
 #
 # no checking is done for the validity of commandLabel or commandArg
 
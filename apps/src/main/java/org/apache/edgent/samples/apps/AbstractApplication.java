@@ -21,8 +21,11 @@ package org.apache.edgent.samples.apps;
 import java.io.File;
 import java.io.FileReader;
 import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.edgent.console.server.HttpServer;
+import org.apache.edgent.execution.Job;
 import org.apache.edgent.providers.direct.DirectProvider;
 import org.apache.edgent.samples.apps.mqtt.AbstractMqttApplication;
 import org.apache.edgent.topology.Topology;
@@ -40,17 +43,31 @@ import org.slf4j.LoggerFactory;
  * <p>
  * The class provides some common processing needs:
  * <ul>
- * <li>Support for an external configuration file</li>
+ * <li>Support for an external configuration file.
+ *     If the {@code application.config.watch} property is true, changes to
+ *     the file are pushed to {@link #typedConfig()} subscribers while
+ *     the application is running.</li>
+ * <li>Checkpointing of the application's operator state.
+ *     If the {@code application.checkpoint.dir} property is set,
+ *     the state registered with {@link #checkpoints()} is checkpointed
+ *     every {@code application.checkpoint.periodSec} seconds, default 10,
+ *     and restored when the application is restarted.</li>
  * <li>Provides a {@link TopologyProviderFactory}</li>
  * <li>Provides a {@link ApplicationUtilities}</li>
  * </ul>
+ * <p>
+ * An application can also be run with other applications in one JVM
+ * by an {@link ApplicationHost}.
  * @see AbstractMqttApplication
  */
 public abstract class AbstractApplication {
     
     protected final String propsPath;
     protected final Properties props;
+    private final TypedConfig typedConfig;
     private final ApplicationUtilities applicationUtilities;
+    private Checkpoints checkpoints;
+    private boolean isHosted;
     private static final Logger logger = LoggerFactory.getLogger(AbstractApplication.class);
 
     protected Topology t;
@@ -59,7 +76,8 @@ public abstract class AbstractApplication {
         this.propsPath = propsPath;
         props = new Properties();
         props.load(new FileReader(new File(propsPath)));
-        applicationUtilities = new ApplicationUtilities(props);
+        typedConfig = new TypedConfig(props, new File(propsPath));
+        applicationUtilities = new ApplicationUtilities(typedConfig);
     }
     
     /**
@@ -74,20 +92,79 @@ public abstract class AbstractApplication {
         
         DirectProvider tp = tpFactory.newProvider();
         
+        submit(tp);
+    }
+    
+    /**
+     * Run the application as one of the applications of an {@link ApplicationHost}.
+     * @param tp the host's provider
+     * @return the application's job
+     * @throws Exception on failure
+     */
+    Future<Job> runHosted(DirectProvider tp) throws Exception {
+        isHosted = true;
+        return submit(tp);
+    }
+    
+    private Future<Job> submit(DirectProvider tp) throws Exception {
+        TopologyProviderFactory tpFactory = new TopologyProviderFactory(props);
+        
         // Create a topology for the application
-        t = tp.newTopology(config().getProperty("application.name"));
+        t = tpFactory.newTopology(tp, config().getProperty("application.name"));
+        
+        // The checkpointed state is restored as it's registered
+        // while the topology is built
+        String checkpointDir = config().getProperty("application.checkpoint.dir");
+        if (checkpointDir != null)
+            checkpoints = new Checkpoints(new File(checkpointDir), t.getName());
         
         preBuildTopology(t);
         
         buildTopology(t);
         
+        // Report the first tuple when run by the StartupBenchmark
+        StartupBenchmark.markFirstTuple(t);
+        
+        // Push changes to the configuration file to the application
+        if (Boolean.parseBoolean(config().getProperty("application.config.watch", "false"))) {
+            typedConfig.watch();
+            System.out.println("Watching for configuration changes: " + propsPath);
+        }
+        
         // Run the topology
         HttpServer httpServer = tp.getServices().getService(HttpServer.class);
         if (httpServer != null) {
             System.out.println("Edgent Console URL for the job: "
                                 + httpServer.getConsoleUrl());
         }
-        tp.submit(t);
+        Future<Job> job = tp.submit(t);
+        
+        if (checkpoints != null) {
+            long periodSec = Long.parseLong(
+                    config().getProperty("application.checkpoint.periodSec", "10").trim());
+            checkpoints.start(periodSec, TimeUnit.SECONDS);
+            System.out.println("Checkpointing every " + periodSec + "s: " + checkpoints.getFile());
+        }
+        return job;
+    }
+    
+    /**
+     * Stop watching the configuration file and checkpointing
+     * once the application's job is closed.
+     */
+    void close() {
+        typedConfig.close();
+        if (checkpoints != null)
+            checkpoints.close();
+    }
+    
+    /**
+     * Determine if the application is run by an {@link ApplicationHost},
+     * sharing the host's provider and connections with other applications.
+     * @return true if the application is hosted
+     */
+    protected boolean isHosted() {
+        return isHosted;
     }
     
     /**
@@ -98,6 +175,28 @@ public abstract class AbstractApplication {
         return props;
     }
     
+    /**
+     * Get the application's configuration with cached typed values.
+     * @return the configuration
+     */
+    public TypedConfig typedConfig() {
+        return typedConfig;
+    }
+    
+    /**
+     * Get the application's checkpoints.
+     * <p>
+     * State registered while the topology is built is restored from, and
+     * periodically checkpointed to, the {@code application.checkpoint.dir} directory.
+     * The checkpoints are created when the topology's build starts
+     * and checkpointing stops once the application's job is closed.
+     * @return the checkpoints, null if checkpointing isn't configured
+     *         or the topology's build hasn't started
+     */
+    public Checkpoints checkpoints() {
+        return checkpoints;
+    }
+    
     /**
      * Get the application's 
      * @return the helper
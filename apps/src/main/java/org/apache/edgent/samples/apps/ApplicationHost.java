@@ -0,0 +1,264 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.File;
+import java.io.FileReader;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.edgent.apps.iot.IotDevicePubSub;
+import org.apache.edgent.execution.Job;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.samples.apps.mqtt.AbstractMqttApplication;
+import org.apache.edgent.topology.Topology;
+
+/**
+ * Run many {@link AbstractApplication} applications in one JVM.
+ * <p>
+ * The applications share the host's topology provider, and so its services,
+ * e.g., the development console, and the {@link AbstractMqttApplication}
+ * applications share one MQTT device connection.
+ * Each application is a separate job that can be stopped and started
+ * individually.
+ * <p>
+ * The host's configuration file contains:
+ * <ul>
+ * <li>{@code host.apps} - the comma separated names of the applications</li>
+ * <li>{@code host.app.<name>.class} - the application's class.
+ *     The class has a constructor with the pathname of
+ *     its configuration file as the only argument.</li>
+ * <li>{@code host.app.<name>.properties} - the pathname of the application's
+ *     configuration file</li>
+ * <li>{@code host.app.<name>.enabled} - false to not start the application.
+ *     Default true.</li>
+ * <li>the {@code topology.*} configuration of the shared provider.
+ *     The {@code topology.executor.*} properties are the default
+ *     executor configuration of the applications.</li>
+ * <li>the {@code mqttDevice.*} configuration of the shared MQTT device</li>
+ * </ul>
+ * The host watches its configuration file; changing an application's
+ * {@code host.app.<name>.enabled} property stops or starts the application.
+ * <p>
+ * Usage: {@code ApplicationHost <host.properties>}
+ */
+public class ApplicationHost {
+    private static final long CLOSE_TIMEOUT_SEC = 10;
+
+    private final Properties props;
+    private final TypedConfig typedConfig;
+    private final DirectProvider tp;
+    private final Map<String,Hosted> apps = new LinkedHashMap<>();
+    private Job deviceHub;
+
+    /**
+     * A hosted application and its job.
+     */
+    private static class Hosted {
+        final AbstractApplication app;
+        final Job job;
+
+        Hosted(AbstractApplication app, Job job) {
+            this.app = app;
+            this.job = job;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1)
+            throw new Exception("missing pathname to host properties file");
+
+        ApplicationHost host = new ApplicationHost(args[0]);
+        host.startEnabled();
+        host.watch();
+    }
+
+    /**
+     * Create a host.
+     * @param propsPath pathname to the host's configuration file
+     * @throws Exception on failure
+     */
+    public ApplicationHost(String propsPath) throws Exception {
+        props = new Properties();
+        try (FileReader reader = new FileReader(new File(propsPath))) {
+            props.load(reader);
+        }
+        typedConfig = new TypedConfig(props, new File(propsPath));
+        tp = new TopologyProviderFactory(props).newProvider();
+    }
+
+    /**
+     * Get the names of the configured applications.
+     * @return the names
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (String name : props.getProperty("host.apps", "").split(",")) {
+            if (!name.trim().isEmpty())
+                names.add(name.trim());
+        }
+        return names;
+    }
+
+    /**
+     * Get the names of the running applications.
+     * @return the names
+     */
+    public synchronized List<String> running() {
+        return Collections.unmodifiableList(new ArrayList<>(apps.keySet()));
+    }
+
+    /**
+     * Start the enabled applications.
+     * @throws Exception on failure
+     */
+    public void startEnabled() throws Exception {
+        for (String name : names()) {
+            if (isEnabled(name))
+                start(name);
+        }
+    }
+
+    private boolean isEnabled(String name) {
+        return Boolean.parseBoolean(
+                props.getProperty("host.app."+name+".enabled", "true").trim());
+    }
+
+    /**
+     * Start an application.
+     * <p>
+     * The application is created from its current configuration file.
+     * @param name the application's name
+     * @throws IllegalArgumentException if the application isn't configured
+     * @throws IllegalStateException if the application is running
+     * @throws Exception on failure
+     */
+    public synchronized void start(String name) throws Exception {
+        if (!names().contains(name))
+            throw new IllegalArgumentException("Unknown application: "+name);
+        if (apps.containsKey(name))
+            throw new IllegalStateException("Application is running: "+name);
+        String className = property(name, "class");
+        String propsPath = property(name, "properties");
+
+        Constructor<?> ctor = Class.forName(className).getDeclaredConstructor(String.class);
+        ctor.setAccessible(true);
+        AbstractApplication app = (AbstractApplication) ctor.newInstance(propsPath);
+        inheritExecutor(app.config());
+        if (app instanceof AbstractMqttApplication)
+            startDeviceHub();
+
+        Job job = app.runHosted(tp).get();
+        apps.put(name, new Hosted(app, job));
+        System.out.println("===== Started application "+name+": "+job.getName()+" ======");
+    }
+
+    private String property(String name, String key) {
+        String val = props.getProperty("host.app."+name+"."+key);
+        if (val == null)
+            throw new IllegalArgumentException("Missing configuration property host.app."+name+"."+key);
+        return val.trim();
+    }
+
+    // an application's executor defaults to the host's
+    private void inheritExecutor(Properties appProps) {
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith("topology.executor.") && appProps.getProperty(key) == null)
+                appProps.setProperty(key, props.getProperty(key));
+        }
+    }
+
+    // the MQTT device is connected by its own job, shared through the provider's PublishSubscribe
+    private void startDeviceHub() throws Exception {
+        if (deviceHub != null)
+            return;
+        Topology t = tp.newTopology("ApplicationHostDevice");
+        IotDevicePubSub.createApplication(AbstractMqttApplication.newMqttDevice(t, props));
+        deviceHub = tp.submit(t).get();
+    }
+
+    /**
+     * Stop an application.
+     * <p>
+     * The application's job is closed and the application stops
+     * watching its configuration file and checkpointing.
+     * @param name the application's name
+     * @return true if the application was running
+     * @throws Exception on failure
+     */
+    public synchronized boolean stop(String name) throws Exception {
+        Hosted hosted = apps.remove(name);
+        if (hosted == null)
+            return false;
+        try {
+            hosted.job.stateChange(Job.Action.CLOSE);
+            hosted.job.complete(CLOSE_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } finally {
+            hosted.app.close();
+        }
+        System.out.println("===== Stopped application "+name+" ======");
+        return true;
+    }
+
+    /**
+     * Stop all of the applications and the shared MQTT device.
+     * @throws Exception on failure
+     */
+    public synchronized void stopAll() throws Exception {
+        for (String name : running())
+            stop(name);
+        if (deviceHub != null) {
+            deviceHub.stateChange(Job.Action.CLOSE);
+            deviceHub = null;
+        }
+        typedConfig.close();
+    }
+
+    /**
+     * Watch the host's configuration file and stop or start an application
+     * when its {@code host.app.<name>.enabled} property changes.
+     * @throws Exception on failure
+     */
+    public void watch() throws Exception {
+        typedConfig.subscribe(changes -> {
+            for (String name : names()) {
+                if (!changes.containsKey("host.app."+name+".enabled"))
+                    continue;
+                try {
+                    if (isEnabled(name)) {
+                        if (!running().contains(name))
+                            start(name);
+                    }
+                    else
+                        stop(name);
+                } catch (Exception e) {
+                    System.out.println("===== Application "+name+" change failed: "+e+" ======");
+                }
+            }
+        });
+        typedConfig.watch();
+    }
+
+}
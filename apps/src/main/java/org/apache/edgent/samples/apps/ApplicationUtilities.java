@@ -19,10 +19,10 @@ under the License.
 package org.apache.edgent.samples.apps;
 
 import java.io.File;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.edgent.analytics.sensors.Range;
 import org.apache.edgent.analytics.sensors.Ranges;
@@ -31,6 +31,7 @@ import org.apache.edgent.connectors.file.FileWriterCycleConfig;
 import org.apache.edgent.connectors.file.FileWriterFlushConfig;
 import org.apache.edgent.connectors.file.FileWriterPolicy;
 import org.apache.edgent.connectors.file.FileWriterRetentionConfig;
+import org.apache.edgent.function.Function;
 import org.apache.edgent.function.Predicate;
 import org.apache.edgent.function.Supplier;
 import org.apache.edgent.topology.TStream;
@@ -44,18 +45,46 @@ import org.apache.edgent.topology.TStream;
  * <li>Get a Range value for a sensor range item</li>
  * <li>Log a stream</li>
  * <li>Conditionally trace a stream</li>
+ * <li>Conditionally measure a stream's latency</li>
  * </ul>
  */
 public class ApplicationUtilities {
     
-    private final Properties props;
+    private static final Function<String,Range<Integer>> RANGE_INTEGER = Ranges::valueOfInteger;
+    private static final Function<String,Range<Byte>> RANGE_BYTE = Ranges::valueOfByte;
+    private static final Function<String,Range<Short>> RANGE_SHORT = Ranges::valueOfShort;
+    private static final Function<String,Range<Float>> RANGE_FLOAT = Ranges::valueOfFloat;
+    private static final Function<String,Range<Double>> RANGE_DOUBLE = Ranges::valueOfDouble;
+
+    private final TypedConfig typedConfig;
+    private volatile TraceRules traceRules;
     
     public ApplicationUtilities(Properties props) {
-        this.props = props;
+        this(new TypedConfig(props));
+    }
+    
+    /**
+     * Create the utilities for a configuration.
+     * <p>
+     * Changes to the configuration's {@code stream.tracing.*} properties
+     * are applied with {@link #updateTracing(Map)}.
+     * @param typedConfig the configuration
+     */
+    public ApplicationUtilities(TypedConfig typedConfig) {
+        this.typedConfig = typedConfig;
+        typedConfig.subscribe(changes -> {
+                Map<String,String> tracing = new HashMap<>();
+                for (Map.Entry<String,String> e : changes.entrySet()) {
+                    if (e.getKey().startsWith(TraceRules.PREFIX))
+                        tracing.put(e.getKey(), e.getValue());
+                }
+                if (!tracing.isEmpty())
+                    updateTracing(tracing);
+            });
     }
 
     private Properties config() {
-        return props;
+        return typedConfig.getProperties();
     }
     
     /**
@@ -80,7 +109,14 @@ public class ApplicationUtilities {
      * to enable tracing.
      * <p>
      * If tracing has not been enabled in the config, the topology will not
-     * be augmented to trace the stream.
+     * be augmented to trace the stream, unless {@code stream.tracing.dynamic}
+     * is true.  Dynamic tracing augments the topology for every label
+     * so that tracing can be enabled by {@link #updateTracing(Map)}
+     * without rebuilding the topology.
+     * <p>
+     * The traced tuples can be sampled, 1-in-N and/or limited to a maximum rate,
+     * to reduce the impact of tracing a high rate stream.
+     * See {@code TraceRules} for the tracing configuration properties.
      * 
      * @param <T> Tuple type
      * @param stream the stream to trace
@@ -88,38 +124,164 @@ public class ApplicationUtilities {
      * @return the input stream
      */
     public <T> TStream<T> traceStream(TStream<T> stream, Supplier<String> label) {
-        if (includeTraceStreamOps(label.get())) {
-            TStream<?> s = stream.filter(traceTuplesFn(label.get())).tag(label.get()+".trace");
-            s.peek(sample -> System.out.println(String.format("%s: %s", label.get(), sample.toString())));
+        String l = label.get();
+        boolean isDynamic = Boolean.parseBoolean(config().getProperty(TraceRules.PREFIX+"dynamic", "false"));
+        if (isDynamic || traceRules().isIncluded(l)) {
+            TStream<?> s = stream.filter(traceTuplesFn(l)).tag(l+".trace");
+            s.peek(sample -> System.out.println(label.get() + ": " + sample));
         }
         return stream;
     }
     
-    private boolean includeTraceStreamOps(String label) {
-        String includesCsv = config().getProperty("stream.tracing.includes.csv", "");
-        String includesRegex = config().getProperty("stream.tracing.includes.regex", "");
-        String excludesCsv = config().getProperty("stream.tracing.excludes.csv", "");
-        String excludesRegex = config().getProperty("stream.tracing.excludes.regex", "");
+    private TraceRules traceRules() {
+        TraceRules rules = traceRules;
+        if (rules == null) {
+            synchronized (this) {
+                if (traceRules == null) {
+                    Map<String,String> config = new HashMap<>();
+                    for (String name : config().stringPropertyNames()) {
+                        if (name.startsWith(TraceRules.PREFIX))
+                            config.put(name, config().getProperty(name));
+                    }
+                    traceRules = new TraceRules(config);
+                }
+                rules = traceRules;
+            }
+        }
+        return rules;
+    }
+    
+    /**
+     * Change the stream tracing configuration.
+     * <p>
+     * The change takes effect immediately for the streams whose
+     * tracing has been added to the topology.
+     * @param changes the {@code stream.tracing.*} properties to change.
+     *        An empty value removes a property.
+     * @throws IllegalArgumentException if the changed configuration is invalid.
+     *         The configuration is unchanged.
+     */
+    public synchronized void updateTracing(Map<String,String> changes) {
+        Map<String,String> config = new HashMap<>(traceRules().getConfig());
+        for (Map.Entry<String,String> e : changes.entrySet()) {
+            if (!e.getKey().startsWith(TraceRules.PREFIX))
+                throw new IllegalArgumentException("Not a tracing property: "+e.getKey());
+            if (e.getValue() == null || e.getValue().isEmpty())
+                config.remove(e.getKey());
+            else
+                config.put(e.getKey(), e.getValue());
+        }
+        traceRules = new TraceRules(config);
+    }
+    
+    private <T> Predicate<T> traceTuplesFn(String label) {
+        return new TraceSampler<T>(label);
+    }
+    
+    /**
+     * Select the tuples to trace for a label using the current
+     * tracing configuration.
+     * <p>
+     * The label's configuration is only looked up when the configuration changes
+     * and a tuple of a label that isn't being traced is rejected without locking.
+     */
+    private class TraceSampler<T> implements Predicate<T> {
+        private static final long serialVersionUID = 1L;
+        private final String label;
+        private transient volatile LabelRules labelRules;
+        private long count;
+        private double tokens;
+        private long lastNanos;
         
-        Set<String> includesSet = new HashSet<>();
-        for (String s : includesCsv.split(","))
-            includesSet.add(s.trim());
-        Set<String> excludesSet = new HashSet<>();
-        for (String s : excludesCsv.split(","))
-            excludesSet.add(s.trim());
+        TraceSampler(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public boolean test(T tuple) {
+            TraceRules current = traceRules();
+            LabelRules lr = labelRules;
+            if (lr == null || lr.rules != current)
+                lr = update(current);
+            if (!lr.isIncluded)
+                return false;
+            if (lr.sample == 1 && lr.maxPerSec == 0)
+                return true;
+            synchronized (this) {
+                if (lr.sample > 1 && count++ % lr.sample != 0)
+                    return false;
+                if (lr.maxPerSec > 0) {
+                    // token bucket: refill at maxPerSec with a burst of up to a second's worth
+                    long now = System.nanoTime();
+                    tokens = Math.min(Math.max(1, lr.maxPerSec),
+                            tokens + (now - lastNanos) * lr.maxPerSec / 1e9);
+                    lastNanos = now;
+                    if (tokens < 1)
+                        return false;
+                    tokens--;
+                }
+                return true;
+            }
+        }
         
-        boolean isIncluded = false;
-        if (includesSet.contains(label) || label.matches(includesRegex))
-            isIncluded = true;
-        if (excludesSet.contains(label) || label.matches(excludesRegex))
-            isIncluded = false;
+        private synchronized LabelRules update(TraceRules rules) {
+            LabelRules lr = new LabelRules(rules, label);
+            labelRules = lr;
+            count = 0;
+            tokens = Math.max(1, lr.maxPerSec);
+            lastNanos = System.nanoTime();
+            return lr;
+        }
+    }
+    
+    /**
+     * A label's tracing configuration.
+     */
+    private static class LabelRules {
+        final TraceRules rules;
+        final boolean isIncluded;
+        final int sample;
+        final double maxPerSec;
         
-        return isIncluded;
+        LabelRules(TraceRules rules, String label) {
+            this.rules = rules;
+            this.isIncluded = rules.isIncluded(label);
+            this.sample = rules.getSample(label);
+            this.maxPerSec = rules.getMaxPerSec(label);
+        }
     }
     
-    private <T> Predicate<T> traceTuplesFn(String label) {
-        return tuple -> true; // TODO make dynamic config; affected by "label" value
-        // check label for match against csv or regex from props
+    /**
+     * Measure the latency of the stream's tuples since their source
+     * if latency measurement has been enabled in the config.
+     * <p>
+     * Latency measurement is enabled by {@code stream.latency.enabled=true}.
+     * If it isn't enabled, the topology will not be augmented to measure the stream.
+     * If {@code stream.latency.reportSec} is set, the latencies are also
+     * printed to System.out every N seconds.
+     * <p>
+     * The latencies are measured against the tuples' epoch millisecond
+     * timestamps, so they have millisecond resolution.
+     * See {@link LatencyProbe} for the measurements' metrics.
+     *
+     * @param <T> Tuple type
+     * @param stream the stream to measure
+     * @param tag the name of the measurement point
+     * @param stampFn function to get a tuple's source timestamp in epoch milliseconds,
+     *        e.g., {@link LatencyProbe#jsonStampFn()}
+     * @return the input stream
+     */
+    public <T> TStream<T> latencyStream(TStream<T> stream, String tag, LatencyProbe.StampFunction<T> stampFn) {
+        if (!Boolean.parseBoolean(config().getProperty("stream.latency.enabled", "false")))
+            return stream;
+        LatencyProbe<T> probe = LatencyProbe.epochMillis(tag, stampFn);
+        stream.pipe(probe).tag(tag+".latency");
+        long reportSec = Long.parseLong(config().getProperty("stream.latency.reportSec", "0").trim());
+        if (reportSec > 0) {
+            stream.topology().poll(() -> probe.getHistogram().toString(), reportSec, TimeUnit.SECONDS)
+                .sink(report -> System.out.println(tag + " latency: " + report));
+        }
+        return stream;
     }
     
     /**
@@ -136,23 +298,28 @@ public class ApplicationUtilities {
         return name;
     }
 
-    private String getSensorConfigValue(String sensorId, String label, String kind) {
+    private <T> T getSensorConfigValue(String sensorId, String label, String kind,
+            Function<String,T> parser) {
         String name = getSensorPropertyName(sensorId, label, kind);
-        String val = config().getProperty(name);
-        if (val==null)
-            throw new IllegalArgumentException("Missing configuration property "+name);
-        return val;
+        // fall back to the item's value for all sensors (kind.label)
+        String fallbackName = sensorId!=null && !sensorId.isEmpty()
+                ? getSensorPropertyName(null, label, kind) : null;
+        return typedConfig.get(name, fallbackName, parser);
     }
     
     /**
      * Get the Range for a sensor range configuration item.
+     * <p>
+     * If the sensor doesn't have a {@code <sensorId>.range.<label>}
+     * configuration property, the {@code range.<label>} property is used.
+     * <p>
+     * The Range is only parsed when the configuration changes.
      * @param sensorId the sensor's id
      * @param label the range's label
      * @return the Range
      */
     public Range<Integer> getRangeInteger(String sensorId, String label) {
-        String val = getSensorConfigValue(sensorId, label, "range");
-        return Ranges.valueOfInteger(val);
+        return getSensorConfigValue(sensorId, label, "range", RANGE_INTEGER);
     }
     
     /**
@@ -162,8 +329,7 @@ public class ApplicationUtilities {
      * @return the Range
      */
     public Range<Byte> getRangeByte(String sensorId, String label) {
-        String val = getSensorConfigValue(sensorId, label, "range");
-        return Ranges.valueOfByte(val);
+        return getSensorConfigValue(sensorId, label, "range", RANGE_BYTE);
     }
     
     /**
@@ -173,8 +339,7 @@ public class ApplicationUtilities {
      * @return the Range
      */
     public Range<Short> getRangeShort(String sensorId, String label) {
-        String val = getSensorConfigValue(sensorId, label, "range");
-        return Ranges.valueOfShort(val);
+        return getSensorConfigValue(sensorId, label, "range", RANGE_SHORT);
     }
     
     /**
@@ -184,8 +349,7 @@ public class ApplicationUtilities {
      * @return the Range
      */
     public Range<Float> getRangeFloat(String sensorId, String label) {
-        String val = getSensorConfigValue(sensorId, label, "range");
-        return Ranges.valueOfFloat(val);
+        return getSensorConfigValue(sensorId, label, "range", RANGE_FLOAT);
     }
     
     /**
@@ -195,8 +359,7 @@ public class ApplicationUtilities {
      * @return the Range
      */
     public Range<Double> getRangeDouble(String sensorId, String label) {
-        String val = getSensorConfigValue(sensorId, label, "range");
-        return Ranges.valueOfDouble(val);
+        return getSensorConfigValue(sensorId, label, "range", RANGE_DOUBLE);
     }
 
     /**
@@ -211,7 +374,41 @@ public class ApplicationUtilities {
      * Completed stable logs have a name of {@code <baseName>_YYYYMMDD_HHMMSS}.
      * <p>
      * The log entry format being used is:
-     * {@code [<date>] [<eventTag>] <tuple>.toString()}
+     * {@code [<yyyy-MM-dd HH:mm:ss.SSS>] [<eventTag>] <tuple>.toString()}
+     * <p>
+     * Entries are batched and written by a separate thread so
+     * the stream's thread doesn't wait for the file I/O.
+     * The writer policy is configured by the following properties.
+     * An {@code application.log.<baseName>.*} property overrides the
+     * corresponding {@code application.log.*} property:
+     * <ul>
+     * <li>{@code flush.msec} - flush the log file every N msec.  The default is 2000.</li>
+     * <li>{@code cycle.bytes} - start a new log file when the active file
+     *     reaches N bytes.  The default is 10000.</li>
+     * <li>{@code cycle.msec} - start a new log file every N msec.
+     *     The default is 0, don't cycle based on time.</li>
+     * <li>{@code retain.files} - retain at most N log files.  The default is 1.</li>
+     * <li>{@code retain.bytes} - retain at most N bytes of log files.
+     *     The default is 0, no limit.</li>
+     * <li>{@code retain.ageSec} - remove log files older than N seconds.
+     *     The default is 0, no limit.</li>
+     * <li>{@code compress} - true to compress the entries as they're written,
+     *     so the log's text isn't written to storage.  The active log file is then
+     *     {@code .<baseName>.gz}, completed logs are named
+     *     {@code <baseName>_YYYYMMDD_HHMMSS.gz} and {@code cycle.bytes}
+     *     is the compressed size.  The text is compressed in blocks, each a gzip
+     *     member, and a block is written when it's full or {@code flush.msec}
+     *     after its first entry.  The default is false.</li>
+     * <li>{@code compress.blockSize} - the compression block size.
+     *     The default is 65536.</li>
+     * <li>{@code batch.msec} - write the batched entries every N msec.
+     *     The default is 100.</li>
+     * <li>{@code maxPendingBytes} - the maximum size of the batched entries.
+     *     Entries are dropped, and a count of them logged, if the writer
+     *     can't keep up.  The default is 1000000.</li>
+     * </ul>
+     * <p>
+     * Use {@link LogFiles} to read the logs.
      * <p>
      * See {@link FileStreams#textFileWriter(TStream, org.apache.edgent.function.Supplier, org.apache.edgent.function.Supplier)}
      * 
@@ -223,19 +420,34 @@ public class ApplicationUtilities {
      */
     public <T> TStream<T> logStream(TStream<T> stream, String eventTag, String baseName) {
         // Define the writer policy.
-        // TODO could make the policy configurable via config()
-        FileWriterPolicy<String> policy = new FileWriterPolicy<String>(
-                FileWriterFlushConfig.newTimeBasedConfig(2_000/*msec*/), // flush every 2sec
-                FileWriterCycleConfig.newFileSizeBasedConfig(10_000),  // new file every 10KB
-                FileWriterRetentionConfig.newFileCountBasedConfig(1)   // retain 1 file
-                );
+        FileWriterFlushConfig<String> flushConfig = FileWriterFlushConfig.newTimeBasedConfig(
+                getLogLong(baseName, "flush.msec", 2_000));
+        FileWriterCycleConfig<String> cycleConfig = FileWriterCycleConfig.newConfig(
+                getLogLong(baseName, "cycle.bytes", 10_000), 0,
+                getLogLong(baseName, "cycle.msec", 0), null);
+        FileWriterRetentionConfig retentionConfig = newRetentionConfig(baseName);
         
         // Compose the base file pathname
         File dir = new File(config().getProperty("application.log.dir"));
         String basePathname = new File(dir, baseName).toString();
+        
+        if (getLogBoolean(baseName, "compress")) {
+            // The batcher's thread compresses the entries and writes the log
+            CompressedLogWriter log = new CompressedLogWriter(dir, baseName,
+                    flushConfig, cycleConfig, retentionConfig,
+                    (int) getLogLong(baseName, "compress.blockSize", CompressedLogWriter.DEFAULT_BLOCK_SIZE));
+            stream.pipe(new LogBatcher<T>(eventTag,
+                        getLogLong(baseName, "batch.msec", 100),
+                        getLogLong(baseName, "maxPendingBytes", 1_000_000), log))
+                    .tag(baseName+".log");
+            return stream;
+        }
+        FileWriterPolicy<String> policy = new FileWriterPolicy<String>(flushConfig, cycleConfig, retentionConfig);
          
-        // Transform the stream to a TStream<String> of string log entry values
-        TStream<String> stringEntries = stream.map(sample -> String.format("[%s] [%s] %s", new Date().toString(), eventTag, sample.toString()))
+        // Transform the stream to a TStream<String> of batches of log entries
+        TStream<String> stringEntries = stream.pipe(new LogBatcher<T>(eventTag,
+                    getLogLong(baseName, "batch.msec", 100),
+                    getLogLong(baseName, "maxPendingBytes", 1_000_000)))
                 .tag(baseName+".log");
 
         // Use the FileStreams connector to write the logs.
@@ -252,4 +464,56 @@ public class ApplicationUtilities {
         return stream;
     }
 
+    private FileWriterRetentionConfig newRetentionConfig(String baseName) {
+        int files = (int) getLogLong(baseName, "retain.files", 1);
+        long bytes = getLogLong(baseName, "retain.bytes", 0);
+        long ageSec = getLogLong(baseName, "retain.ageSec", 0);
+        // check for aged files every minute, or more often for short ages
+        long periodMsec = ageSec == 0 ? 0 : Math.min(60_000, ageSec * 1000);
+        return FileWriterRetentionConfig.newConfig(files, bytes, ageSec, periodMsec);
+    }
+
+    private long getLogLong(String baseName, String key, long defaultValue) {
+        String val = getLogProperty(baseName, key);
+        return val == null ? defaultValue : Long.parseLong(val);
+    }
+
+    private boolean getLogBoolean(String baseName, String key) {
+        return Boolean.parseBoolean(getLogProperty(baseName, key));
+    }
+
+    private String getLogProperty(String baseName, String key) {
+        String val = config().getProperty("application.log."+baseName+"."+key);
+        if (val == null)
+            val = config().getProperty("application.log."+key);
+        return val == null ? null : val.trim();
+    }
+
+    
+    /**
+     * Get the size of a character sequence's UTF-8 encoding.
+     * @param cs the characters
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the number of bytes
+     */
+    static long utf8Length(CharSequence cs, int start, int end) {
+        long len = 0;
+        for (int i = start; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c < 0x80)
+                len++;
+            else if (c < 0x800)
+                len += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(cs.charAt(i + 1))) {
+                len += 4;
+                i++;
+            }
+            else
+                len += 3;
+        }
+        return len;
+    }
+
 }
@@ -0,0 +1,508 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.edgent.function.Function;
+import org.apache.edgent.oplet.OpletContext;
+import org.apache.edgent.oplet.core.Pipe;
+import org.apache.edgent.topology.TStream;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A bounded queue that decouples a stream from a slow or stalled
+ * downstream, such as an MQTT publisher whose broker is unavailable.
+ * <p>
+ * Tuples are queued by the upstream thread, which never blocks,
+ * and are submitted downstream by the queue's own thread.
+ * When the queue is full, its {@link Policy} determines what is shed:
+ * <ul>
+ * <li>{@link Policy#DROP_OLDEST} - the oldest queued tuple is dropped</li>
+ * <li>{@link Policy#DROP_NEWEST} - the arriving tuple is dropped</li>
+ * <li>{@link Policy#COALESCE} - only the latest tuple for each key is queued.
+ *     A tuple replaces the queued tuple with the same key.
+ *     When the queue is full, the oldest tuple is dropped.</li>
+ * <li>{@link Policy#SPILL} - tuples that don't fit in memory are appended
+ *     to spill files and submitted, in order, once the in-memory tuples
+ *     have been submitted.  When the spilled tuples that haven't been
+ *     submitted reach the maximum size the arriving tuple is dropped.</li>
+ * </ul>
+ * <p>
+ * The number of queued tuples and the number of dropped tuples are
+ * available from {@link #getQueueDepth()} and {@link #getDropCount()}
+ * and are registered as {@code <name>.queueDepth} and {@code <name>.dropped}
+ * gauges if the topology provider has a {@code MetricRegistry} service.
+ * A tuple whose submit fails is dropped rather than stopping the queue.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<JsonObject> events = ...
+ * mqttDevice.events(events.pipe(BackpressureQueue.dropOldest("alerts", 30)),
+ *                   "alerts", QoS.FIRE_AND_FORGET);
+ * }</pre>
+ *
+ * @param <T> Tuple type
+ * @see TStream#pipe(Pipe)
+ */
+public class BackpressureQueue<T> extends Pipe<T,T> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The policy for shedding tuples when the queue is full.
+     */
+    public enum Policy {
+        DROP_OLDEST, DROP_NEWEST, COALESCE, SPILL;
+
+        /**
+         * Get the policy for a configuration value.
+         * <p>
+         * The value is the policy's name or its camel case form,
+         * e.g., {@code DROP_OLDEST} or {@code dropOldest}.
+         * @param value the configuration value
+         * @return the policy
+         * @throws IllegalArgumentException if {@code value} isn't a policy
+         */
+        public static Policy of(String value) {
+            String name = value.trim().replace("_", "");
+            for (Policy policy : values()) {
+                if (policy.name().replace("_", "").equalsIgnoreCase(name))
+                    return policy;
+            }
+            throw new IllegalArgumentException("Unknown backpressure policy: "+value);
+        }
+    }
+
+    private final String name;
+    private final Policy policy;
+    private final int capacity;
+    private final Function<T,?> keyFn;
+    private final File spillDir;
+    private final long spillMaxBytes;
+    private final Function<T,String> encoder;
+    private final Function<String,T> decoder;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    private final LinkedHashMap<Object,T> coalesced = new LinkedHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private transient String spillName;
+    private transient Deque<SpillSegment> spillSegments;
+    private transient BufferedWriter spillOut;
+    private transient BufferedReader spillIn;
+    private long spillSequence;
+    // spilled tuples (and their encoded bytes) not yet submitted
+    private long spillCount;
+    private long spillBytes;
+    // lines of the last (written) segment that have been flushed
+    private long spillFlushed;
+    // lines of the first (read) segment that have been read
+    private long spillRead;
+
+    /** The number of segments the spill is rotated across. */
+    private static final int SPILL_SEGMENTS = 4;
+
+    /**
+     * A spill file.  Tuples are appended to the last segment and read
+     * from the first.  A segment is deleted once it has been read.
+     */
+    private static final class SpillSegment {
+        final File file;
+        long lines;
+        long bytes;
+
+        SpillSegment(File file) {
+            this.file = file;
+        }
+    }
+
+    private transient Thread drainer;
+    private volatile boolean closed;
+    private transient MetricRegistry registry;
+    private String depthMetricName;
+    private String droppedMetricName;
+
+    /**
+     * Create a queue that drops its oldest tuple when it's full.
+     * @param <T> Tuple type
+     * @param name the queue's name, used for its metrics
+     * @param capacity the maximum number of queued tuples
+     * @return the queue
+     */
+    public static <T> BackpressureQueue<T> dropOldest(String name, int capacity) {
+        return new BackpressureQueue<>(name, Policy.DROP_OLDEST, capacity, null, null, 0, null, null);
+    }
+
+    /**
+     * Create a queue that drops the arriving tuple when it's full.
+     * @param <T> Tuple type
+     * @param name the queue's name, used for its metrics
+     * @param capacity the maximum number of queued tuples
+     * @return the queue
+     */
+    public static <T> BackpressureQueue<T> dropNewest(String name, int capacity) {
+        return new BackpressureQueue<>(name, Policy.DROP_NEWEST, capacity, null, null, 0, null, null);
+    }
+
+    /**
+     * Create a queue that holds only the latest tuple for each key.
+     * @param <T> Tuple type
+     * @param name the queue's name, used for its metrics
+     * @param capacity the maximum number of queued tuples (keys)
+     * @param keyFn the key function
+     * @return the queue
+     */
+    public static <T> BackpressureQueue<T> coalesce(String name, int capacity, Function<T,?> keyFn) {
+        return new BackpressureQueue<>(name, Policy.COALESCE, capacity, keyFn, null, 0, null, null);
+    }
+
+    /**
+     * Create a queue that spills the tuples that don't fit in memory to disk.
+     * <p>
+     * Spill files are created in {@code spillDir} when needed.  Tuples are
+     * appended to the newest file, which is rotated as it grows, and a file
+     * is deleted once its tuples have been submitted or the queue is closed.
+     * So the disk space used is bounded by the backlog of spilled tuples
+     * rather than by the total number of tuples ever spilled.
+     * A spilled tuple that can't be read or decoded is dropped.
+     * @param <T> Tuple type
+     * @param name the queue's name, used for its metrics and spill file
+     * @param capacity the maximum number of tuples queued in memory
+     * @param spillDir the directory for the spill files
+     * @param spillMaxBytes the maximum UTF-8 encoded size of the spilled
+     *        tuples that haven't been submitted
+     * @param encoder function to encode a tuple as a single line of text
+     * @param decoder function to decode a tuple from its encoded form
+     * @return the queue
+     */
+    public static <T> BackpressureQueue<T> spill(String name, int capacity,
+            File spillDir, long spillMaxBytes,
+            Function<T,String> encoder, Function<String,T> decoder) {
+        if (spillMaxBytes < 1)
+            throw new IllegalArgumentException("spillMaxBytes");
+        return new BackpressureQueue<>(name, Policy.SPILL, capacity, null,
+                spillDir, spillMaxBytes, encoder, decoder);
+    }
+
+    private BackpressureQueue(String name, Policy policy, int capacity, Function<T,?> keyFn,
+            File spillDir, long spillMaxBytes,
+            Function<T,String> encoder, Function<String,T> decoder) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity");
+        this.name = name;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.keyFn = keyFn;
+        this.spillDir = spillDir;
+        this.spillMaxBytes = spillMaxBytes;
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public void initialize(OpletContext<T, T> context) {
+        super.initialize(context);
+        registry = context.getService(MetricRegistry.class);
+        if (registry != null) {
+            depthMetricName = context.uniquify(name + ".queueDepth");
+            droppedMetricName = context.uniquify(name + ".dropped");
+            registry.register(depthMetricName, (Gauge<Long>) this::getQueueDepth);
+            registry.register(droppedMetricName, (Gauge<Long>) this::getDropCount);
+        }
+        if (policy == Policy.SPILL) {
+            spillName = context.uniquify(name).replaceAll("[^A-Za-z0-9._-]", "_");
+            spillSegments = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        ThreadFactory threadFactory = getOpletContext().getService(ThreadFactory.class);
+        if (threadFactory == null)
+            threadFactory = Executors.defaultThreadFactory();
+        drainer = threadFactory.newThread(this::drain);
+        drainer.start();
+    }
+
+    /**
+     * Get the policy.
+     * @return the policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the number of queued tuples, including spilled tuples.
+     * @return the number of tuples
+     */
+    public long getQueueDepth() {
+        synchronized (lock) {
+            return queue.size() + coalesced.size() + spillCount;
+        }
+    }
+
+    /**
+     * Get the number of tuples that have been dropped.
+     * @return the number of tuples
+     */
+    public long getDropCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Queue a tuple, shedding a tuple according to the policy if the queue is full.
+     * @param tuple the tuple
+     */
+    @Override
+    public void accept(T tuple) {
+        synchronized (lock) {
+            switch (policy) {
+            case DROP_OLDEST:
+                if (queue.size() == capacity) {
+                    queue.poll();
+                    dropped.incrementAndGet();
+                }
+                queue.add(tuple);
+                break;
+            case DROP_NEWEST:
+                if (queue.size() == capacity) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                queue.add(tuple);
+                break;
+            case COALESCE:
+                Object key = keyFn.apply(tuple);
+                if (coalesced.containsKey(key))
+                    dropped.incrementAndGet();
+                else if (coalesced.size() == capacity) {
+                    Iterator<T> oldest = coalesced.values().iterator();
+                    oldest.next();
+                    oldest.remove();
+                    dropped.incrementAndGet();
+                }
+                coalesced.put(key, tuple);
+                break;
+            case SPILL:
+                // once spilling, keep spilling until the spill file is drained to retain order
+                if (spillCount == 0 && queue.size() < capacity)
+                    queue.add(tuple);
+                else if (!spill(tuple)) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                break;
+            }
+            lock.notify();
+        }
+    }
+
+    // called with the lock held
+    private boolean spill(T tuple) {
+        String line = encoder.apply(tuple);
+        long size = ApplicationUtilities.utf8Length(line, 0, line.length()) + 1;
+        if (spillBytes + size > spillMaxBytes)
+            return false;
+        try {
+            SpillSegment segment = spillSegments.peekLast();
+            if (segment == null || segment.bytes >= Math.max(1, spillMaxBytes / SPILL_SEGMENTS)) {
+                // rotate, so the segments that have been read can be deleted
+                if (spillOut != null)
+                    spillOut.close();
+                spillOut = null;
+                spillDir.mkdirs();
+                segment = new SpillSegment(
+                        new File(spillDir, spillName + "." + spillSequence++ + ".spill"));
+                spillOut = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(segment.file), StandardCharsets.UTF_8));
+                spillSegments.add(segment);
+                spillFlushed = 0;
+            }
+            // the writer is flushed when the reader needs the line
+            spillOut.write(line);
+            spillOut.write('\n');
+            segment.lines++;
+            segment.bytes += size;
+        } catch (IOException e) {
+            return false;
+        }
+        spillBytes += size;
+        spillCount++;
+        return true;
+    }
+
+    private void drain() {
+        try {
+            while (!closed) {
+                T tuple = take();
+                if (tuple == null)
+                    continue;
+                try {
+                    submit(tuple);
+                } catch (RuntimeException e) {
+                    // a failing tuple mustn't stop the forwarding
+                    dropped.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private T take() throws InterruptedException {
+        BufferedReader in;
+        synchronized (lock) {
+            while (queue.isEmpty() && coalesced.isEmpty() && spillCount == 0) {
+                if (closed)
+                    return null;
+                lock.wait();
+            }
+            if (!queue.isEmpty())
+                return queue.poll();
+            if (!coalesced.isEmpty()) {
+                Iterator<T> oldest = coalesced.values().iterator();
+                T tuple = oldest.next();
+                oldest.remove();
+                return tuple;
+            }
+            try {
+                in = spillReader();
+            } catch (IOException e) {
+                in = null;
+            }
+        }
+
+        // read outside the lock so spilling isn't blocked
+        String line = null;
+        try {
+            if (in != null)
+                line = in.readLine();
+        } catch (IOException e) {
+            // dropped
+        }
+        synchronized (lock) {
+            // close() counted the line as dropped and reset the spill
+            if (closed)
+                return null;
+            if (line != null)
+                spillBytes -= ApplicationUtilities.utf8Length(line, 0, line.length()) + 1;
+            if (--spillCount == 0)
+                closeSpill();
+        }
+        T tuple = null;
+        if (line != null) {
+            try {
+                tuple = decoder.apply(line);
+            } catch (RuntimeException e) {
+                // dropped
+            }
+        }
+        if (tuple == null)
+            dropped.incrementAndGet();
+        return tuple;
+    }
+
+    /**
+     * Get the reader for the next spilled line, deleting the
+     * segment that has been read and flushing the writer as needed.
+     * Called with the lock held and spilled tuples not yet read.
+     */
+    private BufferedReader spillReader() throws IOException {
+        SpillSegment segment = spillSegments.peekFirst();
+        if (spillRead == segment.lines) {
+            // not the last segment as unread lines remain
+            if (spillIn != null)
+                spillIn.close();
+            spillIn = null;
+            segment.file.delete();
+            spillSegments.poll();
+            segment = spillSegments.peekFirst();
+            spillRead = 0;
+        }
+        if (segment == spillSegments.peekLast() && spillRead == spillFlushed) {
+            spillOut.flush();
+            spillFlushed = segment.lines;
+        }
+        if (spillIn == null)
+            spillIn = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(segment.file), StandardCharsets.UTF_8));
+        spillRead++;
+        return spillIn;
+    }
+
+    // called with the lock held
+    private void closeSpill() {
+        try {
+            if (spillOut != null)
+                spillOut.close();
+            if (spillIn != null)
+                spillIn.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        spillOut = null;
+        spillIn = null;
+        spillBytes = 0;
+        spillFlushed = 0;
+        spillRead = 0;
+        if (spillSegments != null) {
+            for (SpillSegment segment : spillSegments)
+                segment.file.delete();
+            spillSegments.clear();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        if (drainer != null)
+            drainer.interrupt();
+        synchronized (lock) {
+            dropped.addAndGet(queue.size() + coalesced.size() + spillCount);
+            queue.clear();
+            coalesced.clear();
+            spillCount = 0;
+            closeSpill();
+        }
+        if (registry != null) {
+            registry.remove(depthMetricName);
+            registry.remove(droppedMetricName);
+        }
+    }
+
+}
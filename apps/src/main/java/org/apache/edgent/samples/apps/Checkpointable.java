@@ -0,0 +1,57 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.util.Map;
+
+/**
+ * Keyed operator state, such as a window, that can be checkpointed
+ * by {@link Checkpoints}.
+ * <p>
+ * The state of each key is checkpointed independently,
+ * and only if it changed, as its serialized bytes.
+ * {@link Checkpoints#serialize(java.io.Serializable)} and
+ * {@link Checkpoints#deserialize(byte[])} can be used to serialize
+ * and deserialize a key's state.
+ * The keys themselves must be {@code Serializable}.
+ *
+ * @see Checkpoints#register(String, Checkpointable)
+ */
+public interface Checkpointable {
+
+    /**
+     * Get the state of the keys whose state changed since the previous call.
+     * <p>
+     * Called periodically by the checkpoint thread, concurrently with
+     * the stream's processing.  The state must be a consistent
+     * copy of the key's state.
+     * @return map of key to the key's serialized state.  Empty if nothing changed.
+     */
+    Map<Object,byte[]> changes();
+
+    /**
+     * Restore the checkpointed state.
+     * <p>
+     * Called when the state is registered, before the topology is submitted.
+     * @param state map of key to the key's serialized state,
+     *        as returned by {@link #changes()}
+     */
+    void restore(Map<Object,byte[]> state);
+
+}
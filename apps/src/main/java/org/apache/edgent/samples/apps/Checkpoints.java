@@ -0,0 +1,400 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Periodic, incremental checkpoints of an application's operator state
+ * so that a restarted application resumes with warm windows.
+ * <p>
+ * {@link Checkpointable} state is registered while the topology is built.
+ * When it's registered, the state is restored from the checkpoint file,
+ * if the file has a checkpoint of it.
+ * Once started, the changed state of each registered {@code Checkpointable}
+ * is periodically appended to the checkpoint file.
+ * <p>
+ * The checkpoint file, {@code <dir>/<name>.ckpt}, is an append-only log
+ * of records, each of which is the state of a single key of a registered
+ * {@code Checkpointable}.  A key's latest record is its checkpointed state.
+ * The records are appended to a memory-mapped region of the file, so
+ * a checkpoint doesn't make a system call per record and the appended
+ * records aren't lost if the application crashes.
+ * A record has a CRC, and a partially written record at the end of the
+ * file, e.g., from a system crash, is discarded when the file is opened.
+ * When the file is more than 4 times the size of the latest records,
+ * it's compacted: the latest records are written to a new file
+ * that atomically replaces the file.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * Checkpoints checkpoints = new Checkpoints(new File("/tmp/myApp/checkpoints"), "myApp");
+ * SnapshotWindow<JsonObject,String> lastN = SnapshotWindow.lastN(s, 10, JsonTuples.keyFn());
+ * checkpoints.register("lastN", lastN.checkpointable(jo -> jo.toString(),
+ *         text -> new JsonParser().parse(text).getAsJsonObject()));
+ * ...
+ * provider.submit(topology);
+ * checkpoints.start(10, TimeUnit.SECONDS);
+ * }</pre>
+ *
+ * @see AbstractApplication#checkpoints()
+ */
+public class Checkpoints {
+    private static final String SUFFIX = ".ckpt";
+    // the size of a mapped region of the file that records are appended to
+    private static final int REGION_SIZE = 1024 * 1024;
+    private static final int COMPACT_RATIO = 4;
+    // record header: body length and CRC
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final Map<String,Checkpointable> states = new LinkedHashMap<>();
+    // the latest record of each state's keys
+    private final Map<String,Map<Object,Record>> records = new HashMap<>();
+    private long recordsSize;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long end;
+    private Thread checkpointer;
+
+    /**
+     * A record and the offset of the key's state in it.
+     */
+    private static final class Record {
+        final byte[] bytes;
+        final int stateOffset;
+
+        Record(byte[] bytes, int stateOffset) {
+            this.bytes = bytes;
+            this.stateOffset = stateOffset;
+        }
+
+        byte[] state() {
+            return Arrays.copyOfRange(bytes, stateOffset, bytes.length);
+        }
+    }
+
+    /**
+     * Open an application's checkpoints.
+     * <p>
+     * The checkpoint file's records are read so that the state can be
+     * restored when it's registered.
+     * @param dir the checkpoint directory.  Created if it doesn't exist.
+     * @param name the application's name
+     * @throws IOException if the checkpoint file can't be opened or read
+     */
+    public Checkpoints(File dir, String name) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create checkpoint directory " + dir);
+        file = new File(dir, name + SUFFIX);
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    /**
+     * Get the checkpoint file.
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Checkpoint file is too large: " + file);
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc = new CRC32();
+        int valid = 0;
+        while (buf.remaining() >= HEADER_SIZE) {
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length <= 0 || length > buf.remaining())
+                break;
+            byte[] bytes = new byte[HEADER_SIZE + length];
+            buf.position(valid);
+            buf.get(bytes);
+            crc.reset();
+            crc.update(bytes, HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum)
+                break;
+            valid = buf.position();
+            try {
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(bytes, HEADER_SIZE, length));
+                String stateName = in.readUTF();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                put(stateName, deserialize(key),
+                        new Record(bytes, bytes.length - in.available()));
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("===== Checkpoint record ignored: " + e + " ======");
+            }
+        }
+        // discard the unused part of the last mapped region and any partial record
+        end = valid;
+        channel.truncate(end);
+    }
+
+    private void put(String stateName, Object key, Record record) {
+        Map<Object,Record> stateRecords = records.get(stateName);
+        if (stateRecords == null) {
+            stateRecords = new HashMap<>();
+            records.put(stateName, stateRecords);
+        }
+        Record previous = stateRecords.put(key, record);
+        if (previous != null)
+            recordsSize -= previous.bytes.length;
+        recordsSize += record.bytes.length;
+    }
+
+    /**
+     * Register state to checkpoint and restore its checkpointed state, if any.
+     * <p>
+     * If the state can't be restored, e.g., because it was checkpointed
+     * by an incompatible version of the application, it starts empty.
+     * @param name the state's name, unique within the application
+     * @param state the state
+     * @throws IllegalArgumentException if {@code name} is already registered
+     */
+    public synchronized void register(String name, Checkpointable state) {
+        if (states.containsKey(name))
+            throw new IllegalArgumentException("Duplicate checkpoint state " + name);
+        states.put(name, state);
+
+        Map<Object,Record> stateRecords = records.get(name);
+        if (stateRecords == null || stateRecords.isEmpty())
+            return;
+        Map<Object,byte[]> restored = new HashMap<>();
+        for (Map.Entry<Object,Record> e : stateRecords.entrySet())
+            restored.put(e.getKey(), e.getValue().state());
+        try {
+            state.restore(restored);
+            System.out.println("===== Restored checkpoint " + name + ": "
+                    + restored.size() + " keys ======");
+        } catch (RuntimeException e) {
+            System.out.println("===== Checkpoint restore failed: " + name + ": " + e + " ======");
+        }
+    }
+
+    /**
+     * Start checkpointing the registered state.
+     * <p>
+     * The state is checkpointed by a daemon thread.
+     * @param period the period between checkpoints
+     * @param unit unit for {@code period}
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (period < 1)
+            throw new IllegalArgumentException("period");
+        if (checkpointer != null)
+            return;
+        long periodMsec = unit.toMillis(period);
+        checkpointer = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(periodMsec);
+                        try {
+                            checkpoint();
+                        } catch (IOException | RuntimeException e) {
+                            System.out.println("===== Checkpoint failed: " + e + " ======");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }, "checkpoint-" + file.getName());
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Append the changed state of the registered state to the checkpoint file.
+     * @return the number of keys whose state was checkpointed
+     * @throws IOException if the checkpoint can't be written
+     */
+    public synchronized int checkpoint() throws IOException {
+        if (channel == null)
+            throw new IllegalStateException("closed");
+        int n = 0;
+        for (Map.Entry<String,Checkpointable> e : states.entrySet()) {
+            Map<Object,byte[]> changes;
+            try {
+                changes = e.getValue().changes();
+            } catch (RuntimeException ex) {
+                System.out.println("===== Checkpoint failed: " + e.getKey() + ": " + ex + " ======");
+                continue;
+            }
+            for (Map.Entry<Object,byte[]> change : changes.entrySet()) {
+                Record record = newRecord(e.getKey(), change.getKey(), change.getValue());
+                append(record.bytes);
+                put(e.getKey(), change.getKey(), record);
+                n++;
+            }
+        }
+        if (n > 0) {
+            region.force();
+            if (end > REGION_SIZE && end > COMPACT_RATIO * recordsSize)
+                compact();
+        }
+        return n;
+    }
+
+    private static Record newRecord(String stateName, Object key, byte[] state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + state.length);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0); // the header
+            out.writeUTF(stateName);
+            byte[] keyBytes = serialize((Serializable) key);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            int stateOffset = out.size();
+            out.write(state);
+            out.flush();
+
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+            record.putInt(0, record.capacity() - HEADER_SIZE);
+            record.putInt(4, (int) crc.getValue());
+            return new Record(record.array(), stateOffset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (region == null || region.remaining() < record.length)
+            region = channel.map(FileChannel.MapMode.READ_WRITE, end,
+                    Math.max(REGION_SIZE, record.length));
+        region.put(record);
+        end += record.length;
+    }
+
+    /**
+     * Replace the checkpoint file with one containing only the latest
+     * records of the registered state.
+     */
+    private void compact() throws IOException {
+        Path tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp").toPath();
+        long size = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (String name : states.keySet()) {
+                Map<Object,Record> stateRecords = records.get(name);
+                if (stateRecords == null)
+                    continue;
+                for (Record record : stateRecords.values()) {
+                    ByteBuffer buf = ByteBuffer.wrap(record.bytes);
+                    while (buf.hasRemaining())
+                        out.write(buf);
+                    size += record.bytes.length;
+                }
+            }
+            out.force(true);
+        }
+        // the records of state that's no longer registered are dropped
+        records.keySet().retainAll(states.keySet());
+
+        channel.close();
+        region = null;
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = size;
+        recordsSize = size;
+    }
+
+    /**
+     * Stop checkpointing and close the checkpoint file.
+     * <p>
+     * The state isn't checkpointed when it's closed.
+     */
+    public synchronized void close() {
+        if (checkpointer != null) {
+            checkpointer.interrupt();
+            checkpointer = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+            region = null;
+        }
+    }
+
+    /**
+     * Serialize state to checkpoint.
+     * @param state the state
+     * @return the serialized state
+     */
+    public static byte[] serialize(Serializable state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize checkpointed state.
+     * @param <T> the state's type
+     * @param bytes the serialized state
+     * @return the state
+     * @throws IllegalArgumentException if the state can't be deserialized
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (T) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Invalid checkpoint state", e);
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.edgent.connectors.file.FileWriterCycleConfig;
+import org.apache.edgent.connectors.file.FileWriterFlushConfig;
+import org.apache.edgent.connectors.file.FileWriterRetentionConfig;
+
+/**
+ * Writes a log's entries as compressed files.
+ * <p>
+ * The entries are compressed as they're written, by the {@link LogBatcher}'s
+ * thread, to the active file {@code .<baseName>.gz}, so a log's
+ * text is never written to storage.  When the active file is cycled
+ * it's renamed {@code <baseName>_YYYYMMDD_HHMMSS[_<n>].gz}.
+ * The flush, cycle and retention configurations are applied as
+ * {@link org.apache.edgent.connectors.file.FileWriterPolicy FileWriterPolicy}
+ * applies them, except that the cycle's file size is the compressed size
+ * and a cycle's tuple count and predicate aren't used.
+ * An active file left by a previous writer, e.g., before a restart,
+ * is completed when the log is next written.
+ * <p>
+ * The text is compressed in blocks of at most {@code blockSize} bytes
+ * that end with a complete line.  Each block is a separate
+ * gzip member, so a file can be read with
+ * {@link java.util.zip.GZIPInputStream} or {@code zcat} and
+ * the complete blocks of a damaged file can still be recovered.
+ * A block is written when it's full and when the flush period
+ * has elapsed since its first entry, so a flushed block may be small.
+ * The text is encoded as UTF-8.
+ *
+ * @see ApplicationUtilities#logStream(org.apache.edgent.topology.TStream, String, String)
+ * @see LogFiles
+ */
+class CompressedLogWriter implements AutoCloseable, Serializable {
+    private static final long serialVersionUID = 1L;
+    /** The default compression block size, 64KB. */
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    /** The suffix of a compressed file. */
+    static final String SUFFIX = ".gz";
+
+    private final File dir;
+    private final String baseName;
+    private final long flushMsec;
+    private final long cycleBytes;
+    private final long cycleMsec;
+    private final FileWriterRetentionConfig retentionConfig;
+    private final int blockSize;
+
+    private transient OutputStream file;
+    private transient BlockCompressor compressor;
+    private long openedMsec;
+    // when the oldest text in the compressor's block was written, -1 if none
+    private long bufferedMsec = -1;
+    private long retentionMsec;
+    private String lastYmdhms;
+    private int lastMinorSuffix;
+
+    /**
+     * Create a writer.
+     * @param dir the log directory, created when the log is written
+     * @param baseName the log's base name
+     * @param flushConfig the flush configuration
+     * @param cycleConfig the cycle configuration
+     * @param retentionConfig the retention configuration
+     * @param blockSize the maximum number of text bytes in a compressed block
+     */
+    CompressedLogWriter(File dir, String baseName, FileWriterFlushConfig<?> flushConfig,
+            FileWriterCycleConfig<?> cycleConfig, FileWriterRetentionConfig retentionConfig,
+            int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize");
+        this.dir = dir;
+        this.baseName = baseName;
+        this.flushMsec = flushConfig.getPeriodMsec();
+        this.cycleBytes = cycleConfig.getFileSize();
+        this.cycleMsec = cycleConfig.getPeriodMsec();
+        this.retentionConfig = retentionConfig;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Write entries.
+     * @param entries the entries, each ending with a newline
+     */
+    synchronized void write(CharSequence entries) {
+        long now = System.currentTimeMillis();
+        try {
+            if (compressor == null)
+                open(now);
+            byte[] text = entries.toString().getBytes(StandardCharsets.UTF_8);
+            compressor.write(text, 0, text.length);
+            if (compressor.buffered() == 0)
+                bufferedMsec = -1;
+            else if (bufferedMsec == -1)
+                bufferedMsec = now;
+            apply(now);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Apply the time-based flush, cycle and retention configurations.
+     */
+    synchronized void tick() {
+        try {
+            apply(System.currentTimeMillis());
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void apply(long now) throws IOException {
+        if (compressor != null) {
+            boolean written = compressor.written() != 0 || compressor.buffered() != 0;
+            if (written && ((cycleBytes > 0 && compressor.written() >= cycleBytes)
+                    || (cycleMsec > 0 && now - openedMsec >= cycleMsec))) {
+                cycle();
+                applyRetention(now);
+            }
+            else if (flushMsec > 0 && bufferedMsec != -1 && now - bufferedMsec >= flushMsec) {
+                compressor.finish();
+                bufferedMsec = -1;
+            }
+        }
+        if (retentionConfig.getPeriodMsec() > 0
+                && now - retentionMsec >= retentionConfig.getPeriodMsec())
+            applyRetention(now);
+    }
+
+    private Path activePath() {
+        return new File(dir, "." + baseName + SUFFIX).toPath();
+    }
+
+    private void open(long now) throws IOException {
+        dir.mkdirs();
+        Path active = activePath();
+        if (Files.exists(active))
+            complete(active);
+        file = Files.newOutputStream(active);
+        compressor = new BlockCompressor(file, blockSize);
+        openedMsec = now;
+    }
+
+    private void cycle() throws IOException {
+        try (OutputStream out = file) {
+            compressor.finish();
+        } finally {
+            file = null;
+            compressor = null;
+            bufferedMsec = -1;
+        }
+        complete(activePath());
+    }
+
+    // rename an active file to a completed file
+    private void complete(Path active) throws IOException {
+        String ymdhms = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        if (ymdhms.equals(lastYmdhms))
+            lastMinorSuffix++;
+        else
+            lastMinorSuffix = 0;
+        lastYmdhms = ymdhms;
+        Path completed;
+        while (Files.exists(completed = new File(dir, baseName + "_" + ymdhms
+                + (lastMinorSuffix == 0 ? "" : "_" + lastMinorSuffix) + SUFFIX).toPath()))
+            lastMinorSuffix++;
+        Files.move(active, completed);
+    }
+
+    // remove the oldest completed files beyond the retention limits
+    private void applyRetention(long now) {
+        retentionMsec = now;
+        List<File> files = LogFiles.list(dir, baseName, false);
+        long bytes = 0;
+        for (File f : files)
+            bytes += f.length();
+        int count = files.size();
+        long ageMsec = retentionConfig.getAgeSec() * 1000;
+        for (File f : files) {
+            boolean remove = (retentionConfig.getFileCount() > 0 && count > retentionConfig.getFileCount())
+                    || (retentionConfig.getAggregateFileSize() > 0 && bytes > retentionConfig.getAggregateFileSize())
+                    || (ageMsec > 0 && now - f.lastModified() > ageMsec);
+            if (!remove)
+                break;
+            long len = f.length();
+            if (f.delete()) {
+                count--;
+                bytes -= len;
+            }
+        }
+    }
+
+    private void failed(IOException e) {
+        System.out.println("===== Log " + baseName + " write failed: " + e + " ======");
+        // the active file is completed when the log is next written
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e2) {
+                // ignore
+            }
+        }
+        file = null;
+        compressor = null;
+        bufferedMsec = -1;
+    }
+
+    /**
+     * Compress the buffered text and close the active file.
+     * The active file is completed when the log is next written.
+     */
+    @Override
+    public synchronized void close() {
+        if (compressor == null)
+            return;
+        try (OutputStream out = file) {
+            compressor.finish();
+        } catch (IOException e) {
+            System.out.println("===== Log " + baseName + " write failed: " + e + " ======");
+        }
+        file = null;
+        compressor = null;
+        bufferedMsec = -1;
+    }
+
+    /**
+     * Compresses text as it's written, as a sequence of gzip members
+     * of at most {@code blockSize} bytes of text ending with a complete line.
+     */
+    private static final class BlockCompressor {
+        private final OutputStream file;
+        private final byte[] block;
+        private int len;
+        private long written;
+
+        BlockCompressor(OutputStream out, int blockSize) {
+            // closing a member mustn't close the file
+            file = new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    written += len;
+                }
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            block = new byte[blockSize];
+        }
+
+        void write(byte[] b, int off, int n) throws IOException {
+            while (n > 0) {
+                int count = Math.min(n, block.length - len);
+                System.arraycopy(b, off, block, len, count);
+                len += count;
+                off += count;
+                n -= count;
+                if (len == block.length)
+                    writeBlock(false);
+            }
+        }
+
+        /**
+         * Get the number of text bytes that haven't been compressed.
+         * @return the number of bytes
+         */
+        int buffered() {
+            return len;
+        }
+
+        /**
+         * Get the number of compressed bytes written.
+         * @return the number of bytes
+         */
+        long written() {
+            return written;
+        }
+
+        /**
+         * Compress the remaining text.
+         * @throws IOException on an I/O error
+         */
+        void finish() throws IOException {
+            while (len != 0)
+                writeBlock(true);
+            file.flush();
+        }
+
+        private void writeBlock(boolean last) throws IOException {
+            // write through the last complete line, carry the rest
+            int end = len;
+            if (!last) {
+                while (end > 0 && block[end - 1] != '\n')
+                    end--;
+                if (end == 0)
+                    end = len; // a line longer than a block
+            }
+            try (GZIPOutputStream member = new GZIPOutputStream(file, DEFAULT_BLOCK_SIZE / 8)) {
+                member.write(block, 0, end);
+            }
+            System.arraycopy(block, end, block, 0, len - end);
+            len -= end;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Checkpointable} for state that's only accessed by a stream's thread,
+ * such as the state of a {@code map()} function.
+ * <p>
+ * The state isn't locked.  Instead, {@link #changes()} requests a checkpoint
+ * and the stream's thread collects the changes when it processes its
+ * next tuple, by calling {@link #checkpointIfRequested()}, and hands them off
+ * to the next {@code changes()} call.  So a checkpoint lags its request by a
+ * checkpoint period, and the state of an idle stream, which isn't changing,
+ * isn't collected until a tuple arrives.
+ * Checking for a request is a volatile read.
+ */
+abstract class ConfinedCheckpointable implements Checkpointable {
+    private volatile boolean requested;
+    private final AtomicReference<Map<Object,byte[]>> handoff = new AtomicReference<>();
+
+    /**
+     * Collect the changes if a checkpoint was requested.
+     * Called by the stream's thread for each tuple, before the tuple changes the state.
+     */
+    protected final void checkpointIfRequested() {
+        if (requested) {
+            requested = false;
+            Map<Object,byte[]> changes = new HashMap<>();
+            collectChanges(changes);
+            handoff.set(changes);
+        }
+    }
+
+    /**
+     * Collect the serialized state of the keys whose state changed
+     * since the previous collection.
+     * Called by the stream's thread.
+     * @param changes map to add the changes to
+     */
+    protected abstract void collectChanges(Map<Object,byte[]> changes);
+
+    @Override
+    public Map<Object,byte[]> changes() {
+        Map<Object,byte[]> changes = handoff.getAndSet(null);
+        requested = true;
+        return changes == null ? Collections.emptyMap() : changes;
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.edgent.function.Function;
+
+/**
+ * A registry of typed, dynamically changeable application controls,
+ * such as thresholds.
+ * <p>
+ * A control is registered with a name, a function to parse its
+ * value from a string and a default value.  Its initial value is
+ * the parsed value of the configuration property with the control's
+ * name, if there is one, otherwise the default value.
+ * <p>
+ * Reading a control's value is lock-free: the registry's values are
+ * an immutable versioned snapshot that is replaced, never modified,
+ * by an update.  A value is only parsed when it's updated.
+ * {@link #update(Map)} changes any number of controls atomically:
+ * a reader of the {@link #snapshot()} sees either all or none of
+ * an update's changes.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * ControlRegistry controls = new ControlRegistry(props);
+ * ControlRegistry.Control<Range<Integer>> range = controls.register(
+ *         "sensor1.range.outside1hzMeanRange", Ranges::valueOfInteger, Ranges.closed(124, 129));
+ *
+ * stream.filter(tuple -> !range.get().contains(...));
+ *
+ * // change the threshold
+ * controls.update(Collections.singletonMap("sensor1.range.outside1hzMeanRange", "[125..127]"));
+ * }</pre>
+ */
+public class ControlRegistry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Properties config;
+    private final Map<String,Control<?>> controls = new ConcurrentHashMap<>();
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<>(new Snapshot(0, 0, new Object[0], new long[0]));
+
+    /**
+     * A registered control.
+     * @param <T> the control's value type
+     */
+    public static class Control<T> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final ControlRegistry registry;
+        private final String name;
+        private final int index;
+        private final Function<String,T> parser;
+
+        private Control(ControlRegistry registry, String name, int index, Function<String,T> parser) {
+            this.registry = registry;
+            this.name = name;
+            this.index = index;
+            this.parser = parser;
+        }
+
+        /**
+         * Get the control's name.
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the control's current value.
+         * @return the value
+         */
+        public T get() {
+            return registry.snapshot().get(this);
+        }
+
+        /**
+         * Get the registry version of the control's most recent change.
+         * @return the version
+         */
+        public long getVersion() {
+            return registry.snapshot().getVersion(this);
+        }
+
+        /**
+         * Set the control's value.
+         * @param value the value
+         */
+        public void set(T value) {
+            registry.set(Collections.<Control<?>,Object>singletonMap(this, value));
+        }
+    }
+
+    /**
+     * An immutable, consistent view of all of the controls' values.
+     */
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long version;
+        // the number of controls; the arrays may have spare capacity
+        // that's used by registrations after this snapshot
+        private final int size;
+        private final Object[] values;
+        private final long[] versions;
+
+        private Snapshot(long version, int size, Object[] values, long[] versions) {
+            this.version = version;
+            this.size = size;
+            this.values = values;
+            this.versions = versions;
+        }
+
+        /**
+         * Get the registry's version.
+         * The version changes with each update.
+         * @return the version
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Get a control's value.
+         * @param <T> the control's value type
+         * @param control the control
+         * @return the value
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(Control<T> control) {
+            return (T) values[control.index];
+        }
+
+        /**
+         * Get the registry version of a control's most recent change.
+         * @param control the control
+         * @return the version
+         */
+        public long getVersion(Control<?> control) {
+            return versions[control.index];
+        }
+    }
+
+    /**
+     * Create a registry.
+     * @param config the configuration for the controls' initial values
+     */
+    public ControlRegistry(Properties config) {
+        this.config = config;
+    }
+
+    /**
+     * Register a control.
+     * @param <T> the control's value type
+     * @param name the control's name
+     * @param parser function to parse a value
+     * @param defaultValue the value if the configuration doesn't have
+     *        a property with the control's name
+     * @return the control
+     * @throws IllegalArgumentException if a control with the name is already registered
+     */
+    public synchronized <T> Control<T> register(String name, Function<String,T> parser, T defaultValue) {
+        if (controls.containsKey(name))
+            throw new IllegalArgumentException("Control already registered: "+name);
+        String configValue = config.getProperty(name);
+        T value = configValue == null ? defaultValue : parser.apply(configValue.trim());
+
+        // Registration is serialized; updates may be concurrent.
+        // The arrays grow geometrically and a registration fills a spare
+        // slot in place: the slot is beyond the size of any published
+        // snapshot sharing the arrays, so none of them see the change.
+        Snapshot current, next;
+        int index;
+        do {
+            current = snapshot.get();
+            index = current.size;
+            Object[] values = current.values;
+            long[] versions = current.versions;
+            if (index == values.length) {
+                int capacity = Math.max(16, index * 2);
+                values = Arrays.copyOf(values, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+            }
+            values[index] = value;
+            versions[index] = current.version;
+            next = new Snapshot(current.version, index + 1, values, versions);
+        } while (!snapshot.compareAndSet(current, next));
+
+        Control<T> control = new Control<>(this, name, index, parser);
+        controls.put(name, control);
+        return control;
+    }
+
+    /**
+     * Get a registered control.
+     * @param name the control's name
+     * @return the control, null if there isn't one
+     */
+    public Control<?> getControl(String name) {
+        return controls.get(name);
+    }
+
+    /**
+     * Get the names of the registered controls.
+     * @return the names
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(controls.keySet());
+    }
+
+    /**
+     * Get a consistent view of the controls' current values.
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Atomically update the values of one or more controls.
+     * <p>
+     * All of the values are parsed before any are changed.
+     * If any control isn't registered or any value can't be parsed,
+     * no controls are changed.
+     * @param values map of control name to the string form of its value
+     * @return the registry version of the update
+     * @throws IllegalArgumentException if a control isn't registered
+     *         or a value can't be parsed
+     */
+    public long update(Map<String,String> values) {
+        Map<Control<?>,Object> parsed = new LinkedHashMap<>();
+        for (Map.Entry<String,String> e : values.entrySet()) {
+            Control<?> control = controls.get(e.getKey());
+            if (control == null)
+                throw new IllegalArgumentException("Unknown control: "+e.getKey());
+            try {
+                parsed.put(control, control.parser.apply(e.getValue().trim()));
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException("Invalid value for control "
+                        +e.getKey()+": "+e.getValue(), ex);
+            }
+        }
+        return set(parsed);
+    }
+
+    private long set(Map<Control<?>,Object> values) {
+        Snapshot current, next;
+        do {
+            current = snapshot.get();
+            long version = current.version + 1;
+            Object[] newValues = current.values.clone();
+            long[] newVersions = current.versions.clone();
+            for (Map.Entry<Control<?>,Object> e : values.entrySet()) {
+                newValues[e.getKey().index] = e.getValue();
+                newVersions[e.getKey().index] = version;
+            }
+            next = new Snapshot(version, current.size, newValues, newVersions);
+        } while (!snapshot.compareAndSet(current, next));
+        return next.version;
+    }
+
+    /**
+     * Get the current values of all of the controls.
+     * @return map of control name to value
+     */
+    public Map<String,Object> values() {
+        Snapshot current = snapshot();
+        Map<String,Object> values = new HashMap<>();
+        for (Control<?> control : controls.values()) {
+            // skip a control registered after the snapshot
+            if (control.index < current.size)
+                values.put(control.name, current.get(control));
+        }
+        return values;
+    }
+
+}
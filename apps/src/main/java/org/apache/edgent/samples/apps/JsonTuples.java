@@ -18,28 +18,41 @@ under the License.
 */
 package org.apache.edgent.samples.apps;
 
-import static org.apache.edgent.analytics.math3.stat.Statistic.MAX;
-import static org.apache.edgent.analytics.math3.stat.Statistic.MEAN;
-import static org.apache.edgent.analytics.math3.stat.Statistic.MIN;
-import static org.apache.edgent.analytics.math3.stat.Statistic.STDDEV;
-
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.math3.util.Pair;
 import org.apache.edgent.analytics.math3.json.JsonAnalytics;
+import org.apache.edgent.analytics.math3.json.JsonUnivariateAggregate;
 import org.apache.edgent.analytics.math3.stat.Statistic;
 import org.apache.edgent.function.BiFunction;
 import org.apache.edgent.function.Function;
+import org.apache.edgent.function.ToDoubleFunction;
 import org.apache.edgent.topology.TStream;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 /**
  * Utilties to ease working working with sensor "samples" by wrapping them
  * in JsonObjects.
  * <p>
  * The Json Tuple sensor "samples" have a standard collection of properties.
+ * <p>
+ * For high rate streams of numeric readings, the samples can instead
+ * be represented by the more compact {@link SensorSample}.
+ * The {@code sample} prefixed utilities operate directly on those.
  */
 public class JsonTuples {
         
@@ -54,46 +67,231 @@ public class JsonTuples {
     
     /**
      * Create a JsonObject wrapping a raw {@code Pair<Long msec,T reading>>} sample.
+     * <p>
+     * The reading may be a Number, String, Boolean, Character, JsonElement,
+     * an array or Collection of those, or a Map, which is converted to a nested
+     * JsonObject.  A {@code byte[]} reading is a JsonArray of numbers.
+     * <p>
+     * The reading's type is determined for each call.  For a stream,
+     * {@link #wrap(TStream, String, Class)} determines it once.
      * @param <T> Tuple type
      * @param sample the raw sample
      * @param id the sensor's Id
      * @return the wrapped sample
+     * @throws IllegalArgumentException if the reading's type isn't supported
      */
     public static <T> JsonObject wrap(Pair<Long,T> sample, String id) {
-        JsonObject jo = new JsonObject();
-        jo.addProperty(KEY_ID, id);
-        jo.addProperty(KEY_TS, sample.getFirst());
         T value = sample.getSecond();
-        if (value instanceof Number)
-            jo.addProperty(KEY_READING, (Number)sample.getSecond());
-        else if (value instanceof String)
-            jo.addProperty(KEY_READING, (String)sample.getSecond());
-        else if (value instanceof Boolean)
-            jo.addProperty(KEY_READING, (Boolean)sample.getSecond());
-//        else if (value instanceof array) {
-//            // TODO cvt to JsonArray
-//        }
-//        else if (value instanceof Object) {
-//            // TODO cvt to JsonObject
-//        }
-        else {
-            Class<?> clazz = value != null ? value.getClass() : Object.class;
-            throw new IllegalArgumentException("Unhandled value type: "+ clazz);
-        }
-        return jo;
+        Class<?> clazz = value != null ? value.getClass() : Object.class;
+        return newSample(id, sample.getFirst(), value, readingWriter(clazz, false));
     }
     
     /**
      * Create a stream of JsonObject wrapping a stream of 
      * raw {@code Pair<Long msec,T reading>>} samples.
+     * <p>
+     * The conversion for the reading's type is determined by the first
+     * sample and is only redetermined if a sample's reading has a different type.
      *
      * @param <T> Tuple type
      * @param stream the raw input stream
      * @param id the sensor's Id
      * @return the wrapped stream
+     * @see #wrap(Pair, String)
      */
     public static <T> TStream<JsonObject> wrap(TStream<Pair<Long,T>> stream, String id) {
-        return stream.map(pair -> wrap(pair, id));
+        return stream.map(new Wrapper<T>(id, null, false));
+    }
+    
+    /**
+     * Create a stream of JsonObject wrapping a stream of 
+     * raw {@code Pair<Long msec,T reading>>} samples whose readings
+     * have a known type.
+     * <p>
+     * The conversion for the reading's type is determined once,
+     * when the stream is created, e.g., {@code double[]} readings are
+     * written directly to a JsonArray of numbers.
+     *
+     * @param <T> Tuple type
+     * @param stream the raw input stream
+     * @param id the sensor's Id
+     * @param readingType the readings' type
+     * @return the wrapped stream
+     * @throws IllegalArgumentException if the reading's type isn't supported
+     * @see #wrap(Pair, String)
+     */
+    public static <T> TStream<JsonObject> wrap(TStream<Pair<Long,T>> stream, String id, Class<T> readingType) {
+        return stream.map(new Wrapper<T>(id, readingType, false));
+    }
+    
+    /**
+     * Create a stream of JsonObject wrapping a stream of 
+     * raw {@code Pair<Long msec,byte[] reading>>} samples.
+     * <p>
+     * The reading is either a base64 encoded string, which is much more
+     * compact than the JsonArray of numbers of {@link #wrap(TStream, String)},
+     * or that JsonArray.
+     *
+     * @param stream the raw input stream, e.g., from
+     *        {@link org.apache.edgent.samples.utils.sensor.PeriodicRandomSensor#newBytes(org.apache.edgent.topology.Topology, long, int) PeriodicRandomSensor.newBytes()}
+     * @param id the sensor's Id
+     * @param isBase64 true to encode the reading in base64
+     * @return the wrapped stream
+     */
+    public static TStream<JsonObject> wrapBytes(TStream<Pair<Long,byte[]>> stream, String id, boolean isBase64) {
+        return stream.map(new Wrapper<byte[]>(id, byte[].class, isBase64));
+    }
+    
+    private static JsonObject newSample(String id, long msec, Object value, ReadingWriter writer) {
+        JsonObject jo = new JsonObject();
+        jo.addProperty(KEY_ID, id);
+        jo.addProperty(KEY_TS, msec);
+        jo.add(KEY_READING, writer.toJson(value));
+        return jo;
+    }
+    
+    /**
+     * Wraps samples using the conversion for the readings' type.
+     */
+    private static class Wrapper<T> implements Function<Pair<Long,T>,JsonObject> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+        private final boolean isBase64;
+        private Class<?> type;
+        private ReadingWriter writer;
+        
+        Wrapper(String id, Class<T> type, boolean isBase64) {
+            this.id = id;
+            this.isBase64 = isBase64;
+            if (type != null) {
+                this.type = type;
+                this.writer = readingWriter(type, isBase64);
+            }
+        }
+
+        @Override
+        public JsonObject apply(Pair<Long,T> sample) {
+            T value = sample.getSecond();
+            if (type == null || value == null || !type.isInstance(value)) {
+                type = value != null ? value.getClass() : Object.class;
+                writer = readingWriter(type, isBase64);
+            }
+            return newSample(id, sample.getFirst(), value, writer);
+        }
+    }
+    
+    /**
+     * Converts a reading of a particular type to a JsonElement.
+     */
+    private interface ReadingWriter extends Serializable {
+        JsonElement toJson(Object value);
+    }
+    
+    /**
+     * Get the reading conversion for a type.
+     * @param type the reading's type
+     * @param isBase64 encode byte[] readings in base64
+     * @return the conversion
+     * @throws IllegalArgumentException if the type isn't supported
+     */
+    private static ReadingWriter readingWriter(Class<?> type, boolean isBase64) {
+        if (Number.class.isAssignableFrom(type))
+            return value -> new JsonPrimitive((Number) value);
+        if (type == String.class)
+            return value -> new JsonPrimitive((String) value);
+        if (type == Boolean.class)
+            return value -> new JsonPrimitive((Boolean) value);
+        if (type == Character.class)
+            return value -> new JsonPrimitive((Character) value);
+        if (JsonElement.class.isAssignableFrom(type))
+            return value -> (JsonElement) value;
+        if (type == double[].class)
+            return value -> {
+                double[] a = (double[]) value;
+                JsonArray ja = new JsonArray();
+                for (double v : a)
+                    ja.add(v);
+                return ja;
+            };
+        if (type == float[].class)
+            return value -> {
+                float[] a = (float[]) value;
+                JsonArray ja = new JsonArray();
+                for (float v : a)
+                    ja.add(v);
+                return ja;
+            };
+        if (type == long[].class)
+            return value -> {
+                long[] a = (long[]) value;
+                JsonArray ja = new JsonArray();
+                for (long v : a)
+                    ja.add(v);
+                return ja;
+            };
+        if (type == int[].class)
+            return value -> {
+                int[] a = (int[]) value;
+                JsonArray ja = new JsonArray();
+                for (int v : a)
+                    ja.add(v);
+                return ja;
+            };
+        if (type == short[].class)
+            return value -> {
+                short[] a = (short[]) value;
+                JsonArray ja = new JsonArray();
+                for (short v : a)
+                    ja.add(v);
+                return ja;
+            };
+        if (type == byte[].class) {
+            if (isBase64)
+                return value -> new JsonPrimitive(Base64.getEncoder().encodeToString((byte[]) value));
+            return value -> {
+                byte[] a = (byte[]) value;
+                JsonArray ja = new JsonArray();
+                for (byte v : a)
+                    ja.add(v);
+                return ja;
+            };
+        }
+        if (type == boolean[].class)
+            return value -> {
+                boolean[] a = (boolean[]) value;
+                JsonArray ja = new JsonArray();
+                for (boolean v : a)
+                    ja.add(v);
+                return ja;
+            };
+        if (Object[].class.isAssignableFrom(type)
+                || Collection.class.isAssignableFrom(type)
+                || Map.class.isAssignableFrom(type))
+            return value -> toJsonElement(value, isBase64);
+        throw new IllegalArgumentException("Unhandled value type: "+ type);
+    }
+    
+    /**
+     * Convert a value whose type isn't known in advance, such as
+     * the elements of an {@code Object[]} or the values of a Map.
+     */
+    private static JsonElement toJsonElement(Object value, boolean isBase64) {
+        if (value == null)
+            return JsonNull.INSTANCE;
+        if (value instanceof Object[] || value instanceof Collection) {
+            JsonArray ja = new JsonArray();
+            Iterable<?> values = value instanceof Object[] ? Arrays.asList((Object[]) value) : (Collection<?>) value;
+            for (Object v : values)
+                ja.add(toJsonElement(v, isBase64));
+            return ja;
+        }
+        if (value instanceof Map) {
+            JsonObject jo = new JsonObject();
+            for (Map.Entry<?,?> e : ((Map<?,?>) value).entrySet())
+                jo.add(String.valueOf(e.getKey()), toJsonElement(e.getValue(), isBase64));
+            return jo;
+        }
+        return readingWriter(value.getClass(), isBase64).toJson(value);
     }
     
     /**
@@ -106,6 +304,43 @@ public class JsonTuples {
         return sample -> sample.get(KEY_ID).getAsString();
     }
     
+    /**
+     * Create a stream of {@link SensorSample} from a stream of 
+     * raw {@code Pair<Long msec,T reading>>} numeric samples.
+     * <p>
+     * This is the compact alternative to {@link #wrap(TStream, String)}.
+     * Use {@link SensorSample#toJson()} to create the equivalent
+     * JsonObject sample.  Integer, Long, Short and Byte readings
+     * remain JSON integers in the JsonObject sample.
+     *
+     * @param <T> the reading's type
+     * @param stream the raw input stream
+     * @param id the sensor's Id
+     * @return the sample stream
+     */
+    public static <T extends Number> TStream<SensorSample> samples(TStream<Pair<Long,T>> stream, String id) {
+        // share a single id instance among all of the sensor's samples
+        String sampleId = id.intern();
+        return stream.map(pair -> {
+                T reading = pair.getSecond();
+                // keep an integral reading's JSON representation
+                if (reading instanceof Integer || reading instanceof Long
+                        || reading instanceof Short || reading instanceof Byte)
+                    return new SensorSample(sampleId, pair.getFirst(), reading.longValue());
+                return new SensorSample(sampleId, pair.getFirst(), reading.doubleValue());
+            });
+    }
+    
+    /**
+     * The partition key function for {@link SensorSample} samples.
+     * <p>
+     * The sample's id is returned for the key.
+     * @return the function
+     */
+    public static Function<SensorSample,String> sampleKeyFn() {
+        return sample -> sample.getId();
+    }
+    
     
     /**
      * Get a statistic value from a sample.
@@ -147,6 +382,8 @@ public class JsonTuples {
      * The single tuple contains the specified statistics computed over
      * all of the {@code JsonTuple.KEY_READING} 
      * values from {@code List<JsonObject>}.
+     * The statistics are computed in a single pass over the list
+     * using a {@link StreamingStatistics}.
      * <p>
      * The resulting sample contains the properties:
      * <ul>
@@ -166,28 +403,367 @@ public class JsonTuples {
      * TStream<JsonObject> reduced = s.batch(100, statistics(Statistic.MEAN, Statistic.STDDEV));
      * }</pre>
      * 
-     * @param statistics the statistics to calculate over the window
+     * @param statistics the statistics to calculate over the window.
+     *        See {@link StreamingStatistics} for the supported statistics.
      * @return {@code TStream<JsonObject>} for the reduced {@code stream}
      */
-    public static BiFunction<List<JsonObject>,String,JsonObject> statistics(Statistic... statistics) {
-        BiFunction<List<JsonObject>,JsonElement,JsonObject> statsFn = 
-                JsonAnalytics.aggregateList(KEY_ID, KEY_READING,
-                    j -> j.get(KEY_READING).getAsDouble(), 
-                    MIN, MAX, MEAN, STDDEV);
+    public static BiFunction<List<JsonObject>,String,JsonObject> statistics(JsonUnivariateAggregate... statistics) {
+        // validate the statistics now rather than on the first batch
+        new StreamingStatistics(statistics);
 
         return (samples, key) -> {
-                    JsonObject jo = statsFn.apply(samples, samples.get(0).get(KEY_ID));
+                    StreamingStatistics stats = new StreamingStatistics(statistics);
+                    for (JsonObject sample : samples) {
+                        stats.increment(sample.get(KEY_READING).getAsDouble());
+                    }
+                    JsonObject jo = new JsonObject();
+                    jo.add(KEY_ID, samples.get(0).get(KEY_ID));
+                    jo.add(KEY_READING, stats.result(new JsonObject()));
                     JsonTuples.addAggStdInfo(jo, samples);
                     return jo;
                 };
     }
 
+    /**
+     * Create a function that computes the specified statistics on the list of
+     * {@link SensorSample} samples and returns a new JsonObject sample
+     * containing the result.
+     * <p>
+     * The resulting sample has the same properties as one created
+     * by {@link #statistics(JsonUnivariateAggregate...)}.
+     * <p>
+     * Sample use:
+     * <pre>{@code
+     * TStream<SensorSample> s = ...
+     * // reduce s by a factor of 100 with stats MEAN and STDEV 
+     * TStream<JsonObject> reduced = s.last(100, sampleKeyFn())
+     *                  .batch(sampleStatistics(Statistic.MEAN, Statistic.STDDEV));
+     * }</pre>
+     * 
+     * @param statistics the statistics to calculate over the window.
+     *        See {@link StreamingStatistics} for the supported statistics.
+     * @return the function
+     * @see #batchStatistics(TStream, int, JsonUnivariateAggregate...)
+     */
+    public static BiFunction<List<SensorSample>,String,JsonObject> sampleStatistics(JsonUnivariateAggregate... statistics) {
+        new StreamingStatistics(statistics);
+
+        return (samples, key) -> {
+                    StreamingStatistics stats = new StreamingStatistics(statistics);
+                    for (SensorSample sample : samples) {
+                        stats.increment(sample.getReading());
+                    }
+                    int n = samples.size();
+                    return newAggSample(key, stats,
+                            samples.get(0).getMsec(), samples.get(n-1).getMsec());
+                };
+    }
+
+    /**
+     * Reduce a stream of {@link SensorSample} by computing the specified
+     * statistics over each consecutive batch of {@code count} samples
+     * for each sensor.
+     * <p>
+     * This is the incremental equivalent of
+     * {@code stream.last(count, sampleKeyFn()).batch(sampleStatistics(statistics))}.
+     * Rather than retaining the batch's samples and processing them
+     * all when the batch is full, the statistics are updated
+     * as each sample arrives and only the accumulated state is retained.
+     * <p>
+     * The resulting samples have the same properties as ones created
+     * by {@link #statistics(JsonUnivariateAggregate...)}.
+     * <p>
+     * Sample use:
+     * <pre>{@code
+     * TStream<SensorSample> s = ...
+     * // reduce s by a factor of 100 with stats MEAN and STDEV 
+     * TStream<JsonObject> reduced = batchStatistics(s, 100, Statistic.MEAN, Statistic.STDDEV);
+     * }</pre>
+     * 
+     * @param stream the stream to reduce
+     * @param count the number of samples in a batch
+     * @param statistics the statistics to calculate over the batch.
+     *        See {@link StreamingStatistics} for the supported statistics.
+     * @return the reduced stream
+     */
+    public static TStream<JsonObject> batchStatistics(TStream<SensorSample> stream, int count,
+            JsonUnivariateAggregate... statistics) {
+        return batchStatistics(stream, count, null, null, statistics);
+    }
+
+    /**
+     * Same as {@link #batchStatistics(TStream, int, JsonUnivariateAggregate...)}
+     * with checkpointing of each sensor's partial batch, so that
+     * a restarted application continues the batches rather than starting
+     * them over.
+     *
+     * @param stream the stream to reduce
+     * @param count the number of samples in a batch
+     * @param checkpoints the checkpoints to register the batches with.
+     *        May be null, in which case the batches aren't checkpointed.
+     * @param name the batches' checkpoint name
+     * @param statistics the statistics to calculate over the batch.
+     *        See {@link StreamingStatistics} for the supported statistics.
+     * @return the reduced stream
+     * @see Checkpoints#register(String, Checkpointable)
+     */
+    public static TStream<JsonObject> batchStatistics(TStream<SensorSample> stream, int count,
+            Checkpoints checkpoints, String name, JsonUnivariateAggregate... statistics) {
+        if (count < 1)
+            throw new IllegalArgumentException("count");
+        new StreamingStatistics(statistics);
+
+        SampleBatcher batcher = new SampleBatcher(count, statistics);
+        if (checkpoints != null)
+            checkpoints.register(name, batcher);
+        // map() doesn't submit a null result
+        return stream.map(batcher);
+    }
+
+    /**
+     * Per-sensor incremental batch statistics.
+     */
+    private static class SampleBatcher extends ConfinedCheckpointable
+            implements Function<SensorSample,JsonObject> {
+        private static final long serialVersionUID = 1L;
+        private final int count;
+        private final JsonUnivariateAggregate[] statistics;
+        private final Map<String,Batch> batches = new HashMap<>();
+
+        private static class Batch implements Serializable {
+            private static final long serialVersionUID = 1L;
+            final StreamingStatistics stats;
+            long beginMsec;
+            transient boolean changed;
+
+            Batch(JsonUnivariateAggregate[] statistics) {
+                stats = new StreamingStatistics(statistics);
+            }
+        }
+
+        SampleBatcher(int count, JsonUnivariateAggregate[] statistics) {
+            this.count = count;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public JsonObject apply(SensorSample sample) {
+            checkpointIfRequested();
+            Batch batch = batches.get(sample.getId());
+            if (batch == null) {
+                batch = new Batch(statistics);
+                batches.put(sample.getId(), batch);
+            }
+            if (batch.stats.getN() == 0)
+                batch.beginMsec = sample.getMsec();
+            batch.stats.increment(sample.getReading());
+            batch.changed = true;
+            if (batch.stats.getN() < count)
+                return null;
+
+            JsonObject jo = newAggSample(sample.getId(), batch.stats,
+                    batch.beginMsec, sample.getMsec());
+            batch.stats.clear();
+            return jo;
+        }
+
+        @Override
+        protected void collectChanges(Map<Object,byte[]> changes) {
+            for (Map.Entry<String,Batch> e : batches.entrySet()) {
+                Batch batch = e.getValue();
+                if (batch.changed) {
+                    changes.put(e.getKey(), Checkpoints.serialize(batch));
+                    batch.changed = false;
+                }
+            }
+        }
+
+        @Override
+        public void restore(Map<Object,byte[]> state) {
+            for (Map.Entry<Object,byte[]> e : state.entrySet()) {
+                Batch batch = Checkpoints.deserialize(e.getValue());
+                // ignore a batch of a larger configured batch size
+                if (batch.stats.getN() < count)
+                    batches.put((String) e.getKey(), batch);
+            }
+        }
+    }
+
+    /**
+     * Compute statistics over a per-key count based sliding window
+     * of the last {@code count} values.
+     * <p>
+     * The window's {@link SlidingStatistics} are incrementally updated
+     * as each tuple arrives - adding the tuple's value and subtracting
+     * the value evicted from the window - so the cost per tuple is
+     * independent of the window size.
+     * The tuple and the updated statistics for its key are
+     * passed to {@code resultFn}.
+     * If {@code resultFn} returns null, no tuple is submitted.
+     * <p>
+     * Sample use:
+     * <pre>{@code
+     * TStream<JsonObject> s = ...
+     * // enrich each sample with the average of its last 30 readings
+     * s = slidingStatistics(s, 30, keyFn(),
+     *          sample -> sample.get(KEY_READING).getAsDouble(),
+     *          (sample, trailing) -> {
+     *              sample.addProperty("trailingMean", trailing.getMean());
+     *              return sample;
+     *          });
+     * }</pre>
+     *
+     * @param <T> Tuple type
+     * @param <K> Key type
+     * @param <R> Result tuple type
+     * @param stream the input stream
+     * @param count the window size
+     * @param keyFn the partition key function, e.g., {@link #keyFn()}
+     * @param valueFn function to get the tuple's value
+     * @param resultFn function to create the result tuple
+     * @return the result stream
+     */
+    public static <T,K,R> TStream<R> slidingStatistics(TStream<T> stream, int count,
+            Function<T,K> keyFn, ToDoubleFunction<T> valueFn,
+            BiFunction<T,SlidingStatistics,R> resultFn) {
+        return slidingStatistics(stream, count, keyFn, valueFn, resultFn, null, null);
+    }
+
+    /**
+     * Same as {@link #slidingStatistics(TStream, int, Function, ToDoubleFunction, BiFunction)}
+     * with checkpointing of each key's window, so that a restarted
+     * application's statistics include the values from before the restart.
+     * The keys must be {@code Serializable}.
+     *
+     * @param <T> Tuple type
+     * @param <K> Key type
+     * @param <R> Result tuple type
+     * @param stream the input stream
+     * @param count the window size
+     * @param keyFn the partition key function, e.g., {@link #keyFn()}
+     * @param valueFn function to get the tuple's value
+     * @param resultFn function to create the result tuple
+     * @param checkpoints the checkpoints to register the windows with.
+     *        May be null, in which case the windows aren't checkpointed.
+     * @param name the windows' checkpoint name
+     * @return the result stream
+     * @see Checkpoints#register(String, Checkpointable)
+     */
+    public static <T,K,R> TStream<R> slidingStatistics(TStream<T> stream, int count,
+            Function<T,K> keyFn, ToDoubleFunction<T> valueFn,
+            BiFunction<T,SlidingStatistics,R> resultFn,
+            Checkpoints checkpoints, String name) {
+        SlidingStatistics.ofCount(count);
+        SlidingAggregator<T,K,R> aggregator =
+                new SlidingAggregator<T,K,R>(count, 0, keyFn, valueFn, resultFn);
+        if (checkpoints != null)
+            checkpoints.register(name, aggregator);
+        return stream.map(aggregator);
+    }
+
+    /**
+     * Compute statistics over a per-key time based sliding window
+     * of the values that arrived within the last {@code time}.
+     * <p>
+     * Same as {@link #slidingStatistics(TStream, int, Function, ToDoubleFunction, BiFunction)}
+     * except for the window's eviction policy.  Like {@link TStream#last(long, TimeUnit, Function)},
+     * the tuple arrival time is used.
+     *
+     * @param <T> Tuple type
+     * @param <K> Key type
+     * @param <R> Result tuple type
+     * @param stream the input stream
+     * @param time the window's time span
+     * @param unit unit for {@code time}
+     * @param keyFn the partition key function, e.g., {@link #keyFn()}
+     * @param valueFn function to get the tuple's value
+     * @param resultFn function to create the result tuple
+     * @return the result stream
+     */
+    public static <T,K,R> TStream<R> slidingStatistics(TStream<T> stream, long time, TimeUnit unit,
+            Function<T,K> keyFn, ToDoubleFunction<T> valueFn,
+            BiFunction<T,SlidingStatistics,R> resultFn) {
+        long timeMsec = unit.toMillis(time);
+        SlidingStatistics.ofTime(timeMsec);
+        return stream.map(new SlidingAggregator<T,K,R>(0, timeMsec, keyFn, valueFn, resultFn));
+    }
+
+    /**
+     * Per-key incremental sliding window statistics.
+     */
+    private static class SlidingAggregator<T,K,R> extends ConfinedCheckpointable
+            implements Function<T,R> {
+        private static final long serialVersionUID = 1L;
+        private final int count;
+        private final long timeMsec;
+        private final Function<T,K> keyFn;
+        private final ToDoubleFunction<T> valueFn;
+        private final BiFunction<T,SlidingStatistics,R> resultFn;
+        private final Map<K,SlidingStatistics> windows = new HashMap<>();
+        private final Set<K> changed = new HashSet<>();
+
+        SlidingAggregator(int count, long timeMsec, Function<T,K> keyFn,
+                ToDoubleFunction<T> valueFn, BiFunction<T,SlidingStatistics,R> resultFn) {
+            this.count = count;
+            this.timeMsec = timeMsec;
+            this.keyFn = keyFn;
+            this.valueFn = valueFn;
+            this.resultFn = resultFn;
+        }
+
+        @Override
+        public R apply(T tuple) {
+            checkpointIfRequested();
+            K key = keyFn.apply(tuple);
+            SlidingStatistics window = windows.get(key);
+            if (window == null) {
+                window = count > 0 ? SlidingStatistics.ofCount(count)
+                                   : SlidingStatistics.ofTime(timeMsec);
+                windows.put(key, window);
+            }
+            window.add(System.currentTimeMillis(), valueFn.applyAsDouble(tuple));
+            changed.add(key);
+            return resultFn.apply(tuple, window);
+        }
+
+        @Override
+        protected void collectChanges(Map<Object,byte[]> changes) {
+            for (K key : changed)
+                changes.put(key, Checkpoints.serialize(windows.get(key)));
+            changed.clear();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void restore(Map<Object,byte[]> state) {
+            for (Map.Entry<Object,byte[]> e : state.entrySet()) {
+                SlidingStatistics window = Checkpoints.deserialize(e.getValue());
+                // ignore a window with a different eviction policy
+                if (window.isPolicy(count, timeMsec))
+                    windows.put((K) e.getKey(), window);
+            }
+        }
+    }
+
+    private static JsonObject newAggSample(String id, StreamingStatistics stats,
+            long beginMsec, long endMsec) {
+        JsonObject jo = new JsonObject();
+        jo.addProperty(KEY_ID, id);
+        jo.add(KEY_READING, stats.result(new JsonObject()));
+        addAggStdInfo(jo, beginMsec, endMsec, (int) stats.getN());
+        return jo;
+    }
+
     private static void addAggStdInfo(JsonObject jo, List<JsonObject> samples) {
         // beginMsec, endMsec, nSamples
         long msec = samples.get(0).get(KEY_TS).getAsLong();
         long msec2 = samples.get(samples.size()-1).get(KEY_TS).getAsLong();
         int nSamples = samples.size();
         
+        addAggStdInfo(jo, msec, msec2, nSamples);
+    }
+
+    private static void addAggStdInfo(JsonObject jo, long msec, long msec2, int nSamples) {
         jo.addProperty(KEY_TS, msec2);
         jo.addProperty(KEY_AGG_BEGIN_TS, msec);
         jo.addProperty(KEY_AGG_COUNT, nSamples);
@@ -0,0 +1,139 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with a bounded relative error,
+ * in the style of an HDR histogram.
+ * <p>
+ * Values are counted in log-linear buckets: each power of 2 range of values
+ * is divided into 32 equal buckets, so a value's
+ * bucket, and a percentile, is within about 3% of the value.
+ * Values from 0 to {@code Long.MAX_VALUE} nanoseconds are counted
+ * in a fixed number of buckets.
+ * <p>
+ * Recording a value is an increment of its bucket's count and doesn't allocate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int N_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(N_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * @param nanos the latency.  A negative latency is recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        count.incrementAndGet();
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))
+            ;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        // the value's power of 2 range and the SUB_BUCKET_BITS bits after its top bit
+        int shift = 64 - (SUB_BUCKET_BITS + 1) - Long.numberOfLeadingZeros(value);
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // the largest value in a bucket
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the maximum recorded latency.
+     * @return the latency in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get a percentile of the recorded latencies.
+     * <p>
+     * The result is the largest value in the bucket of the percentile's latency,
+     * limited to the maximum recorded latency.
+     * Concurrently recorded latencies may or may not be included.
+     * @param percentile the percentile, e.g., 99.9
+     * @return the latency in nanoseconds, 0 if no latencies are recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile");
+        long total = 0;
+        long[] snapshot = new long[N_BUCKETS];
+        for (int i = 0; i < N_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long n = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            n += snapshot[i];
+            if (n >= rank)
+                return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Clear the recorded latencies.
+     */
+    public void reset() {
+        for (int i = 0; i < N_BUCKETS; i++)
+            counts.set(i, 0);
+        count.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%dus p99=%dus p99.9=%dus max=%dus",
+                getCount(), getPercentile(50) / 1000, getPercentile(99) / 1000,
+                getPercentile(99.9) / 1000, getMax() / 1000);
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.edgent.oplet.OpletContext;
+import org.apache.edgent.oplet.core.Peek;
+import org.apache.edgent.topology.TStream;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Measure the latency of a stream's tuples since they were stamped
+ * at their source.
+ * <p>
+ * A tuple's stamp is the time it was created at its source, and the
+ * latency is measured with the same clock that stamped the tuple:
+ * <ul>
+ * <li>{@link #LatencyProbe(String, StampFunction)} - the stamp is a
+ *     {@link System#nanoTime()} value.  This has nanosecond resolution
+ *     and isn't affected by changes to the system clock, but the stamp
+ *     is only meaningful in the process that created it.</li>
+ * <li>{@link #epochMillis(String, StampFunction)} - the stamp is a
+ *     {@link System#currentTimeMillis()} timestamp, such as the timestamp of
+ *     a {@link SensorSample} or a {@link JsonTuples} sample or aggregate;
+ *     see {@link #jsonStampFn()}.  The latencies have millisecond resolution
+ *     and are affected by changes to the system clock.</li>
+ * </ul>
+ * The latency of a tuple without a stamp isn't measured.
+ * <p>
+ * The latencies are recorded in a {@link LatencyHistogram}.  If the topology
+ * provider has a {@code MetricRegistry} service, e.g., the {@code DevelopmentProvider}
+ * which also reports the registry's metrics via JMX, the following
+ * gauges are registered:
+ * {@code <tag>.latency.count}, and the {@code <tag>.latency.p50Usec},
+ * {@code .p99Usec}, {@code .p999Usec} and {@code .maxUsec} latencies in microseconds.
+ * <p>
+ * The stamps are primitive {@code long} values, so measuring a tuple's
+ * latency doesn't allocate or lock.
+ *
+ * @param <T> Tuple type
+ * @see ApplicationUtilities#latencyStream(TStream, String, StampFunction)
+ */
+public class LatencyProbe<T> extends Peek<T> {
+
+    /**
+     * Get a tuple's stamp as a primitive {@code long}.
+     *
+     * @param <T> Tuple type
+     */
+    public interface StampFunction<T> extends Serializable {
+        /**
+         * Get a tuple's stamp.
+         * @param tuple the tuple
+         * @return the stamp, or {@link LatencyProbe#NO_STAMP} if the tuple isn't stamped
+         */
+        long applyAsLong(T tuple);
+    }
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] GAUGES = { "p50Usec", "p99Usec", "p999Usec", "maxUsec", "count" };
+    /** The stamp of a tuple that isn't stamped. */
+    public static final long NO_STAMP = Long.MIN_VALUE;
+
+    private final String tag;
+    private final StampFunction<T> stampFn;
+    private final boolean epochMillis;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private transient MetricRegistry registry;
+    private transient String[] metricNames;
+
+    /**
+     * Create a probe for tuples stamped in the same process
+     * with {@link System#nanoTime()}.
+     * @param tag the name of the measurement point
+     * @param stampFn function to get a tuple's {@code System.nanoTime()} stamp.
+     *        The function returns {@link #NO_STAMP} if the tuple isn't stamped.
+     */
+    public LatencyProbe(String tag, StampFunction<T> stampFn) {
+        this(tag, stampFn, false);
+    }
+
+    private LatencyProbe(String tag, StampFunction<T> stampFn, boolean epochMillis) {
+        this.tag = tag;
+        this.stampFn = stampFn;
+        this.epochMillis = epochMillis;
+    }
+
+    /**
+     * Create a probe for tuples stamped with a
+     * {@link System#currentTimeMillis()} timestamp.
+     * <p>
+     * The latencies have millisecond resolution.
+     * @param <T> Tuple type
+     * @param tag the name of the measurement point
+     * @param stampFn function to get a tuple's timestamp in epoch milliseconds,
+     *        e.g., {@link #jsonStampFn()}.
+     *        The function returns {@link #NO_STAMP} if the tuple isn't stamped.
+     * @return the probe
+     */
+    public static <T> LatencyProbe<T> epochMillis(String tag, StampFunction<T> stampFn) {
+        return new LatencyProbe<>(tag, stampFn, true);
+    }
+
+    /**
+     * Get a stamp function for {@link JsonTuples} samples and aggregates.
+     * <p>
+     * The stamp is the sample's {@link JsonTuples#KEY_TS} timestamp
+     * in epoch milliseconds, for use with {@link #epochMillis(String, StampFunction)}.
+     * An aggregate's timestamp is its last sample's timestamp.
+     * @return the function
+     */
+    public static StampFunction<JsonObject> jsonStampFn() {
+        return jo -> {
+            JsonElement msec = jo.get(JsonTuples.KEY_TS);
+            return msec == null || !msec.isJsonPrimitive() ? NO_STAMP : msec.getAsLong();
+        };
+    }
+
+    @Override
+    public void initialize(OpletContext<T, T> context) {
+        super.initialize(context);
+        registry = context.getService(MetricRegistry.class);
+        if (registry != null) {
+            metricNames = new String[GAUGES.length];
+            for (int i = 0; i < GAUGES.length; i++)
+                metricNames[i] = context.uniquify(tag + ".latency." + GAUGES[i]);
+            registry.register(metricNames[0], (Gauge<Long>) () -> histogram.getPercentile(50) / 1000);
+            registry.register(metricNames[1], (Gauge<Long>) () -> histogram.getPercentile(99) / 1000);
+            registry.register(metricNames[2], (Gauge<Long>) () -> histogram.getPercentile(99.9) / 1000);
+            registry.register(metricNames[3], (Gauge<Long>) () -> histogram.getMax() / 1000);
+            registry.register(metricNames[4], (Gauge<Long>) histogram::getCount);
+        }
+    }
+
+    /**
+     * Get the name of the measurement point.
+     * @return the tag
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Get the recorded latencies.
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    protected void peek(T tuple) {
+        long stamp = stampFn.applyAsLong(tuple);
+        if (stamp == NO_STAMP)
+            return;
+        if (epochMillis)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - stamp));
+        else
+            histogram.record(System.nanoTime() - stamp);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (registry != null) {
+            for (String name : metricNames)
+                registry.remove(name);
+        }
+    }
+
+}
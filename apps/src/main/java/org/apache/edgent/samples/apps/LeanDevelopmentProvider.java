@@ -0,0 +1,197 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.edgent.console.server.HttpServer;
+import org.apache.edgent.execution.Job;
+import org.apache.edgent.execution.services.ControlService;
+import org.apache.edgent.metrics.MetricsSetup;
+import org.apache.edgent.providers.development.DevelopmentProvider;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.runtime.jmxcontrol.JMXControlService;
+import org.apache.edgent.topology.Topology;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.gson.JsonObject;
+
+/**
+ * A {@link DevelopmentProvider} alternative that starts faster.
+ * <p>
+ * Creating a {@code DevelopmentProvider} starts the Edgent Console's
+ * HTTP server, the platform MBean server and the metrics JMX reporter,
+ * which can take a second or more on a small device, before
+ * a topology is even built.
+ * A {@code LeanDevelopmentProvider} is a {@code DirectProvider} with a
+ * {@code MetricRegistry} service, and the console, JMX control service
+ * and JMX reporter are started in the background after the first topology
+ * is submitted, so they don't delay the topology's first tuples.
+ * <p>
+ * The jobs' controls and the registry's metrics are registered with JMX
+ * when it's started, so the console includes the jobs submitted before
+ * it was started.
+ * Unlike the {@code DevelopmentProvider}, stream tuple counters
+ * and stream scopes aren't added to a submitted topology.
+ *
+ * @see TopologyProviderFactory
+ */
+public class LeanDevelopmentProvider extends DirectProvider {
+    private final long servicesDelayMsec;
+    private final MetricRegistry registry = new MetricRegistry();
+    private final MirroredControlService controlService;
+    private boolean isServicesScheduled;
+    private boolean isServicesStarted;
+
+    /**
+     * Create a provider.
+     * @param servicesDelay the delay after the first submit before the
+     *        console and JMX services are started.
+     *        Negative to only start them with {@link #startServices()}.
+     * @param unit unit for {@code servicesDelay}
+     */
+    public LeanDevelopmentProvider(long servicesDelay, TimeUnit unit) {
+        servicesDelayMsec = servicesDelay < 0 ? -1 : unit.toMillis(servicesDelay);
+        controlService = new MirroredControlService(getServices().getService(ControlService.class));
+        getServices().addService(ControlService.class, controlService);
+        getServices().addService(MetricRegistry.class, registry);
+    }
+
+    @Override
+    public Future<Job> submit(Topology topology, JsonObject config) {
+        Future<Job> job = super.submit(topology, config);
+        scheduleServices();
+        return job;
+    }
+
+    private synchronized void scheduleServices() {
+        if (isServicesScheduled || servicesDelayMsec < 0)
+            return;
+        isServicesScheduled = true;
+        Thread starter = new Thread(() -> {
+                try {
+                    Thread.sleep(servicesDelayMsec);
+                    startServices();
+                } catch (InterruptedException e) {
+                    // exiting
+                } catch (Exception e) {
+                    System.err.println("Edgent Console failed to start: " + e);
+                }
+            }, "edgent-lean-services");
+        starter.setDaemon(true);
+        starter.start();
+    }
+
+    /**
+     * Start the console, JMX control service and JMX reporter if they
+     * haven't been started.
+     * @throws Exception if the services can't be started
+     */
+    public synchronized void startServices() throws Exception {
+        if (isServicesStarted)
+            return;
+        isServicesStarted = true;
+        MetricsSetup.withRegistry(getServices(), registry)
+            .startJMXReporter(DevelopmentProvider.JMX_DOMAIN);
+        controlService.mirrorTo(new JMXControlService(DevelopmentProvider.JMX_DOMAIN,
+                new Hashtable<>()));
+
+        HttpServer httpServer = HttpServer.getInstance();
+        getServices().addService(HttpServer.class, httpServer);
+        httpServer.startServer();
+        System.out.println("Edgent Console URL for the job: " + httpServer.getConsoleUrl());
+    }
+
+    /**
+     * A control service whose controls are also registered
+     * with another control service once it's available.
+     * The controls are accessed using the primary service.
+     */
+    private static class MirroredControlService implements ControlService {
+        private final ControlService primary;
+        private final Map<String,Registration> registrations = new LinkedHashMap<>();
+        private ControlService mirror;
+
+        private static class Registration {
+            final String type;
+            final String id;
+            final String alias;
+            final Class<?> controlInterface;
+            final Object control;
+            String mirrorId;
+
+            Registration(String type, String id, String alias, Class<?> controlInterface, Object control) {
+                this.type = type;
+                this.id = id;
+                this.alias = alias;
+                this.controlInterface = controlInterface;
+                this.control = control;
+            }
+
+            <T> String registerWith(ControlService service, Class<T> controlInterface) {
+                return service.registerControl(type, id, alias, controlInterface,
+                        controlInterface.cast(control));
+            }
+        }
+
+        MirroredControlService(ControlService primary) {
+            this.primary = primary;
+        }
+
+        synchronized void mirrorTo(ControlService mirror) {
+            this.mirror = mirror;
+            for (Registration r : registrations.values())
+                r.mirrorId = r.registerWith(mirror, r.controlInterface);
+        }
+
+        @Override
+        public synchronized <T> String registerControl(String type, String id, String alias,
+                Class<T> controlInterface, T control) {
+            String controlId = primary.registerControl(type, id, alias, controlInterface, control);
+            Registration r = new Registration(type, id, alias, controlInterface, control);
+            if (mirror != null)
+                r.mirrorId = r.registerWith(mirror, controlInterface);
+            registrations.put(controlId, r);
+            return controlId;
+        }
+
+        @Override
+        public synchronized void unregister(String controlId) {
+            primary.unregister(controlId);
+            Registration r = registrations.remove(controlId);
+            if (r != null && r.mirrorId != null)
+                mirror.unregister(r.mirrorId);
+        }
+
+        @Override
+        public <T> T getControl(String type, String alias, Class<T> controlInterface) {
+            return primary.getControl(type, alias, controlInterface);
+        }
+
+        @Override
+        public <T> String getControlId(String type, String alias, Class<T> controlInterface) {
+            return primary.getControlId(type, alias, controlInterface);
+        }
+    }
+
+}
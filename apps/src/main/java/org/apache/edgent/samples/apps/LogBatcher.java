@@ -0,0 +1,214 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.edgent.oplet.core.Pipe;
+
+/**
+ * Formats tuples as log entries and submits them in batches
+ * from its own thread.
+ * <p>
+ * A log entry is {@code [<timestamp>] [<eventTag>] <tuple>.toString()}
+ * where the timestamp is {@code yyyy-MM-dd HH:mm:ss.SSS} local time.
+ * <p>
+ * The upstream thread only formats the entry into a buffer.
+ * Every {@code batchMsec}, or sooner if the buffer is large,
+ * the buffered entries are submitted as a single newline separated
+ * string, so the downstream writer does a single write for the batch
+ * and the file I/O is done off the upstream thread.
+ * The timestamp's text is only formatted once per second and the
+ * buffers are reused for each batch.
+ * <p>
+ * If the downstream can't keep up and {@code maxPendingBytes} of UTF-8 encoded
+ * entries are buffered, entries are dropped and a count of the dropped
+ * entries is logged in the next batch.
+ * <p>
+ * The buffered entries are submitted when the batcher is closed.
+ * <p>
+ * If the batcher has a {@link CompressedLogWriter}, the batches are
+ * written to it by the batcher's thread rather than submitted.
+ *
+ * @param <T> Tuple type
+ * @see ApplicationUtilities#logStream(org.apache.edgent.topology.TStream, String, String)
+ */
+class LogBatcher<T> extends Pipe<T,String> {
+    private static final long serialVersionUID = 1L;
+    // submit a batch early once it's this large
+    private static final int BATCH_CHARS = 64 * 1024;
+
+    private final String eventTag;
+    private final long batchMsec;
+    private final long maxPendingBytes;
+    private final CompressedLogWriter log;
+
+    private final Object lock = new Object();
+    private StringBuilder pending = new StringBuilder(BATCH_CHARS);
+    private StringBuilder spare = new StringBuilder(BATCH_CHARS);
+    private long pendingBytes;
+    private long dropped;
+
+    // the cached timestamp text for the current second
+    private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.");
+    private long second = -1;
+    private String secondText;
+
+    private transient Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Create a batcher.
+     * @param eventTag the tag for the log entries
+     * @param batchMsec the maximum time an entry is buffered
+     * @param maxPendingBytes the maximum UTF-8 encoded size of the buffered entries
+     */
+    LogBatcher(String eventTag, long batchMsec, long maxPendingBytes) {
+        this(eventTag, batchMsec, maxPendingBytes, null);
+    }
+
+    /**
+     * Create a batcher that writes the batches to a compressed log.
+     * @param eventTag the tag for the log entries
+     * @param batchMsec the maximum time an entry is buffered
+     * @param maxPendingBytes the maximum UTF-8 encoded size of the buffered entries
+     * @param log the log to write the batches to, null to submit them
+     */
+    LogBatcher(String eventTag, long batchMsec, long maxPendingBytes, CompressedLogWriter log) {
+        if (batchMsec < 1)
+            throw new IllegalArgumentException("batchMsec");
+        if (maxPendingBytes < 1)
+            throw new IllegalArgumentException("maxPendingBytes");
+        this.eventTag = eventTag;
+        this.batchMsec = batchMsec;
+        this.maxPendingBytes = maxPendingBytes;
+        this.log = log;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        ThreadFactory threadFactory = getOpletContext().getService(ThreadFactory.class);
+        if (threadFactory == null)
+            threadFactory = Executors.defaultThreadFactory();
+        writer = threadFactory.newThread(this::drain);
+        writer.start();
+    }
+
+    @Override
+    public void accept(T tuple) {
+        long msec = System.currentTimeMillis();
+        String text = String.valueOf(tuple);
+        synchronized (lock) {
+            if (pendingBytes >= maxPendingBytes) {
+                dropped++;
+                return;
+            }
+            int start = pending.length();
+            pending.append('[');
+            appendTimestamp(pending, msec);
+            pending.append("] [").append(eventTag).append("] ").append(text).append('\n');
+            pendingBytes += ApplicationUtilities.utf8Length(pending, start, pending.length());
+            if (pending.length() >= BATCH_CHARS)
+                lock.notify();
+        }
+    }
+
+    // called with the lock held
+    private void appendTimestamp(StringBuilder sb, long msec) {
+        long sec = msec / 1000;
+        if (sec != second) {
+            second = sec;
+            secondText = secondFormat.format(new Date(sec * 1000));
+        }
+        int millis = (int) (msec % 1000);
+        sb.append(secondText);
+        if (millis < 100)
+            sb.append('0');
+        if (millis < 10)
+            sb.append('0');
+        sb.append(millis);
+    }
+
+    private void drain() {
+        try {
+            while (!closed) {
+                synchronized (lock) {
+                    if (pending.length() < BATCH_CHARS)
+                        lock.wait(batchMsec);
+                }
+                submitPending();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            // don't lose the entries buffered when the batcher is closed
+            submitPending();
+        }
+    }
+
+    private void submitPending() {
+        synchronized (lock) {
+            if (dropped != 0) {
+                pending.append('[');
+                appendTimestamp(pending, System.currentTimeMillis());
+                pending.append("] [").append(eventTag).append("] ")
+                       .append(dropped).append(" log entries dropped\n");
+                dropped = 0;
+            }
+            if (pending.length() != 0) {
+                StringBuilder full = pending;
+                pending = spare;
+                spare = full;
+                pendingBytes = 0;
+            }
+        }
+        // the log's I/O is done without the lock so accept() isn't blocked
+        if (log != null) {
+            if (spare.length() == 0)
+                log.tick();
+            else
+                log.write(spare);
+            spare.setLength(0);
+            return;
+        }
+        if (spare.length() == 0)
+            return;
+        // the downstream writer adds the final newline
+        String batch = spare.substring(0, spare.length() - 1);
+        spare.setLength(0);
+        submit(batch);
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+            // let the writer submit the buffered entries
+            writer.join(1000);
+        }
+        if (log != null)
+            log.close();
+    }
+
+}
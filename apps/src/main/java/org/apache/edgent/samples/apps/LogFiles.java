@@ -0,0 +1,219 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.Topology;
+
+/**
+ * Read the files written by {@link ApplicationUtilities#logStream(TStream, String, String)}
+ * and {@link org.apache.edgent.connectors.file.FileStreams#textFileWriter(TStream, org.apache.edgent.function.Supplier, org.apache.edgent.function.Supplier) FileStreams.textFileWriter()}.
+ * <p>
+ * Both text files and the files of a log written with the
+ * {@code application.log.compress} property are read.  A file's lines are read as they're submitted, so a file
+ * is never entirely in memory.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<String> entries = LogFiles.read(topology,
+ *         new File("/tmp/SensorAnalytics/logs"), "outside1hzMeanRange");
+ * }</pre>
+ */
+public class LogFiles {
+
+    private LogFiles() { }
+
+    /**
+     * List a log's files, oldest first.
+     * <p>
+     * The completed files, {@code <baseName>_YYYYMMDD_HHMMSS[_<n>][.gz]},
+     * are listed.  The active file, {@code .<baseName>} or {@code .<baseName>.gz},
+     * is listed last if {@code includeActive} is true.
+     * @param dir the log directory
+     * @param baseName the log's base name
+     * @param includeActive true to include the active file
+     * @return the files
+     */
+    public static List<File> list(File dir, String baseName, boolean includeActive) {
+        // e.g., not another log's <baseName>_x_YYYYMMDD_HHMMSS files
+        Pattern pattern = Pattern.compile(Pattern.quote(baseName)
+                + "_(\\d{8}_\\d{6})(?:_(\\d+))?(?:" + Pattern.quote(CompressedLogWriter.SUFFIX) + ")?");
+        File[] completed = dir.listFiles((d, name) -> pattern.matcher(name).matches());
+        List<File> files = new ArrayList<>();
+        if (completed != null) {
+            // the timestamp and then the minor suffix's number sort in order of creation
+            Arrays.sort(completed, Comparator
+                    .comparing((File f) -> group(pattern, f, 1))
+                    .thenComparingLong(f -> {
+                        String minor = group(pattern, f, 2);
+                        return minor == null ? 0 : Long.parseLong(minor);
+                    }));
+            files.addAll(Arrays.asList(completed));
+        }
+        if (includeActive) {
+            for (String name : new String[] { "." + baseName, "." + baseName + CompressedLogWriter.SUFFIX }) {
+                File active = new File(dir, name);
+                if (active.exists())
+                    files.add(active);
+            }
+        }
+        return files;
+    }
+
+    private static String group(Pattern pattern, File file, int group) {
+        Matcher matcher = pattern.matcher(file.getName());
+        matcher.matches();
+        return matcher.group(group);
+    }
+
+    /**
+     * Read the lines of a log's files.
+     * <p>
+     * The completed files, and then the active file, are read once.
+     * @param topology the topology to add the source to
+     * @param dir the log directory
+     * @param baseName the log's base name
+     * @return the lines
+     * @see #list(File, String, boolean)
+     */
+    public static TStream<String> read(Topology topology, File dir, String baseName) {
+        TStream<String> pathnames = topology.source(() -> {
+                List<String> paths = new ArrayList<>();
+                for (File file : list(dir, baseName, true))
+                    paths.add(file.getPath());
+                return paths;
+            }).tag(baseName+".files");
+        return read(pathnames);
+    }
+
+    /**
+     * Read the lines of files.
+     * <p>
+     * A compressed log file, or any
+     * gzip file, is decompressed.
+     * @param pathnames the pathnames of the files to read
+     * @return the lines
+     */
+    public static TStream<String> read(TStream<String> pathnames) {
+        return pathnames.flatMap(pathname -> lines(new File(pathname)));
+    }
+
+    /**
+     * Get a file's lines.
+     * <p>
+     * The file is opened when iteration starts and is closed
+     * when the last line has been read.  The lines of a compressed
+     * file end at a truncated or damaged block.  The iterator is
+     * {@link AutoCloseable} to close the file before then.
+     * @param file the file
+     * @return the lines
+     */
+    public static Iterable<String> lines(File file) {
+        return () -> new LineIterator(file);
+    }
+
+    private static class LineIterator implements Iterator<String>, AutoCloseable {
+        private final BufferedReader reader;
+        private String next;
+
+        LineIterator(File file) {
+            InputStream in = null;
+            try {
+                in = Files.newInputStream(Paths.get(file.getPath()));
+                if (file.getName().endsWith(CompressedLogWriter.SUFFIX))
+                    in = new GZIPInputStream(in, CompressedLogWriter.DEFAULT_BLOCK_SIZE / 8);
+            } catch (EOFException | ZipException e) {
+                // an empty or damaged compressed file doesn't have any lines
+                try {
+                    in.close();
+                } catch (IOException e2) {
+                    // ignore
+                }
+                in = new ByteArrayInputStream(new byte[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void advance() throws IOException {
+            try {
+                next = reader.readLine();
+            } catch (EOFException | ZipException e) {
+                // a truncated or damaged block ends the file's lines,
+                // e.g., the block being written to an active file
+                next = null;
+            }
+            if (next == null)
+                reader.close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            next = null;
+            reader.close();
+        }
+
+        @Override
+        public String next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            String line = next;
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return line;
+        }
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.edgent.execution.Job;
+import org.apache.edgent.function.Supplier;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.Topology;
+
+/**
+ * Replay the entries of the logs written by
+ * {@link ApplicationUtilities#logStream(TStream, String, String)}, e.g.,
+ * to backtest an analytic against recorded data.
+ * <p>
+ * The entries are replayed with a {@code speedup}:
+ * <ul>
+ * <li>{@code 1} - at the entries' original pacing, as determined by
+ *     the entries' timestamps</li>
+ * <li>{@code N} - N times faster than the original pacing</li>
+ * <li>{@code 0} - as fast as possible</li>
+ * </ul>
+ * A replayed tuple is an entry's {@code <tuple>.toString()} text;
+ * the entry's {@code [<timestamp>] [<eventTag>] } prefix is removed.
+ * Lines without the prefix, e.g., the lines of a file written by
+ * {@code FileStreams.textFileWriter()}, are replayed as is, without pacing.
+ * <p>
+ * Text log files are read using memory-mapped I/O.
+ * Compressed log files are read using {@link LogFiles#lines(File)}.
+ * The file being replayed is closed when the source is closed,
+ * e.g., when its job is closed before the replay completes.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<JsonObject> alerts = LogReplay.replay(topology,
+ *         new File("/tmp/SensorAnalytics/logs"), "outside1hzMeanRange", 10)
+ *     .map(text -> new JsonParser().parse(text).getAsJsonObject());
+ * }</pre>
+ * <p>
+ * {@link #main(String[])} replays a log, by default as fast as possible,
+ * and reports the replay rate.
+ */
+public class LogReplay {
+    // the regions of a text file that are mapped
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+    private static final int TIMESTAMP_SECOND_LEN = "yyyy-MM-dd HH:mm:ss".length();
+
+    private LogReplay() { }
+
+    /**
+     * Replay the entries of a log's files.
+     * <p>
+     * The files are listed when the topology starts.
+     * The completed files and then the active file are replayed once.
+     * @param topology the topology to add the source to
+     * @param dir the log directory
+     * @param baseName the log's base name
+     * @param speedup the replay speedup, 0 to replay as fast as possible
+     * @return the replayed tuples
+     * @see LogFiles#list(File, String, boolean)
+     */
+    public static TStream<String> replay(Topology topology, File dir, String baseName, double speedup) {
+        checkSpeedup(speedup);
+        return topology.source(new ReplaySource(() -> LogFiles.list(dir, baseName, true), speedup))
+                .tag(baseName+".replay");
+    }
+
+    /**
+     * Replay the entries of files.
+     * @param topology the topology to add the source to
+     * @param files the files, in the order to replay them
+     * @param speedup the replay speedup, 0 to replay as fast as possible
+     * @return the replayed tuples
+     */
+    public static TStream<String> replay(Topology topology, List<File> files, double speedup) {
+        checkSpeedup(speedup);
+        List<File> replayFiles = new ArrayList<>(files);
+        return topology.source(new ReplaySource(() -> replayFiles, speedup));
+    }
+
+    /**
+     * Get the paced entries of files.
+     * <p>
+     * The iterator's {@code next()} waits until the entry is due.
+     * @param files the files, in the order to replay them
+     * @param speedup the replay speedup, 0 to replay as fast as possible
+     * @return the replayed tuples
+     */
+    public static Iterable<String> entries(List<File> files, double speedup) {
+        checkSpeedup(speedup);
+        return () -> new ReplayIterator(files, speedup);
+    }
+
+    private static void checkSpeedup(double speedup) {
+        if (!(speedup >= 0))
+            throw new IllegalArgumentException("speedup");
+    }
+
+    /**
+     * The replay source's function.  Closing it, when the source
+     * is closed, closes the file being replayed.
+     */
+    private static class ReplaySource implements Supplier<Iterable<String>>, AutoCloseable {
+        private static final long serialVersionUID = 1L;
+        private final Supplier<List<File>> files;
+        private final double speedup;
+        private transient volatile ReplayIterator iterator;
+
+        ReplaySource(Supplier<List<File>> files, double speedup) {
+            this.files = files;
+            this.speedup = speedup;
+        }
+
+        @Override
+        public Iterable<String> get() {
+            List<File> replayFiles = files.get();
+            return () -> iterator = new ReplayIterator(replayFiles, speedup);
+        }
+
+        @Override
+        public void close() {
+            ReplayIterator iterator = this.iterator;
+            if (iterator != null)
+                iterator.close();
+        }
+    }
+
+    /**
+     * Paces the entries of a sequence of files.
+     */
+    private static class ReplayIterator implements Iterator<String>, AutoCloseable {
+        private final Iterator<File> files;
+        private final double speedup;
+        private final TimestampParser parser = new TimestampParser();
+        private Iterator<String> lines = Collections.emptyIterator();
+        private long firstTimestamp = -1;
+        private long startNanos;
+        private volatile boolean closed;
+
+        ReplayIterator(List<File> files, double speedup) {
+            this.files = files.iterator();
+            this.speedup = speedup;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!lines.hasNext()) {
+                closeLines();
+                if (closed || !files.hasNext())
+                    return false;
+                File file = files.next();
+                lines = file.getName().endsWith(CompressedLogWriter.SUFFIX)
+                        ? LogFiles.lines(file).iterator() : new MappedLineIterator(file);
+            }
+            return !closed;
+        }
+
+        /**
+         * Stop the replay and close the file being replayed.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            closeLines();
+        }
+
+        private synchronized void closeLines() {
+            if (lines instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) lines).close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            String line = lines.next();
+            long timestamp = parser.parse(line);
+            if (timestamp == -1)
+                return line;
+            if (speedup != 0)
+                pace(timestamp);
+            return entryText(line);
+        }
+
+        private void pace(long timestamp) {
+            if (firstTimestamp == -1) {
+                firstTimestamp = timestamp;
+                startNanos = System.nanoTime();
+                return;
+            }
+            long dueNanos = startNanos
+                    + (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - firstTimestamp) / speedup);
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    // the job is closing
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get an entry's {@code <tuple>.toString()} text.
+     * @param line the log entry
+     * @return the text, or {@code line} if it doesn't have the
+     *         {@code [<timestamp>] [<eventTag>] } prefix
+     */
+    public static String entryText(String line) {
+        if (!line.startsWith("["))
+            return line;
+        int end = line.indexOf("] [");
+        if (end == -1)
+            return line;
+        end = line.indexOf("] ", end + 3);
+        return end == -1 ? line : line.substring(end + 2);
+    }
+
+    /**
+     * Parses an entry's timestamp.
+     * The epoch second of the most recent entry is cached.
+     */
+    private static class TimestampParser {
+        private final SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        private String second;
+        private long secondMsec;
+
+        /**
+         * @return the timestamp in epoch msec, -1 if the line doesn't start with a timestamp
+         */
+        long parse(String line) {
+            int len = TIMESTAMP_FORMAT.length();
+            if (line.length() < len + 2 || line.charAt(0) != '[' || line.charAt(len + 1) != ']')
+                return -1;
+            if (second == null || !line.regionMatches(1, second, 0, TIMESTAMP_SECOND_LEN)) {
+                try {
+                    long msec = format.parse(line.substring(1, len + 1)).getTime();
+                    second = line.substring(1, TIMESTAMP_SECOND_LEN + 1);
+                    secondMsec = msec - msec % 1000;
+                } catch (ParseException e) {
+                    return -1;
+                }
+            }
+            int millis = 0;
+            for (int i = TIMESTAMP_SECOND_LEN + 2; i <= len; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9')
+                    return -1;
+                millis = millis * 10 + (c - '0');
+            }
+            return secondMsec + millis;
+        }
+    }
+
+    /**
+     * Reads the lines of a text file through memory-mapped regions of the file.
+     * <p>
+     * The file is only open while a region is mapped; a mapping
+     * remains valid after its channel is closed.
+     */
+    private static class MappedLineIterator implements Iterator<String> {
+        private final Path path;
+        private final long size;
+        private long regionPosition;
+        private MappedByteBuffer region;
+        private byte[] bytes = new byte[256];
+        private String next;
+
+        MappedLineIterator(File file) {
+            path = Paths.get(file.getPath());
+            try {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    size = channel.size();
+                }
+                map(0, REGION_SIZE);
+                advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void map(long position, long length) throws IOException {
+            regionPosition = position;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(length, size - position));
+            }
+        }
+
+        private void advance() throws IOException {
+            while (true) {
+                int start = region.position();
+                int limit = region.limit();
+                for (int i = start; i < limit; i++) {
+                    if (region.get(i) == '\n') {
+                        next = decode(start, i);
+                        region.position(i + 1);
+                        return;
+                    }
+                }
+                if (regionPosition + limit >= size) {
+                    // the last line may not end with a newline
+                    next = start < limit ? decode(start, limit) : null;
+                    region.position(limit);
+                    return;
+                }
+                // map the next region starting with the partial line
+                map(regionPosition + start, Math.max(REGION_SIZE, 2L * (limit - start)));
+            }
+        }
+
+        private String decode(int start, int end) {
+            if (end > start && region.get(end - 1) == '\r')
+                end--;
+            int len = end - start;
+            if (len > bytes.length)
+                bytes = new byte[Math.max(len, 2 * bytes.length)];
+            for (int i = 0; i < len; i++)
+                bytes[i] = region.get(start + i);
+            return new String(bytes, 0, len, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            String line = next;
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return line;
+        }
+    }
+
+    /**
+     * Replay a log and report the replay rate.
+     * <p>
+     * Usage: {@code LogReplay <logDir> <baseName> [speedup]}
+     * <p>
+     * The speedup defaults to 0, as fast as possible.
+     * The replay is done when its source reaches the end of the log's files.
+     * @param args the arguments
+     * @throws Exception on failure
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2)
+            throw new Exception("Usage: LogReplay <logDir> <baseName> [speedup]");
+        File dir = new File(args[0]);
+        String baseName = args[1];
+        double speedup = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+
+        DirectProvider tp = new DirectProvider();
+        Topology t = tp.newTopology("LogReplay");
+        AtomicLong nTuples = new AtomicLong();
+        AtomicLong lastNanos = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        checkSpeedup(speedup);
+        // the sink is called by the source's thread, so the tuples
+        // have been counted when the source's iterator ends
+        t.source(() -> () -> new Iterator<String>() {
+                private final Iterator<String> entries =
+                        entries(LogFiles.list(dir, baseName, true), speedup).iterator();
+
+                @Override
+                public boolean hasNext() {
+                    if (entries.hasNext())
+                        return true;
+                    done.countDown();
+                    return false;
+                }
+
+                @Override
+                public String next() {
+                    return entries.next();
+                }
+            })
+            .tag(baseName+".replay")
+            .sink(tuple -> { nTuples.incrementAndGet(); lastNanos.set(System.nanoTime()); });
+
+        long startNanos = System.nanoTime();
+        Job job = tp.submit(t).get();
+        done.await();
+        job.stateChange(Job.Action.CLOSE);
+        long count = nTuples.get();
+
+        double seconds = (lastNanos.get() - startNanos) / 1e9;
+        System.out.println(String.format("tuples=%d seconds=%.3f tuples/sec=%.0f",
+                count, seconds, count / seconds));
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import static org.apache.edgent.samples.apps.JsonTuples.KEY_ID;
+import static org.apache.edgent.samples.apps.JsonTuples.KEY_READING;
+import static org.apache.edgent.samples.apps.JsonTuples.KEY_TS;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A compact, primitive backed sensor "sample".
+ * <p>
+ * A {@code SensorSample} holds the same information as a
+ * {@link JsonTuples#wrap(org.apache.commons.math3.util.Pair, String) JsonTuples.wrap()}
+ * JsonObject sample - the sensor's id, the reading's msecTimestamp and
+ * a numeric reading - without the per-sample allocation of a JsonObject
+ * and its properties.  It's intended for use on high rate
+ * streams where the samples are reduced before being published or logged.
+ * <p>
+ * Use {@link #toJson()} to materialize the equivalent JsonObject sample
+ * when needed, e.g., at an {@code IotDevice.events()} boundary.
+ *
+ * @see JsonTuples#samples(org.apache.edgent.topology.TStream, String)
+ */
+public final class SensorSample {
+
+    private final String id;
+    private final long msec;
+    private final double reading;
+    private final boolean integral;
+
+    /**
+     * Create a sample.
+     * <p>
+     * The sensor id is used as the partition key for windows.
+     * Callers creating many samples should supply the same (e.g., interned)
+     * String instance for a sensor's id.
+     *
+     * @param id the sensor's id
+     * @param msec the reading's msecTimestamp
+     * @param reading the sensor reading
+     */
+    public SensorSample(String id, long msec, double reading) {
+        this(id, msec, reading, false);
+    }
+
+    /**
+     * Create a sample with an integral reading.
+     * <p>
+     * The reading is a JSON integer in {@link #toJson()}, as it is
+     * in the equivalent {@code JsonTuples.wrap()} sample.
+     *
+     * @param id the sensor's id
+     * @param msec the reading's msecTimestamp
+     * @param reading the sensor reading
+     */
+    public SensorSample(String id, long msec, long reading) {
+        this(id, msec, reading, true);
+    }
+
+    private SensorSample(String id, long msec, double reading, boolean integral) {
+        this.id = id;
+        this.msec = msec;
+        this.reading = reading;
+        this.integral = integral;
+    }
+
+    /**
+     * Get the sensor's id.
+     * @return the id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the reading's msecTimestamp.
+     * @return the timestamp
+     */
+    public long getMsec() {
+        return msec;
+    }
+
+    /**
+     * Get the sensor reading.
+     * @return the reading
+     */
+    public double getReading() {
+        return reading;
+    }
+
+    /**
+     * Determine if the reading is integral.
+     * @return true if the sample was created with an integral reading
+     */
+    public boolean isIntegral() {
+        return integral;
+    }
+
+    /**
+     * Create a JsonObject sample with the {@code JsonTuples.KEY_ID},
+     * {@code JsonTuples.KEY_TS} and {@code JsonTuples.KEY_READING} properties.
+     * <p>
+     * An integral reading is a JSON integer, e.g., {@code 37} rather than {@code 37.0}.
+     * @return the JsonObject
+     */
+    public JsonObject toJson() {
+        JsonObject jo = new JsonObject();
+        jo.addProperty(KEY_ID, id);
+        jo.addProperty(KEY_TS, msec);
+        if (integral)
+            jo.addProperty(KEY_READING, (long) reading);
+        else
+            jo.addProperty(KEY_READING, reading);
+        return jo;
+    }
+
+    /**
+     * Returns the JSON text of {@link #toJson()}.
+     */
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+
+/**
+ * Statistics over a sliding window of values, maintained
+ * incrementally as values are added and evicted.
+ * <p>
+ * Adding a value is O(1) and evicting a value is O(1): the statistics
+ * are adjusted for the evicted value rather than recomputed over the
+ * window's contents.
+ * The window is either count based (the last N values) or time based
+ * (the values added within the last N milliseconds).
+ * <p>
+ * The available statistics are the count, sum, mean and
+ * (sample) variance / standard deviation.  The mean and variance
+ * are maintained using Welford's algorithm and its inverse.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see JsonTuples#slidingStatistics(org.apache.edgent.topology.TStream, int, org.apache.edgent.function.Function, org.apache.edgent.function.ToDoubleFunction, org.apache.edgent.function.BiFunction)
+ */
+public class SlidingStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int count;
+    private final long timeMsec;
+
+    // ring buffer of the window's values (and times for a time based window)
+    private double[] values;
+    private long[] times;
+    private int head;
+    private int n;
+
+    private double sum;
+    private double mean;
+    private double m2;
+
+    /**
+     * Create a count based window of the last {@code count} values.
+     * @param count the window size
+     * @return the window's statistics
+     */
+    public static SlidingStatistics ofCount(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("count");
+        return new SlidingStatistics(count, 0);
+    }
+
+    /**
+     * Create a time based window of the values added during the last
+     * {@code timeMsec} milliseconds.
+     * @param timeMsec the window's time span
+     * @return the window's statistics
+     */
+    public static SlidingStatistics ofTime(long timeMsec) {
+        if (timeMsec < 1)
+            throw new IllegalArgumentException("timeMsec");
+        return new SlidingStatistics(0, timeMsec);
+    }
+
+    private SlidingStatistics(int count, long timeMsec) {
+        this.count = count;
+        this.timeMsec = timeMsec;
+        int capacity = count > 0 ? count : 16;
+        values = new double[capacity];
+        if (timeMsec > 0)
+            times = new long[capacity];
+    }
+
+    /**
+     * Add a value, evicting the values that no longer belong in the window.
+     * @param msec the value's msecTimestamp.  Only used by time based windows.
+     * @param value the value
+     */
+    public void add(long msec, double value) {
+        if (count > 0) {
+            if (n == count)
+                evict();
+        }
+        else {
+            while (n > 0 && times[head] <= msec - timeMsec)
+                evict();
+            if (n == values.length)
+                grow();
+        }
+        int tail = (head + n) % values.length;
+        values[tail] = value;
+        if (times != null)
+            times[tail] = msec;
+        n++;
+
+        sum += value;
+        double delta = value - mean;
+        mean += delta / n;
+        m2 += delta * (value - mean);
+    }
+
+    // whether the window has the eviction policy
+    boolean isPolicy(int count, long timeMsec) {
+        return this.count == count && this.timeMsec == timeMsec;
+    }
+
+    private void evict() {
+        double value = values[head];
+        head = (head + 1) % values.length;
+        n--;
+
+        if (n == 0) {
+            // reset rather than accumulate rounding errors
+            sum = 0;
+            mean = 0;
+            m2 = 0;
+            return;
+        }
+        sum -= value;
+        double delta = value - mean;
+        mean -= delta / n;
+        m2 = Math.max(0, m2 - delta * (value - mean));
+    }
+
+    private void grow() {
+        double[] newValues = new double[values.length * 2];
+        long[] newTimes = new long[newValues.length];
+        for (int i = 0; i < n; i++) {
+            int j = (head + i) % values.length;
+            newValues[i] = values[j];
+            newTimes[i] = times[j];
+        }
+        values = newValues;
+        times = newTimes;
+        head = 0;
+    }
+
+    /**
+     * Get the number of values in the window.
+     * @return the count
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Get the sum of the values in the window.
+     * @return the sum
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the mean of the values in the window.
+     * @return the mean, NaN if the window is empty
+     */
+    public double getMean() {
+        return n == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Get the sample variance of the values in the window.
+     * @return the variance, NaN if the window is empty, 0 for a single value
+     */
+    public double getVariance() {
+        if (n == 0)
+            return Double.NaN;
+        if (n == 1)
+            return 0.0;
+        return m2 / (n - 1);
+    }
+
+    /**
+     * Get the sample standard deviation of the values in the window.
+     * @return the standard deviation, NaN if the window is empty, 0 for a single value
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.edgent.function.Consumer;
+import org.apache.edgent.function.Function;
+import org.apache.edgent.topology.TStream;
+
+/**
+ * A per-key sliding window of the last N tuples whose contents
+ * can be accessed at any time.
+ * <p>
+ * {@code TWindow} doesn't provide "anytime" access to its contents.
+ * A {@code SnapshotWindow} is a sink for a stream that maintains
+ * the window in a lock-free ring buffer.  Adding a tuple doesn't copy
+ * the window and doesn't block readers; reading a snapshot doesn't
+ * block the stream.
+ * <p>
+ * A snapshot is a consistent view of the window: a list of consecutive
+ * tuples, oldest first, ending with the most recently added tuple
+ * at the time of the snapshot.  If tuples are added while
+ * the snapshot is being taken, the snapshot may contain fewer than N
+ * tuples rather than a mix of old and new window contents.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<JsonObject> s = ...
+ * SnapshotWindow<JsonObject,String> lastN = SnapshotWindow.lastN(s, 10, JsonTuples.keyFn());
+ *
+ * // every 30 seconds, report the "sensor1" lastN if it changed
+ * TStream<List<JsonObject>> changed =
+ *         t.poll(() -> lastN.snapshotIfChanged("sensor1"), 30, TimeUnit.SECONDS);
+ * }</pre>
+ *
+ * @param <T> Tuple type
+ * @param <K> Key type
+ */
+public class SnapshotWindow<T,K> implements Consumer<T> {
+    private static final long serialVersionUID = 1L;
+    private final int count;
+    private final Function<T,K> keyFn;
+    private final ConcurrentMap<K,Ring<T>> rings = new ConcurrentHashMap<>();
+
+    /**
+     * Create a window of the last {@code count} tuples for each key
+     * and add it as a sink to {@code stream}.
+     *
+     * @param <T> Tuple type
+     * @param <K> Key type
+     * @param stream the stream to window
+     * @param count the window size
+     * @param keyFn the partition key function
+     * @return the window
+     */
+    public static <T,K> SnapshotWindow<T,K> lastN(TStream<T> stream, int count, Function<T,K> keyFn) {
+        SnapshotWindow<T,K> window = new SnapshotWindow<>(count, keyFn);
+        stream.sink(window);
+        return window;
+    }
+
+    /**
+     * Create a window of the last {@code count} tuples for each key.
+     * <p>
+     * Use {@link #accept(Object)} to add tuples to the window.
+     * @param count the window size
+     * @param keyFn the partition key function
+     */
+    public SnapshotWindow(int count, Function<T,K> keyFn) {
+        if (count < 1)
+            throw new IllegalArgumentException("count");
+        this.count = count;
+        this.keyFn = keyFn;
+    }
+
+    /**
+     * Add a tuple to its key's window, evicting the key's oldest tuple
+     * if the window is full.
+     * @param tuple the tuple
+     */
+    @Override
+    public void accept(T tuple) {
+        K key = keyFn.apply(tuple);
+        Ring<T> ring = rings.get(key);
+        if (ring == null) {
+            ring = new Ring<>(count);
+            Ring<T> existing = rings.putIfAbsent(key, ring);
+            if (existing != null)
+                ring = existing;
+        }
+        ring.add(tuple);
+    }
+
+    /**
+     * Get the keys that have a window.
+     * @return the keys
+     */
+    public Set<K> keys() {
+        return Collections.unmodifiableSet(rings.keySet());
+    }
+
+    /**
+     * Get a snapshot of a key's window.
+     * @param key the key
+     * @return the window's tuples, oldest first.  Empty if the key has no tuples.
+     */
+    public List<T> snapshot(K key) {
+        Ring<T> ring = rings.get(key);
+        if (ring == null)
+            return Collections.emptyList();
+        return ring.snapshot(ring.published.get());
+    }
+
+    /**
+     * Determine if a key's window has changed since it was last
+     * read by {@link #snapshotIfChanged(Object)}.
+     * @param key the key
+     * @return true if the window has changed
+     */
+    public boolean isChanged(K key) {
+        Ring<T> ring = rings.get(key);
+        return ring != null && ring.published.get() != ring.lastRead.get();
+    }
+
+    /**
+     * Get a snapshot of a key's window if it has changed since it was last
+     * read by this method.
+     * <p>
+     * When there are concurrent callers, the change is reported to only one of them.
+     * @param key the key
+     * @return the window's tuples, oldest first.  null if the window hasn't changed.
+     */
+    public List<T> snapshotIfChanged(K key) {
+        Ring<T> ring = rings.get(key);
+        if (ring == null)
+            return null;
+        long lastRead = ring.lastRead.get();
+        long published = ring.published.get();
+        if (published == lastRead || !ring.lastRead.compareAndSet(lastRead, published))
+            return null;
+        return ring.snapshot(published);
+    }
+
+    /**
+     * Get a {@link Checkpointable} for the window.
+     * <p>
+     * The windows of the keys that changed are checkpointed.
+     * The tuples are checkpointed as their {@code Serializable} state
+     * so that tuples that aren't {@code Serializable}, e.g., {@code JsonObject},
+     * can be checkpointed.
+     * A restored window's tuples aren't reported as a change by
+     * {@link #snapshotIfChanged(Object)}.
+     * <p>
+     * The checkpointable must be registered before tuples are added to the window.
+     *
+     * @param <S> the tuples' state type
+     * @param toState function to get a tuple's state
+     * @param fromState function to create a tuple from its state
+     * @return the checkpointable
+     * @see Checkpoints#register(String, Checkpointable)
+     */
+    public <S extends Serializable> Checkpointable checkpointable(
+            Function<T,S> toState, Function<S,T> fromState) {
+        return new Checkpointable() {
+            @Override
+            public Map<Object,byte[]> changes() {
+                Map<Object,byte[]> changes = new HashMap<>();
+                for (Map.Entry<K,Ring<T>> e : rings.entrySet()) {
+                    Ring<T> ring = e.getValue();
+                    long published = ring.published.get();
+                    if (published == ring.checkpointed)
+                        continue;
+                    ArrayList<S> state = new ArrayList<>();
+                    for (T tuple : ring.snapshot(published))
+                        state.add(toState.apply(tuple));
+                    changes.put(e.getKey(), Checkpoints.serialize(state));
+                    ring.checkpointed = published;
+                }
+                return changes;
+            }
+
+            @Override
+            public void restore(Map<Object,byte[]> state) {
+                for (Map.Entry<Object,byte[]> e : state.entrySet()) {
+                    List<S> tuples = Checkpoints.deserialize(e.getValue());
+                    Ring<T> ring = new Ring<>(count);
+                    for (S tuple : tuples.subList(Math.max(0, tuples.size() - count), tuples.size()))
+                        ring.add(fromState.apply(tuple));
+                    long published = ring.published.get();
+                    ring.lastRead.set(published);
+                    ring.checkpointed = published;
+                    @SuppressWarnings("unchecked")
+                    K key = (K) e.getKey();
+                    rings.put(key, ring);
+                }
+            }
+        };
+    }
+
+    /**
+     * A ring buffer of a key's last N tuples.
+     * <p>
+     * Writers reserve a sequence number, store the tuple in its slot
+     * and then publish it, in sequence order.  Readers copy the published
+     * slots and then discard any that a concurrent writer
+     * may have overwritten.
+     */
+    private static class Ring<T> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final AtomicReferenceArray<T> slots;
+        private final AtomicLong reserved = new AtomicLong();
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong lastRead = new AtomicLong();
+        // the published sequence when last checkpointed, only accessed by the checkpointer
+        private long checkpointed;
+
+        Ring(int count) {
+            slots = new AtomicReferenceArray<>(count);
+        }
+
+        void add(T tuple) {
+            long seq = reserved.getAndIncrement();
+            slots.set((int) (seq % slots.length()), tuple);
+            // publish in sequence order; only spins if there are concurrent writers
+            while (published.get() != seq)
+                Thread.yield();
+            published.set(seq + 1);
+        }
+
+        List<T> snapshot(long end) {
+            int capacity = slots.length();
+            long begin = Math.max(0, end - capacity);
+            List<T> tuples = new ArrayList<>((int) (end - begin));
+            for (long seq = begin; seq < end; seq++)
+                tuples.add(slots.get((int) (seq % capacity)));
+
+            // discard the oldest tuples if their slots were overwritten while copying
+            long firstValid = reserved.get() - capacity;
+            if (firstValid > begin)
+                tuples.subList(0, (int) Math.min(firstValid - begin, tuples.size())).clear();
+            return tuples;
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.apache.edgent.oplet.core.Source;
+import org.apache.edgent.oplet.functional.Peek;
+import org.apache.edgent.topology.Topology;
+
+/**
+ * Measure the time from JVM launch to the first tuple of sample applications.
+ * <p>
+ * Each sample's main class is run in a new JVM, {@code runs} times.
+ * A sample's first tuple is the first line it writes to {@code System.out}
+ * that matches the {@code -match} regular expression.  The default is
+ * the {@link #FIRST_TUPLE_MARKER} that an {@link AbstractApplication} prints,
+ * when it's run by the benchmark, for the first tuple of any of its sources.
+ * Other samples need a {@code -match} expression that only matches a line
+ * written for a tuple, e.g., a tuple printed by {@code TStream.print()}.
+ * When the line is written the sample's JVM exits.
+ * The following median times are reported:
+ * <ul>
+ * <li>launch - from launching the JVM process to the first tuple</li>
+ * <li>jvm - from the JVM's start to the sample's main method</li>
+ * <li>main - from the sample's main method to the first tuple</li>
+ * </ul>
+ * <p>
+ * The samples are run with the benchmark's classpath and the {@code -cp} classpath.
+ * An application's lean startup mode is configured by its
+ * {@code topology.lean} property, see {@link TopologyProviderFactory#newProvider()}.
+ * <p>
+ * Usage: {@code StartupBenchmark [-runs N] [-timeout sec] [-match regex] [-cp classpath]
+ * <mainClass> [args...] [-- <mainClass> [args...]]...}
+ * <br>
+ * For example, to compare the SensorAnalytics application with and without
+ * lean startup, where {@code sensorAnalyticsLean.properties} is a copy of
+ * {@code sensorAnalytics.properties} with {@code topology.lean=true}:
+ * <pre>{@code
+ * StartupBenchmark \
+ *     org.apache.edgent.samples.apps.sensorAnalytics.SensorAnalyticsApplication sensorAnalytics.properties \
+ *     -- org.apache.edgent.samples.apps.sensorAnalytics.SensorAnalyticsApplication sensorAnalyticsLean.properties
+ * }</pre>
+ */
+public class StartupBenchmark {
+    private static final String MARKER = "===== first tuple msec:";
+    /** The line a sample prints for its first tuple when it's run by the benchmark. */
+    public static final String FIRST_TUPLE_MARKER = "===== first tuple =====";
+    /** The system property that's set when a sample is run by the benchmark. */
+    public static final String FIRST_TUPLE_PROPERTY = "edgent.samples.startupBenchmark";
+    private static final AtomicBoolean isFirstTupleMarked = new AtomicBoolean();
+
+    /**
+     * Print the {@link #FIRST_TUPLE_MARKER} for the first tuple of any of
+     * a topology's sources when the application is run by the benchmark.
+     * <p>
+     * The marker is printed once per JVM.  The topology isn't changed unless
+     * the {@link #FIRST_TUPLE_PROPERTY} system property is true.
+     * @param t the built topology
+     */
+    static void markFirstTuple(Topology t) {
+        if (Boolean.getBoolean(FIRST_TUPLE_PROPERTY)) {
+            t.graph().peekAll(
+                    () -> new Peek<Object>(tuple -> {
+                        if (!isFirstTupleMarked.get() && isFirstTupleMarked.compareAndSet(false, true))
+                            System.out.println(FIRST_TUPLE_MARKER);
+                    }),
+                    v -> v.getInstance() instanceof Source);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 3;
+        long timeoutSec = 60;
+        String match = Pattern.quote(FIRST_TUPLE_MARKER);
+        String classpath = System.getProperty("java.class.path");
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            switch (args[i]) {
+            case "-runs": runs = Integer.parseInt(args[i + 1]); break;
+            case "-timeout": timeoutSec = Long.parseLong(args[i + 1]); break;
+            case "-match": match = args[i + 1]; break;
+            case "-cp": classpath = classpath + File.pathSeparator + args[i + 1]; break;
+            default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (i >= args.length)
+            throw new Exception("Usage: StartupBenchmark [-runs N] [-timeout sec] [-match regex] [-cp classpath]"
+                    + " <mainClass> [args...] [-- <mainClass> [args...]]...");
+
+        System.out.println(String.format("%-70s %8s %8s %8s", "mainClass", "launch", "jvm", "main"));
+        List<String> sample = new ArrayList<>();
+        for (; i <= args.length; i++) {
+            if (i < args.length && !args[i].equals("--")) {
+                sample.add(args[i]);
+                continue;
+            }
+            if (!sample.isEmpty())
+                report(sample, runSample(sample, classpath, match, runs, timeoutSec));
+            sample.clear();
+        }
+    }
+
+    private static void report(List<String> sample, long[][] times) {
+        String mainClass = sample.get(0);
+        if (times == null) {
+            System.out.println(String.format("%-70s %8s", mainClass, "timeout"));
+            return;
+        }
+        System.out.println(String.format("%-70s %8d %8d %8d", mainClass,
+                median(times, 0), median(times, 1), median(times, 2)));
+    }
+
+    private static long median(long[][] times, int index) {
+        long[] values = new long[times.length];
+        for (int i = 0; i < times.length; i++)
+            values[i] = times[i][index];
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    /**
+     * Run a sample.
+     * @return each run's launch, jvm and main msec, null if a run timed out
+     */
+    private static long[][] runSample(List<String> sample, String classpath, String match,
+            int runs, long timeoutSec) throws Exception {
+        long[][] times = new long[runs][];
+        for (int run = 0; run < runs; run++) {
+            List<String> command = new ArrayList<>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            command.add("-cp");
+            command.add(classpath);
+            command.add("-D" + FIRST_TUPLE_PROPERTY + "=true");
+            command.add(FirstTuple.class.getName());
+            command.add(match);
+            command.addAll(sample);
+
+            long launchNanos = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            long[] result = waitForFirstTuple(process, launchNanos, timeoutSec);
+            process.destroy();
+            process.waitFor(timeoutSec, TimeUnit.SECONDS);
+            if (result == null)
+                return null;
+            times[run] = result;
+        }
+        return times;
+    }
+
+    private static long[] waitForFirstTuple(Process process, long launchNanos, long timeoutSec)
+            throws Exception {
+        long[][] result = new long[1][];
+        Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith(MARKER)) {
+                            long launchMsec = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchNanos);
+                            String[] msec = line.substring(MARKER.length()).trim().split(" ");
+                            result[0] = new long[] { launchMsec,
+                                    Long.parseLong(msec[0]), Long.parseLong(msec[1]) };
+                            return;
+                        }
+                    }
+                } catch (Exception e) {
+                    // the sample exited
+                }
+            }, "startup-benchmark-reader");
+        reader.setDaemon(true);
+        reader.start();
+        reader.join(TimeUnit.SECONDS.toMillis(timeoutSec));
+        return result[0];
+    }
+
+    /**
+     * Runs a sample's main class in a benchmark JVM and reports
+     * the time to its first tuple.
+     * <p>
+     * Usage: {@code FirstTuple <regex> <mainClass> [args...]}
+     */
+    public static class FirstTuple {
+        public static void main(String[] args) throws Exception {
+            long mainMsec = System.currentTimeMillis();
+            Pattern match = Pattern.compile(args[0]);
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new LineMatcher(match, () -> {
+                    long firstTupleMsec = System.currentTimeMillis();
+                    long jvmStartMsec = ManagementFactory.getRuntimeMXBean().getStartTime();
+                    out.println(MARKER + " " + (mainMsec - jvmStartMsec)
+                            + " " + (firstTupleMsec - mainMsec));
+                    out.flush();
+                    Runtime.getRuntime().halt(0);
+                }), true));
+
+            List<String> sampleArgs = new ArrayList<>(Arrays.asList(args).subList(2, args.length));
+            Class.forName(args[1]).getMethod("main", String[].class)
+                .invoke(null, (Object) sampleArgs.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Calls an action when a line matching a pattern is written.
+     * The lines are discarded.
+     */
+    private static class LineMatcher extends OutputStream {
+        private final Pattern match;
+        private final Runnable action;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean isMatched;
+
+        LineMatcher(Pattern match, Runnable action) {
+            this.match = match;
+            this.action = action;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b != '\n') {
+                line.write(b);
+                return;
+            }
+            String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            if (!isMatched && match.matcher(text).find()) {
+                isMatched = true;
+                action.run();
+            }
+        }
+    }
+
+}
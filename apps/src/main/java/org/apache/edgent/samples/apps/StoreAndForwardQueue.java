@@ -0,0 +1,561 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.edgent.function.Function;
+import org.apache.edgent.function.Functions;
+import org.apache.edgent.function.Predicate;
+import org.apache.edgent.oplet.OpletContext;
+import org.apache.edgent.oplet.core.Pipe;
+import org.apache.edgent.topology.TStream;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A persistent queue that stores a stream's tuples on disk and forwards
+ * them downstream, such as to an MQTT publisher, as the downstream
+ * accepts them.
+ * <p>
+ * While the downstream is stalled, e.g., the MQTT broker is unreachable
+ * for hours, the tuples are stored rather than dropped.  Once the downstream
+ * recovers, the stored tuples are forwarded in order, at no more than
+ * {@code drainRate} tuples per second so the backlog doesn't flood
+ * the reconnected link.  The drain rate should be greater than the
+ * stream's rate so the backlog is drained.
+ * <p>
+ * The tuples are appended to fixed size, memory-mapped segment files in
+ * the queue's directory.  A segment is deleted once its tuples have been
+ * forwarded.  When the segments would exceed {@code maxBytes}, the oldest
+ * segment is deleted and its unforwarded tuples are dropped.
+ * The queue's position is also kept in a memory-mapped file so the
+ * stored tuples are forwarded after a restart.
+ * The files are forced to the storage device every second.
+ * <p>
+ * A downstream that discards a tuple it fails to deliver, such as
+ * an MQTT publisher while its broker is unreachable, doesn't stall the
+ * queue so the tuples would be lost.  Instead, the queue's {@code forwarder}
+ * delivers each tuple and reports whether it was delivered, e.g.,
+ * {@link org.apache.edgent.samples.apps.mqtt.MqttEventForwarder}.
+ * The position is advanced only once the forwarder delivers the tuple,
+ * the tuple is retried every second until then, and a forwarded tuple
+ * is submitted downstream.
+ * A tuple is forwarded at least once; it may be forwarded again if
+ * the application stops after a tuple is delivered but before its position
+ * is forced to storage.
+ * Without a forwarder the position is advanced once a tuple's submit
+ * returns.
+ * <p>
+ * The number of queued tuples, the number of dropped tuples and the
+ * drain rate are available from {@link #getQueueDepth()},
+ * {@link #getDropCount()} and {@link #getDrainRate()} and are registered
+ * as {@code <name>.queueDepth} and {@code <name>.dropped} gauges and a
+ * {@code <name>.drained} meter if the topology provider has a
+ * {@code MetricRegistry} service.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<JsonObject> events = ...
+ * events.pipe(new StoreAndForwardQueue<>("alerts",
+ *         new File("/var/edgent/alerts"), 100_000_000, 4_000_000, 100,
+ *         jo -> jo.toString().getBytes(StandardCharsets.UTF_8),
+ *         bytes -> new JsonParser().parse(new String(bytes, StandardCharsets.UTF_8)).getAsJsonObject(),
+ *         new MqttEventForwarder(mqttDevice, jo -> "alerts", QoS.AT_LEAST_ONCE, false)));
+ * }</pre>
+ *
+ * @param <T> Tuple type
+ * @see BackpressureQueue
+ */
+public class StoreAndForwardQueue<T> extends Pipe<T,T> {
+    private static final long serialVersionUID = 1L;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    // record: [int length][int crc32][length bytes]
+    private static final int RECORD_HEADER = 8;
+    private static final long FORCE_MSEC = 1000;
+    private static final long RETRY_MSEC = 1000;
+
+    private final String name;
+    private final File dir;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final double drainRate;
+    private final Function<T,byte[]> encoder;
+    private final Function<byte[],T> decoder;
+    private final Predicate<T> forwarder;
+
+    private final Object lock = new Object();
+    private transient ArrayDeque<Segment> segments;
+    private transient MappedByteBuffer cursor;
+    private transient Segment readSegment;
+    private transient int readPosition;
+    private transient long depth;
+    private transient boolean dirty;
+    private final AtomicLong dropped = new AtomicLong();
+    private transient Meter drained;
+
+    private transient Thread drainer;
+    private volatile boolean closed;
+    private transient MetricRegistry registry;
+    private String depthMetricName;
+    private String droppedMetricName;
+    private String drainedMetricName;
+
+    /**
+     * A segment file and its tuples.
+     */
+    private static final class Segment {
+        final long seq;
+        final File file;
+        final MappedByteBuffer buf;
+        int writePosition;
+        int records;
+
+        Segment(long seq, File file, MappedByteBuffer buf) {
+            this.seq = seq;
+            this.file = file;
+            this.buf = buf;
+        }
+    }
+
+    /**
+     * Create a queue whose position is advanced once a tuple's
+     * submit returns.
+     * @param name the queue's name, used for its metrics
+     * @param dir the directory for the queue's files.  The tuples stored
+     *        in the directory by a previous queue are forwarded.
+     * @param maxBytes the maximum size of the segment files.
+     *        At least two segments.
+     * @param segmentBytes the size of a segment file.  A tuple larger
+     *        than a segment is dropped.
+     * @param drainRate the maximum number of tuples forwarded per second,
+     *        0 for no maximum
+     * @param encoder function to encode a tuple
+     * @param decoder function to decode a tuple from its encoded form
+     */
+    public StoreAndForwardQueue(String name, File dir, long maxBytes, int segmentBytes,
+            double drainRate, Function<T,byte[]> encoder, Function<byte[],T> decoder) {
+        this(name, dir, maxBytes, segmentBytes, drainRate, encoder, decoder, null);
+    }
+
+    /**
+     * Create a queue whose position is advanced once a tuple
+     * is delivered by a forwarder.
+     * @param name the queue's name, used for its metrics
+     * @param dir the directory for the queue's files.  The tuples stored
+     *        in the directory by a previous queue are forwarded.
+     * @param maxBytes the maximum size of the segment files.
+     *        At least two segments.
+     * @param segmentBytes the size of a segment file.  A tuple larger
+     *        than a segment is dropped.
+     * @param drainRate the maximum number of tuples forwarded per second,
+     *        0 for no maximum
+     * @param encoder function to encode a tuple
+     * @param decoder function to decode a tuple from its encoded form
+     * @param forwarder predicate that delivers a tuple, returning
+     *        false if it wasn't delivered and should be retried.
+     *        It's closed when the queue is closed if it's {@code AutoCloseable}.
+     *        Null to advance the position once a tuple's submit returns.
+     */
+    public StoreAndForwardQueue(String name, File dir, long maxBytes, int segmentBytes,
+            double drainRate, Function<T,byte[]> encoder, Function<byte[],T> decoder,
+            Predicate<T> forwarder) {
+        if (segmentBytes <= RECORD_HEADER)
+            throw new IllegalArgumentException("segmentBytes");
+        if (maxBytes < 2L * segmentBytes)
+            throw new IllegalArgumentException("maxBytes");
+        if (!(drainRate >= 0))
+            throw new IllegalArgumentException("drainRate");
+        this.name = name;
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.drainRate = drainRate;
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.forwarder = forwarder;
+    }
+
+    @Override
+    public void initialize(OpletContext<T, T> context) {
+        super.initialize(context);
+        drained = new Meter();
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (depth > 0)
+            System.out.println("===== Store and forward " + name + ": "
+                    + depth + " stored tuples to forward ======");
+        registry = context.getService(MetricRegistry.class);
+        if (registry != null) {
+            depthMetricName = context.uniquify(name + ".queueDepth");
+            droppedMetricName = context.uniquify(name + ".dropped");
+            drainedMetricName = context.uniquify(name + ".drained");
+            registry.register(depthMetricName, (Gauge<Long>) this::getQueueDepth);
+            registry.register(droppedMetricName, (Gauge<Long>) this::getDropCount);
+            registry.register(drainedMetricName, drained);
+        }
+    }
+
+    // restore the segments and the position from the directory
+    private void open() throws IOException {
+        dir.mkdirs();
+        segments = new ArrayDeque<>();
+        File[] files = dir.listFiles((d, n) -> n.endsWith(SEGMENT_SUFFIX));
+        long[] seqs = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < seqs.length; i++) {
+            String n = files[i].getName();
+            seqs[i] = Long.parseLong(n.substring(0, n.length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(seqs);
+        for (long seq : seqs) {
+            Segment segment = map(seq);
+            scan(segment);
+            segments.add(segment);
+        }
+
+        try (FileChannel channel = FileChannel.open(new File(dir, CURSOR_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            cursor = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES + Integer.BYTES);
+        }
+        long seq = cursor.getLong(0);
+        int position = cursor.getInt(Long.BYTES);
+        // the cursor's segment was forwarded or evicted if it's gone
+        while (!segments.isEmpty() && segments.peekFirst().seq < seq)
+            segments.pollFirst().file.delete();
+        if (segments.isEmpty())
+            segments.add(map(seq + 1));
+        readSegment = segments.peekFirst();
+        readPosition = readSegment.seq == seq ? Math.min(position, readSegment.writePosition) : 0;
+        for (Segment segment : segments)
+            depth += segment.records;
+        depth -= recordsBefore(readSegment, readPosition);
+    }
+
+    private Segment map(long seq) throws IOException {
+        File file = new File(dir, String.format("%020d%s", seq, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(seq, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    // find a segment's valid records; a torn record ends the segment
+    private void scan(Segment segment) {
+        int position = 0;
+        int records = 0;
+        while (recordLength(segment, position) >= 0) {
+            position += RECORD_HEADER + recordLength(segment, position);
+            records++;
+        }
+        segment.writePosition = position;
+        segment.records = records;
+    }
+
+    // the length of a valid record, -1 if there isn't one at the position
+    private int recordLength(Segment segment, int position) {
+        if (position + RECORD_HEADER > segmentBytes)
+            return -1;
+        int len = segment.buf.getInt(position);
+        if (len <= 0 || len > segmentBytes - position - RECORD_HEADER)
+            return -1;
+        if (segment.writePosition > position)
+            return len;
+        return crc(segment.buf, position + RECORD_HEADER, len) == segment.buf.getInt(position + 4) ? len : -1;
+    }
+
+    private int recordsBefore(Segment segment, int position) {
+        int records = 0;
+        for (int p = 0; p < position; p += RECORD_HEADER + segment.buf.getInt(p))
+            records++;
+        return records;
+    }
+
+    private static int crc(MappedByteBuffer buf, int position, int len) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < len; i++)
+            crc.update(buf.get(position + i));
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        ThreadFactory threadFactory = getOpletContext().getService(ThreadFactory.class);
+        if (threadFactory == null)
+            threadFactory = Executors.defaultThreadFactory();
+        drainer = threadFactory.newThread(this::drain);
+        drainer.start();
+    }
+
+    /**
+     * Get the number of stored tuples that haven't been forwarded.
+     * @return the number of tuples
+     */
+    public long getQueueDepth() {
+        synchronized (lock) {
+            return depth;
+        }
+    }
+
+    /**
+     * Get the number of tuples that have been dropped.
+     * <p>
+     * A tuple is dropped if it's evicted, larger than a segment
+     * or its stored form can't be decoded.
+     * @return the number of tuples
+     */
+    public long getDropCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the rate tuples have been forwarded at.
+     * @return the one-minute exponentially-weighted moving average rate
+     *         in tuples per second
+     */
+    public double getDrainRate() {
+        return drained.getOneMinuteRate();
+    }
+
+    /**
+     * Store a tuple.
+     * <p>
+     * If the segments are full, the oldest segment is deleted.
+     * @param tuple the tuple
+     */
+    @Override
+    public void accept(T tuple) {
+        byte[] bytes = encoder.apply(tuple);
+        if (bytes.length == 0 || bytes.length > segmentBytes - RECORD_HEADER) {
+            dropped.incrementAndGet();
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            Segment segment = segments.peekLast();
+            if (segment.writePosition + RECORD_HEADER + bytes.length > segmentBytes) {
+                try {
+                    segment = roll();
+                } catch (IOException e) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+            // the length is written last so a torn record isn't valid
+            MappedByteBuffer buf = segment.buf;
+            int position = segment.writePosition;
+            for (int i = 0; i < bytes.length; i++)
+                buf.put(position + RECORD_HEADER + i, bytes[i]);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            buf.putInt(position + 4, (int) crc.getValue());
+            buf.putInt(position, bytes.length);
+            segment.writePosition += RECORD_HEADER + bytes.length;
+            segment.records++;
+            depth++;
+            dirty = true;
+            lock.notify();
+        }
+    }
+
+    // called with the lock held
+    private Segment roll() throws IOException {
+        if ((long) (segments.size() + 1) * segmentBytes > maxBytes) {
+            // evict the oldest segment, dropping its unforwarded tuples
+            Segment oldest = segments.pollFirst();
+            int unforwarded = oldest.records;
+            if (oldest == readSegment) {
+                unforwarded -= recordsBefore(oldest, readPosition);
+                readSegment = segments.peekFirst();
+                readPosition = 0;
+            }
+            dropped.addAndGet(unforwarded);
+            depth -= unforwarded;
+            oldest.file.delete();
+        }
+        Segment last = segments.peekLast();
+        last.buf.force();
+        Segment segment = map(last.seq + 1);
+        segments.add(segment);
+        if (readSegment == null)
+            readSegment = segment;
+        return segment;
+    }
+
+    private void drain() {
+        long intervalNanos = drainRate == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / drainRate);
+        long nextNanos = System.nanoTime();
+        long forcedMsec = System.currentTimeMillis();
+        boolean retrying = false;
+        try {
+            while (!closed) {
+                Segment segment;
+                int position;
+                byte[] bytes;
+                synchronized (lock) {
+                    while (!closed && depth == 0) {
+                        lock.wait(FORCE_MSEC);
+                        forcedMsec = force(forcedMsec);
+                    }
+                    if (closed)
+                        return;
+                    // a fully forwarded segment is deleted
+                    while (readPosition == readSegment.writePosition
+                            && readSegment != segments.peekLast()) {
+                        segments.pollFirst().file.delete();
+                        readSegment = segments.peekFirst();
+                        readPosition = 0;
+                    }
+                    segment = readSegment;
+                    position = readPosition;
+                    int len = segment.buf.getInt(position);
+                    bytes = new byte[len];
+                    for (int i = 0; i < len; i++)
+                        bytes[i] = segment.buf.get(position + RECORD_HEADER + i);
+                }
+
+                if (intervalNanos > 0) {
+                    // don't accumulate a burst while idle or stalled
+                    long now = System.nanoTime();
+                    nextNanos = Math.max(nextNanos + intervalNanos, now - intervalNanos);
+                    if (nextNanos > now)
+                        TimeUnit.NANOSECONDS.sleep(nextNanos - now);
+                }
+                T tuple;
+                try {
+                    tuple = decoder.apply(bytes);
+                } catch (RuntimeException e) {
+                    tuple = null;
+                }
+                if (tuple == null) {
+                    dropped.incrementAndGet();
+                }
+                else if (!forward(tuple)) {
+                    // the position isn't advanced so the tuple is retried
+                    if (closed)
+                        return;
+                    if (!retrying)
+                        System.out.println("===== Store and forward " + name
+                                + ": forwarding failed, retrying ======");
+                    retrying = true;
+                    Thread.sleep(RETRY_MSEC);
+                    forcedMsec = force(forcedMsec);
+                    continue;
+                }
+                else {
+                    if (retrying)
+                        System.out.println("===== Store and forward " + name
+                                + ": forwarding resumed ======");
+                    retrying = false;
+                    // a stalled downstream blocks the submit while tuples are stored
+                    submit(tuple);
+                    drained.mark();
+                }
+
+                // an interrupted submit may not have forwarded the tuple
+                if (closed || Thread.currentThread().isInterrupted())
+                    return;
+                synchronized (lock) {
+                    // the tuple's segment may have been evicted while it was submitted
+                    if (segment == readSegment && position == readPosition) {
+                        readPosition += RECORD_HEADER + bytes.length;
+                        depth--;
+                        cursor.putLong(0, segment.seq);
+                        cursor.putInt(Long.BYTES, readPosition);
+                        dirty = true;
+                    }
+                }
+                forcedMsec = force(forcedMsec);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    // deliver a tuple, true if it was delivered
+    private boolean forward(T tuple) {
+        if (forwarder == null)
+            return true;
+        try {
+            return forwarder.test(tuple);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // force the active segment and the cursor to storage at most once a second
+    private long force(long forcedMsec) {
+        long now = System.currentTimeMillis();
+        if (now - forcedMsec < FORCE_MSEC)
+            return forcedMsec;
+        MappedByteBuffer segment;
+        synchronized (lock) {
+            if (!dirty || closed)
+                return now;
+            segment = segments.peekLast().buf;
+            dirty = false;
+        }
+        segment.force();
+        cursor.force();
+        return now;
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (lock) {
+            if (segments != null && !closed) {
+                segments.peekLast().buf.force();
+                cursor.force();
+            }
+            closed = true;
+            lock.notify();
+        }
+        if (drainer != null)
+            drainer.interrupt();
+        // fail a delivery in progress
+        Functions.closeFunction(forwarder);
+        if (registry != null) {
+            registry.remove(depthMetricName);
+            registry.remove(droppedMetricName);
+            registry.remove(drainedMetricName);
+        }
+    }
+
+}
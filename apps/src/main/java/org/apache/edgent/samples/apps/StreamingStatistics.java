@@ -0,0 +1,239 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+
+import org.apache.edgent.analytics.math3.json.JsonUnivariateAggregate;
+import org.apache.edgent.analytics.math3.stat.Regression;
+import org.apache.edgent.analytics.math3.stat.Statistic;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A single-pass streaming accumulator for a collection of statistics.
+ * <p>
+ * Each {@link #increment(double)} updates the accumulated state in O(1)
+ * and only the state needed by the requested statistics is maintained:
+ * <ul>
+ * <li>{@code Statistic.MIN}, {@code Statistic.MAX} - running min / max</li>
+ * <li>{@code Statistic.SUM} - running sum</li>
+ * <li>{@code Statistic.MEAN}, {@code Statistic.STDDEV} - Welford's
+ *     running mean and sum of squared deviations.
+ *     STDDEV is the sample standard deviation.</li>
+ * <li>{@code Regression.SLOPE} - the least squares slope of the values
+ *     against their position in the sequence, maintained with
+ *     Welford style co-moments.</li>
+ * </ul>
+ * <p>
+ * The results are the same as those produced by the corresponding
+ * Edgent {@code JsonUnivariateAggregator}s and
+ * {@link #result(JsonObject)} uses the same layout as
+ * {@link org.apache.edgent.analytics.math3.json.JsonAnalytics#aggregateList(String, String, org.apache.edgent.function.ToDoubleFunction, JsonUnivariateAggregate...) JsonAnalytics.aggregateList()}.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class StreamingStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final JsonUnivariateAggregate[] aggregates;
+    private final boolean isMinMax;
+    private final boolean isMoments;
+    private final boolean isSlope;
+
+    private long n;
+    private double sum;
+    private double min;
+    private double max;
+    private double mean;
+    private double m2;
+    private double meanX;
+    private double m2X;
+    private double coMoment;
+
+    /**
+     * Create a new accumulator.
+     * @param aggregates the statistics to accumulate.
+     *        One or more of {@code Statistic.MIN, MAX, SUM, MEAN, STDDEV}
+     *        and {@code Regression.SLOPE}
+     * @throws IllegalArgumentException if an aggregate isn't supported
+     */
+    public StreamingStatistics(JsonUnivariateAggregate... aggregates) {
+        boolean isMinMax = false;
+        boolean isMoments = false;
+        boolean isSlope = false;
+        for (JsonUnivariateAggregate aggregate : aggregates) {
+            if (aggregate == Statistic.MIN || aggregate == Statistic.MAX)
+                isMinMax = true;
+            else if (aggregate == Statistic.MEAN || aggregate == Statistic.STDDEV)
+                isMoments = true;
+            else if (aggregate == Regression.SLOPE)
+                isSlope = true;
+            else if (aggregate != Statistic.SUM)
+                throw new IllegalArgumentException("Unsupported aggregate: "+aggregate.name());
+        }
+        this.aggregates = aggregates.clone();
+        this.isMinMax = isMinMax;
+        this.isMoments = isMoments;
+        this.isSlope = isSlope;
+        clear();
+    }
+
+    /**
+     * Reset the accumulator to its initial empty state.
+     */
+    public void clear() {
+        n = 0;
+        sum = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+        mean = 0;
+        m2 = 0;
+        meanX = 0;
+        m2X = 0;
+        coMoment = 0;
+    }
+
+    /**
+     * Add a value.
+     * @param value the value
+     */
+    public void increment(double value) {
+        long i = n++;
+        sum += value;
+        if (isMinMax) {
+            if (i == 0 || value < min)
+                min = value;
+            if (i == 0 || value > max)
+                max = value;
+        }
+        if (isMoments || isSlope) {
+            double delta = value - mean;
+            mean += delta / n;
+            m2 += delta * (value - mean);
+            if (isSlope) {
+                double deltaX = i - meanX;
+                meanX += deltaX / n;
+                m2X += deltaX * (i - meanX);
+                coMoment += deltaX * (value - mean);
+            }
+        }
+    }
+
+    /**
+     * Get the number of values.
+     * @return the count
+     */
+    public long getN() {
+        return n;
+    }
+
+    /**
+     * Get the sum of the values.
+     * @return the sum
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the minimum value.
+     * @return the minimum, NaN if none or MIN and MAX weren't requested
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Get the maximum value.
+     * @return the maximum, NaN if none or MIN and MAX weren't requested
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean of the values.
+     * @return the mean, NaN if none
+     */
+    public double getMean() {
+        return n == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Get the sample standard deviation of the values.
+     * @return the standard deviation, NaN if none, 0 for a single value.
+     */
+    public double getStandardDeviation() {
+        if (n == 0)
+            return Double.NaN;
+        if (n == 1)
+            return 0.0;
+        return Math.sqrt(m2 / (n - 1));
+    }
+
+    /**
+     * Get the least squares slope of the values against their position.
+     * @return the slope, NaN if there are fewer than two values
+     */
+    public double getSlope() {
+        return n < 2 ? Double.NaN : coMoment / m2X;
+    }
+
+    /**
+     * Get the value of a statistic.
+     * @param aggregate the statistic
+     * @return the value
+     */
+    public double get(JsonUnivariateAggregate aggregate) {
+        if (aggregate == Statistic.MIN)
+            return getMin();
+        if (aggregate == Statistic.MAX)
+            return getMax();
+        if (aggregate == Statistic.SUM)
+            return getSum();
+        if (aggregate == Statistic.MEAN)
+            return getMean();
+        if (aggregate == Statistic.STDDEV)
+            return getStandardDeviation();
+        if (aggregate == Regression.SLOPE)
+            return getSlope();
+        throw new IllegalArgumentException("Unsupported aggregate: "+aggregate.name());
+    }
+
+    /**
+     * Add the requested statistics to a JsonObject.
+     * <p>
+     * {@code JsonUnivariateAggregate.N} is added with the number of values
+     * and each requested statistic is added using its {@code name()}
+     * as the property name.  NaN valued statistics are omitted.
+     * @param result the JsonObject to add to
+     * @return {@code result}
+     */
+    public JsonObject result(JsonObject result) {
+        result.addProperty(JsonUnivariateAggregate.N, n);
+        for (JsonUnivariateAggregate aggregate : aggregates) {
+            double value = get(aggregate);
+            if (!Double.isNaN(value))
+                result.addProperty(aggregate.name(), value);
+        }
+        return result;
+    }
+
+}
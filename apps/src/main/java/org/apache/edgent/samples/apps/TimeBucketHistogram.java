@@ -0,0 +1,259 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.edgent.function.Consumer;
+import org.apache.edgent.function.Function;
+import org.apache.edgent.topology.TStream;
+
+/**
+ * A per-key histogram of the number of tuples that arrived
+ * during each of the most recent fixed length time intervals.
+ * <p>
+ * For example, the number of alerts per minute over the last 8 hours
+ * is a histogram of 480 one-minute buckets.
+ * <p>
+ * Each key's histogram is a fixed size array of counts that is
+ * used as a ring.  Counting a tuple is O(1) and the memory used
+ * is independent of the tuple rate.  As time advances, the buckets
+ * for the expired intervals are reused.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<JsonObject> alerts = ...
+ * TimeBucketHistogram<JsonObject,String> histogram =
+ *     TimeBucketHistogram.of(alerts, 480, 1, TimeUnit.MINUTES, JsonTuples.keyFn());
+ * ...
+ * int[] alertsPerMinute = histogram.counts("sensor1");
+ * }</pre>
+ * <p>
+ * The histogram is {@link Checkpointable}: the keys whose
+ * counts changed are checkpointed.  A restored histogram's counts
+ * for the intervals that expired while the application wasn't
+ * running are zeroed.
+ *
+ * @param <T> Tuple type
+ * @param <K> Key type
+ */
+public class TimeBucketHistogram<T,K> implements Consumer<T>, Checkpointable {
+    private static final long serialVersionUID = 1L;
+    private final int nBuckets;
+    private final long bucketMsec;
+    private final Function<T,K> keyFn;
+    private final ConcurrentMap<K,Buckets> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Create a histogram and add it as a sink to {@code stream}.
+     *
+     * @param <T> Tuple type
+     * @param <K> Key type
+     * @param stream the stream of tuples to count
+     * @param nBuckets the number of buckets
+     * @param bucketTime the time interval of a bucket
+     * @param unit unit for {@code bucketTime}
+     * @param keyFn the partition key function
+     * @return the histogram
+     */
+    public static <T,K> TimeBucketHistogram<T,K> of(TStream<T> stream,
+            int nBuckets, long bucketTime, TimeUnit unit, Function<T,K> keyFn) {
+        TimeBucketHistogram<T,K> histogram = new TimeBucketHistogram<>(nBuckets, bucketTime, unit, keyFn);
+        stream.sink(histogram);
+        return histogram;
+    }
+
+    /**
+     * Create a histogram.
+     * <p>
+     * Use {@link #accept(Object)} to count tuples.
+     * @param nBuckets the number of buckets
+     * @param bucketTime the time interval of a bucket
+     * @param unit unit for {@code bucketTime}
+     * @param keyFn the partition key function
+     */
+    public TimeBucketHistogram(int nBuckets, long bucketTime, TimeUnit unit, Function<T,K> keyFn) {
+        if (nBuckets < 1)
+            throw new IllegalArgumentException("nBuckets");
+        if (unit.toMillis(bucketTime) < 1)
+            throw new IllegalArgumentException("bucketTime");
+        this.nBuckets = nBuckets;
+        this.bucketMsec = unit.toMillis(bucketTime);
+        this.keyFn = keyFn;
+    }
+
+    /**
+     * Count a tuple in its key's current bucket.
+     * @param tuple the tuple
+     */
+    @Override
+    public void accept(T tuple) {
+        K key = keyFn.apply(tuple);
+        Buckets buckets = histograms.get(key);
+        if (buckets == null) {
+            buckets = new Buckets(nBuckets, bucketMsec);
+            Buckets existing = histograms.putIfAbsent(key, buckets);
+            if (existing != null)
+                buckets = existing;
+        }
+        buckets.increment(currentBucket());
+    }
+
+    private long currentBucket() {
+        return System.currentTimeMillis() / bucketMsec;
+    }
+
+    /**
+     * Get the number of buckets.
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return nBuckets;
+    }
+
+    /**
+     * Get the time interval of a bucket.
+     * @return the interval in milliseconds
+     */
+    public long getBucketMsec() {
+        return bucketMsec;
+    }
+
+    /**
+     * Get the keys that have a histogram.
+     * @return the keys
+     */
+    public Set<K> keys() {
+        return Collections.unmodifiableSet(histograms.keySet());
+    }
+
+    /**
+     * Get a key's counts.
+     * @param key the key
+     * @return the counts, oldest first.  The last element is the count
+     *         for the current time interval.  All zeros if there's no
+     *         histogram for the key.
+     */
+    public int[] counts(K key) {
+        Buckets buckets = histograms.get(key);
+        if (buckets == null)
+            return new int[nBuckets];
+        return buckets.counts(currentBucket());
+    }
+
+    /**
+     * Get the total of a key's counts.
+     * @param key the key
+     * @return the total
+     */
+    public long total(K key) {
+        Buckets buckets = histograms.get(key);
+        if (buckets == null)
+            return 0;
+        return buckets.total(currentBucket());
+    }
+
+    @Override
+    public Map<Object,byte[]> changes() {
+        Map<Object,byte[]> changes = new HashMap<>();
+        for (Map.Entry<K,Buckets> e : histograms.entrySet()) {
+            byte[] state = e.getValue().checkpoint();
+            if (state != null)
+                changes.put(e.getKey(), state);
+        }
+        return changes;
+    }
+
+    @Override
+    public void restore(Map<Object,byte[]> state) {
+        for (Map.Entry<Object,byte[]> e : state.entrySet()) {
+            Buckets buckets = Checkpoints.deserialize(e.getValue());
+            // ignore a histogram with different buckets
+            if (buckets.counts.length == nBuckets && buckets.bucketMsec == bucketMsec) {
+                @SuppressWarnings("unchecked")
+                K key = (K) e.getKey();
+                histograms.put(key, buckets);
+            }
+        }
+    }
+
+    /**
+     * A key's ring of bucket counts.
+     */
+    private static class Buckets implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int[] counts;
+        private final long bucketMsec;
+        private long current;
+        private transient boolean changed;
+
+        Buckets(int nBuckets, long bucketMsec) {
+            counts = new int[nBuckets];
+            this.bucketMsec = bucketMsec;
+        }
+
+        // the serialized counts if they changed since the last checkpoint
+        synchronized byte[] checkpoint() {
+            if (!changed)
+                return null;
+            changed = false;
+            return Checkpoints.serialize(this);
+        }
+
+        // zero the buckets of the intervals that have expired
+        private void advance(long bucket) {
+            if (bucket <= current)
+                return;
+            long expired = Math.min(bucket - current, counts.length);
+            for (long i = 1; i <= expired; i++)
+                counts[(int) ((current + i) % counts.length)] = 0;
+            current = bucket;
+        }
+
+        synchronized void increment(long bucket) {
+            advance(bucket);
+            counts[(int) (current % counts.length)]++;
+            changed = true;
+        }
+
+        synchronized int[] counts(long bucket) {
+            advance(bucket);
+            int[] result = new int[counts.length];
+            for (int i = 0; i < counts.length; i++)
+                result[i] = counts[(int) ((current + 1 + i) % counts.length)];
+            return result;
+        }
+
+        synchronized long total(long bucket) {
+            advance(bucket);
+            long total = 0;
+            for (int count : counts)
+                total += count;
+            return total;
+        }
+    }
+
+}
@@ -19,11 +19,33 @@ under the License.
 package org.apache.edgent.samples.apps;
 
 import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.edgent.oplet.OpletContext;
+import org.apache.edgent.oplet.core.Pipe;
 import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.topology.Topology;
 
 /**
  * A configuration driven factory for an Edgent topology provider.
+ * <p>
+ * The factory also configures how a topology's tuples are scheduled.
+ * Each topology has its own executor, so a topology's sources and
+ * analytics aren't delayed by another topology's slow connector.
+ * The following properties configure a topology's executor.
+ * A {@code topology.<topologyName>.executor.*} property overrides the
+ * corresponding {@code topology.executor.*} property:
+ * <ul>
+ * <li>{@code executor.threads} - the number of executor threads.
+ *     The default is the runtime's, 4 times the number of processors.</li>
+ * <li>{@code executor.threadName} - the prefix of the executor's thread names.
+ *     A thread's name is {@code <prefix>-<topologyName>-<n>}.
+ *     The default is the runtime's thread names.</li>
+ * </ul>
  */
 public class TopologyProviderFactory {
     private final Properties props;
@@ -43,12 +65,24 @@ public class TopologyProviderFactory {
      * <p>
      * The {@code topology.provider} configuration property can specify
      * an alternative.
+     * <p>
+     * If the {@code topology.lean} property is true and the provider is
+     * the {@code DevelopmentProvider}, a {@link LeanDevelopmentProvider}
+     * is created so that the Edgent Console and JMX don't delay the
+     * application's startup.  They're started
+     * {@code topology.lean.servicesDelaySec} seconds, default 5,
+     * after the topology is submitted.  A negative delay doesn't start them.
      * 
      * @return the provider
      * @throws Exception if the provider couldn't be created
      */
     public DirectProvider newProvider() throws Exception {
         String name = props.getProperty("topology.provider", "org.apache.edgent.providers.direct.DirectProvider");
+        if (Boolean.parseBoolean(props.getProperty("topology.lean", "false").trim())
+                && name.equals("org.apache.edgent.providers.development.DevelopmentProvider")) {
+            long delaySec = Long.parseLong(props.getProperty("topology.lean.servicesDelaySec", "5").trim());
+            return new LeanDevelopmentProvider(delaySec, TimeUnit.SECONDS);
+        }
         Class<?> clazz = null;
         try {
             clazz = Class.forName(name);
@@ -60,4 +94,93 @@ public class TopologyProviderFactory {
         }
         return (DirectProvider) clazz.newInstance();
     }
+    
+    /**
+     * Get a new topology whose executor is configured by the
+     * {@code topology.executor.*} properties.
+     * @param tp the provider
+     * @param name the topology's name
+     * @return the topology
+     */
+    public Topology newTopology(DirectProvider tp, String name) {
+        Topology t = tp.newTopology(name);
+        configureExecutor(t);
+        return t;
+    }
+    
+    /**
+     * Configure a topology's executor from the {@code topology.executor.*} properties.
+     * <p>
+     * The runtime creates a topology's executor when the topology is submitted,
+     * so the executor is configured by an oplet, tagged {@code executor},
+     * when the topology's job is initialized.
+     * @param t the topology
+     */
+    public void configureExecutor(Topology t) {
+        String name = t.getName();
+        String threads = getExecutorProperty(name, "threads");
+        String prefix = getExecutorProperty(name, "threadName");
+        if (threads == null && prefix == null)
+            return;
+        t.of().pipe(new ExecutorConfigurer<>(name,
+                threads == null ? 0 : Integer.parseInt(threads), prefix))
+            .tag("executor");
+    }
+    
+    /**
+     * Configures the job's executor when it's initialized,
+     * before any of the job's tasks are scheduled.
+     */
+    private static class ExecutorConfigurer<T> extends Pipe<T,T> {
+        private static final long serialVersionUID = 1L;
+        private final String topologyName;
+        private final int threads;
+        private final String prefix;
+        
+        ExecutorConfigurer(String topologyName, int threads, String prefix) {
+            this.topologyName = topologyName;
+            this.threads = threads;
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public void initialize(OpletContext<T, T> context) {
+            super.initialize(context);
+            ScheduledExecutorService scheduler = context.getService(ScheduledExecutorService.class);
+            if (!(scheduler instanceof ScheduledThreadPoolExecutor))
+                return;
+            ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor) scheduler;
+            
+            if (threads > 0)
+                executor.setCorePoolSize(threads);
+            
+            if (prefix != null) {
+                // wrap the runtime's factory, which tracks the job's threads
+                String threadName = prefix + "-" + topologyName + "-";
+                ThreadFactory threadFactory = executor.getThreadFactory();
+                AtomicInteger n = new AtomicInteger();
+                executor.setThreadFactory(r -> {
+                        Thread thread = threadFactory.newThread(r);
+                        thread.setName(threadName + n.incrementAndGet());
+                        return thread;
+                    });
+            }
+        }
+        
+        @Override
+        public void accept(T tuple) {
+            submit(tuple);
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    private String getExecutorProperty(String topologyName, String key) {
+        String val = props.getProperty("topology."+topologyName+".executor."+key);
+        if (val == null)
+            val = props.getProperty("topology.executor."+key);
+        return val == null ? null : val.trim();
+    }
 }
@@ -0,0 +1,146 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled stream tracing configuration.
+ * <p>
+ * The configuration's csv lists and regular expressions are parsed and
+ * compiled once.  Instances are immutable; a configuration change
+ * creates a new instance.
+ * <p>
+ * The configuration properties are:
+ * <ul>
+ * <li>{@code stream.tracing.includes.csv}, {@code stream.tracing.includes.regex} -
+ *     the labels to trace</li>
+ * <li>{@code stream.tracing.excludes.csv}, {@code stream.tracing.excludes.regex} -
+ *     the labels not to trace, even if included</li>
+ * <li>{@code stream.tracing.sample} - trace 1 in every N tuples.
+ *     The default is 1.</li>
+ * <li>{@code stream.tracing.maxPerSec} - trace at most N tuples per second.
+ *     The default is 0, no limit.</li>
+ * <li>{@code stream.tracing.<label>.sample}, {@code stream.tracing.<label>.maxPerSec} -
+ *     the label's sampling, overriding the above</li>
+ * </ul>
+ *
+ * @see ApplicationUtilities#traceStream(org.apache.edgent.topology.TStream, org.apache.edgent.function.Supplier)
+ */
+final class TraceRules implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final String PREFIX = "stream.tracing.";
+
+    private final Map<String,String> config;
+    private final Set<String> includes;
+    private final Pattern includesRegex;
+    private final Set<String> excludes;
+    private final Pattern excludesRegex;
+
+    /**
+     * Compile the tracing configuration.
+     * @param config the {@code stream.tracing.*} configuration properties
+     * @throws IllegalArgumentException if a regular expression or sampling value is invalid
+     */
+    TraceRules(Map<String,String> config) {
+        this.config = Collections.unmodifiableMap(new HashMap<>(config));
+        includes = csvSet(PREFIX+"includes.csv");
+        includesRegex = pattern(PREFIX+"includes.regex");
+        excludes = csvSet(PREFIX+"excludes.csv");
+        excludesRegex = pattern(PREFIX+"excludes.regex");
+
+        // validate the sampling now rather than when a tuple is traced
+        for (Map.Entry<String,String> e : this.config.entrySet()) {
+            if (e.getKey().endsWith(".sample"))
+                Integer.parseInt(e.getValue().trim());
+            else if (e.getKey().endsWith(".maxPerSec"))
+                Double.parseDouble(e.getValue().trim());
+        }
+    }
+
+    private Set<String> csvSet(String key) {
+        Set<String> set = new HashSet<>();
+        for (String s : config.getOrDefault(key, "").split(","))
+            set.add(s.trim());
+        return set;
+    }
+
+    private Pattern pattern(String key) {
+        String regex = config.getOrDefault(key, "");
+        return regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * Get the configuration.
+     * @return the {@code stream.tracing.*} configuration properties
+     */
+    Map<String,String> getConfig() {
+        return config;
+    }
+
+    /**
+     * Determine if a label is to be traced.
+     * @param label the label
+     * @return true if the label is included and not excluded
+     */
+    boolean isIncluded(String label) {
+        boolean isIncluded = false;
+        if (includes.contains(label) || matches(includesRegex, label))
+            isIncluded = true;
+        if (excludes.contains(label) || matches(excludesRegex, label))
+            isIncluded = false;
+        return isIncluded;
+    }
+
+    private static boolean matches(Pattern pattern, String label) {
+        return pattern != null && pattern.matcher(label).matches();
+    }
+
+    /**
+     * Get the 1-in-N sampling of a label's tuples.
+     * @param label the label
+     * @return N, 1 to trace every tuple
+     */
+    int getSample(String label) {
+        return Math.max(1, Integer.parseInt(getLabelValue(label, "sample", "1")));
+    }
+
+    /**
+     * Get the maximum rate of a label's traced tuples.
+     * @param label the label
+     * @return tuples per second, 0 for no limit
+     */
+    double getMaxPerSec(String label) {
+        return Math.max(0, Double.parseDouble(getLabelValue(label, "maxPerSec", "0")));
+    }
+
+    private String getLabelValue(String label, String key, String defaultValue) {
+        String val = config.get(PREFIX+label+"."+key);
+        if (val == null)
+            val = config.getOrDefault(PREFIX+key, defaultValue);
+        return val.trim();
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.edgent.function.Consumer;
+import org.apache.edgent.function.Function;
+
+/**
+ * An application's configuration with cached typed values
+ * and, optionally, changes from its properties file.
+ * <p>
+ * A typed value is parsed from its configuration property once and cached
+ * until the configuration changes, so getting a value doesn't parse it.
+ * The cache is keyed by the property name and the parser, so a parser
+ * should be a constant rather than, e.g., a new lambda for each get.
+ * <p>
+ * {@link #watch()} watches the properties file for changes
+ * using a {@link WatchService}.  When the file changes it's reloaded,
+ * the properties that changed since the file was last loaded are updated
+ * in the configuration's {@code Properties} and the changes are pushed
+ * to the subscribers.  A property removed from the file is removed and
+ * its change is an empty value.  A property that's set by the application
+ * rather than by the file, or whose value in the file didn't change,
+ * keeps its value.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TypedConfig config = new TypedConfig(props, new File(propsPath));
+ * Range<Integer> range = config.get("sensor1.range.outside1hzMeanRange", RANGE_INTEGER);
+ * config.subscribe(changes -> {
+ *     if (changes.containsKey("sensor1.range.outside1hzMeanRange"))
+ *         ...
+ *   });
+ * config.watch();
+ * }</pre>
+ */
+public class TypedConfig {
+    // wait for a burst of file change events, e.g., from an editor, to settle
+    private static final long SETTLE_MSEC = 100;
+
+    private final Properties props;
+    private final File file;
+    // the properties last loaded from the file
+    private Properties fileProps;
+    private volatile Map<CacheKey,Object> cache = new ConcurrentHashMap<>();
+    private final List<Consumer<Map<String,String>>> subscribers = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+
+    /**
+     * Create a configuration that isn't associated with a file.
+     * @param props the configuration properties
+     */
+    public TypedConfig(Properties props) {
+        this(props, null);
+    }
+
+    /**
+     * Create a configuration.
+     * @param props the configuration properties, as loaded from {@code file}.
+     *        A reload only changes the properties whose value in the file changed.
+     * @param file the properties file.  May be null.
+     */
+    public TypedConfig(Properties props, File file) {
+        this.props = props;
+        this.file = file;
+        if (file != null) {
+            fileProps = new Properties();
+            fileProps.putAll(props);
+        }
+    }
+
+    /**
+     * Get the configuration properties.
+     * @return the properties
+     */
+    public Properties getProperties() {
+        return props;
+    }
+
+    /**
+     * Get a typed configuration value.
+     * @param <T> the value's type
+     * @param name the property name
+     * @param parser function to parse the property's value
+     * @return the value
+     * @throws IllegalArgumentException if the property isn't present
+     */
+    public <T> T get(String name, Function<String,T> parser) {
+        return get(name, null, parser);
+    }
+
+    /**
+     * Get a typed configuration value, falling back to another property's value.
+     * @param <T> the value's type
+     * @param name the property name
+     * @param fallbackName the property name to use if {@code name} isn't present.
+     *        May be null.
+     * @param parser function to parse the property's value
+     * @return the value
+     * @throws IllegalArgumentException if neither property is present
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name, String fallbackName, Function<String,T> parser) {
+        Map<CacheKey,Object> cache = this.cache;
+        CacheKey key = new CacheKey(name, fallbackName, parser);
+        Object value = cache.get(key);
+        if (value == null) {
+            String val = props.getProperty(name);
+            if (val == null && fallbackName != null)
+                val = props.getProperty(fallbackName);
+            if (val == null)
+                throw new IllegalArgumentException("Missing configuration property "+name);
+            value = parser.apply(val.trim());
+            cache.put(key, value);
+        }
+        return (T) value;
+    }
+
+    /**
+     * Get a typed configuration value, or a default value if the property isn't present.
+     * @param <T> the value's type
+     * @param name the property name
+     * @param parser function to parse the property's value
+     * @param defaultValue the value if the property isn't present
+     * @return the value
+     */
+    public <T> T getOrDefault(String name, Function<String,T> parser, T defaultValue) {
+        if (props.getProperty(name) == null)
+            return defaultValue;
+        return get(name, parser);
+    }
+
+    /**
+     * Subscribe to configuration changes.
+     * <p>
+     * The subscriber is called, by the thread that reloads the configuration,
+     * with a map of the changed property names to their new values.
+     * @param subscriber the subscriber
+     */
+    public void subscribe(Consumer<Map<String,String>> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Reload the configuration from its file and push any changes
+     * to the subscribers.
+     * @return the changes
+     * @throws IOException if the file can't be read
+     * @throws IllegalStateException if the configuration doesn't have a file
+     */
+    public Map<String,String> reload() throws IOException {
+        if (file == null)
+            throw new IllegalStateException("No configuration file");
+        Properties newProps = new Properties();
+        try (Reader reader = new FileReader(file)) {
+            newProps.load(reader);
+        }
+
+        Map<String,String> changes = new HashMap<>();
+        synchronized (this) {
+            // compare with the file's previous contents so values set by
+            // the application, e.g., defaults, aren't changed
+            for (String name : newProps.stringPropertyNames()) {
+                String value = newProps.getProperty(name);
+                if (!Objects.equals(value, fileProps.getProperty(name))) {
+                    props.setProperty(name, value);
+                    changes.put(name, value);
+                }
+            }
+            for (String name : fileProps.stringPropertyNames()) {
+                if (!newProps.containsKey(name)) {
+                    props.remove(name);
+                    changes.put(name, "");
+                }
+            }
+            fileProps = newProps;
+            if (changes.isEmpty())
+                return changes;
+            // a get() that raced with the change uses the old cache
+            cache = new ConcurrentHashMap<>();
+        }
+
+        changes = Collections.unmodifiableMap(changes);
+        for (Consumer<Map<String,String>> subscriber : subscribers) {
+            try {
+                subscriber.accept(changes);
+            } catch (RuntimeException e) {
+                System.out.println("===== Configuration change failed: " + e + " ======");
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Watch the configuration file and reload the configuration when it changes.
+     * <p>
+     * The file is watched by a daemon thread.
+     * @throws IOException if the file can't be watched
+     * @throws IllegalStateException if the configuration doesn't have a file
+     */
+    public synchronized void watch() throws IOException {
+        if (file == null)
+            throw new IllegalStateException("No configuration file");
+        if (watchService != null)
+            return;
+        Path path = file.getAbsoluteFile().toPath();
+        WatchService ws = path.getFileSystem().newWatchService();
+        path.getParent().register(ws, ENTRY_CREATE, ENTRY_MODIFY);
+        watchService = ws;
+
+        Thread watcher = new Thread(() -> watch(ws, path.getFileName()),
+                "config-watch-" + file.getName());
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(WatchService ws, Path fileName) {
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                boolean changed = isChanged(key, fileName);
+                if (changed) {
+                    Thread.sleep(SETTLE_MSEC);
+                    while ((key = ws.poll()) != null)
+                        isChanged(key, fileName);
+                    try {
+                        Map<String,String> changes = reload();
+                        if (!changes.isEmpty())
+                            System.out.println("===== Configuration changed: " + changes.keySet() + " ======");
+                    } catch (IOException e) {
+                        System.out.println("===== Configuration reload failed: " + e + " ======");
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private static boolean isChanged(WatchKey key, Path fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (fileName.equals(event.context()))
+                changed = true;
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Stop watching the configuration file.
+     */
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            watchService = null;
+        }
+    }
+
+    private static final class CacheKey {
+        private final String name;
+        private final String fallbackName;
+        private final Function<?,?> parser;
+
+        CacheKey(String name, String fallbackName, Function<?,?> parser) {
+            this.name = name;
+            this.fallbackName = fallbackName;
+            this.parser = parser;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + System.identityHashCode(parser);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey))
+                return false;
+            CacheKey k = (CacheKey) o;
+            return name.equals(k.name) && parser == k.parser
+                    && Objects.equals(fallbackName, k.fallbackName);
+        }
+    }
+
+}
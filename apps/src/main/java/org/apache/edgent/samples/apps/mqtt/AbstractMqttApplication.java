@@ -18,17 +18,40 @@ under the License.
 */
 package org.apache.edgent.samples.apps.mqtt;
 
+import static org.apache.edgent.connectors.iot.IotDevice.CMD_ID;
 import static org.apache.edgent.connectors.iot.IotDevice.CMD_PAYLOAD;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.edgent.apps.iot.IotDevicePubSub;
+import org.apache.edgent.connectors.iot.IotDevice;
 import org.apache.edgent.connectors.mqtt.iot.MqttDevice;
+import org.apache.edgent.function.Function;
+import org.apache.edgent.function.Functions;
+import org.apache.edgent.oplet.core.Pipe;
 import org.apache.edgent.samples.apps.AbstractApplication;
+import org.apache.edgent.samples.apps.ApplicationHost;
 import org.apache.edgent.samples.apps.ApplicationUtilities;
+import org.apache.edgent.samples.apps.BackpressureQueue;
+import org.apache.edgent.samples.apps.ControlRegistry;
+import org.apache.edgent.samples.apps.JsonTuples;
+import org.apache.edgent.samples.apps.LatencyProbe;
+import org.apache.edgent.samples.apps.StoreAndForwardQueue;
 import org.apache.edgent.samples.apps.TopologyProviderFactory;
+import org.apache.edgent.topology.TSink;
+import org.apache.edgent.topology.TStream;
 import org.apache.edgent.topology.Topology;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 /**
  * An MQTT Application base class.
@@ -44,38 +67,176 @@ import com.google.gson.JsonObject;
  * <li>Support for an external configuration file</li>
  * <li>Provides a {@link TopologyProviderFactory}</li>
  * <li>Provides a {@link ApplicationUtilities}</li>
- * <li>Provides a {@link MqttDevice}</li>
+ * <li>Provides a {@link MqttDevice}.  When the application is run by an
+ *     {@link ApplicationHost}, the host's MQTT device is shared
+ *     by its applications.</li>
+ * <li>Publishes device events through a configurable {@link BackpressureQueue}</li>
+ * <li>Provides a {@link ControlRegistry} whose controls are updated
+ *     by device commands</li>
  * </ul>
  */
 public abstract class AbstractMqttApplication extends AbstractApplication {
     
+    /**
+     * The device command to atomically update the values of any
+     * number of {@link #controls()}.
+     * <p>
+     * The command's "value" is a JsonObject, or its string form,
+     * of control name and value string pairs.  e.g.,
+     * {@code {"sensor1.range.outside1hzMeanRange":"[125..127]", "sensor1.publish1hzOutsideRange":"true"}}
+     */
+    public static final String CMD_SET_CONTROLS = "setControls";
+    
+    /**
+     * The device command to change the stream tracing configuration.
+     * <p>
+     * The command's "value" is a JsonObject, or its string form,
+     * of {@code stream.tracing.*} property name and value pairs.  e.g.,
+     * {@code {"stream.tracing.includes.regex":"sensors.j1khz", "stream.tracing.maxPerSec":"5"}}
+     * @see ApplicationUtilities#updateTracing(Map)
+     */
+    public static final String CMD_SET_TRACING = "setTracing";
+    
+    /**
+     * The {@code application.events.backpressure.policy} value
+     * for a {@link StoreAndForwardQueue}.
+     */
+    public static final String STORE_AND_FORWARD = "storeAndForward";
+    
     private MqttDevice mqttDevice;
+    private IotDevice device;
+    private final ControlRegistry controls;
+    private final Map<String,String> controlCommands = new ConcurrentHashMap<>();
     
     public AbstractMqttApplication(String propsPath) throws Exception {
         super(propsPath);
+        controls = new ControlRegistry(props);
     }
     
     @Override
     protected void preBuildTopology(Topology t) {
-        // Add an MQTT device communication manager to the topology
-        updateTopicPrefix();
-        mqttDevice = new MqttDevice(t, props);
+        if (isHosted()) {
+            // Share the host's MQTT device connection
+            device = IotDevicePubSub.addIotDevice(t);
+            System.out.println("MqttDevice shared with the application host");
+        }
+        else {
+            // Add an MQTT device communication manager to the topology
+            mqttDevice = newMqttDevice(t, props);
+            device = mqttDevice;
+        }
+        
+        // A single subscription handles the commands for all of the controls
+        // and tracing
+        device.commands()
+            .filter(jo -> isControlCommand(jo.get(CMD_ID).getAsString()))
+            .tag("controlCmds")
+            .sink(jo -> updateControls(jo));
+    }
+    
+    /**
+     * Get the application's controls.
+     * <p>
+     * The controls are updated by the {@link #CMD_SET_CONTROLS} device command
+     * and by any commands added by {@link #addControlCommand(String, String)}.
+     * @return the controls
+     */
+    public ControlRegistry controls() {
+        return controls;
+    }
+    
+    /**
+     * Add a device command that sets the value of a single control.
+     * <p>
+     * The command's "value" is the string form of the control's value.
+     * See {@link #getCommandValueString(JsonObject)}.
+     * @param commandId the device commandId
+     * @param controlName the control's name
+     */
+    public void addControlCommand(String commandId, String controlName) {
+        controlCommands.put(commandId, controlName);
+    }
+    
+    private boolean isControlCommand(String commandId) {
+        return CMD_SET_CONTROLS.equals(commandId) || CMD_SET_TRACING.equals(commandId)
+                || controlCommands.containsKey(commandId);
+    }
+    
+    private void updateControls(JsonObject jo) {
+        String commandId = jo.get(CMD_ID).getAsString();
+        try {
+            Map<String,String> values = new LinkedHashMap<>();
+            if (CMD_SET_CONTROLS.equals(commandId) || CMD_SET_TRACING.equals(commandId)) {
+                JsonElement value = jo.get(CMD_PAYLOAD).getAsJsonObject().get("value");
+                JsonObject jv = value.isJsonObject() ? value.getAsJsonObject()
+                        : new JsonParser().parse(value.getAsString()).getAsJsonObject();
+                for (Map.Entry<String,JsonElement> e : jv.entrySet())
+                    values.put(e.getKey(), e.getValue().getAsString());
+            }
+            else {
+                values.put(controlCommands.get(commandId), getCommandValueString(jo));
+            }
+            if (isHosted() && CMD_SET_CONTROLS.equals(commandId)) {
+                // the hosted applications share the device's commands
+                values.keySet().retainAll(controls.names());
+                if (values.isEmpty())
+                    return;
+            }
+            if (CMD_SET_TRACING.equals(commandId)) {
+                utils().updateTracing(values);
+                System.out.println("===== "+commandId+": Changing tracing to "+values+" ======");
+                return;
+            }
+            long version = controls.update(values);
+            System.out.println("===== "+commandId+": Changing controls to "+values
+                    +" (version "+version+") ======");
+        }
+        catch (RuntimeException e) {
+            System.out.println("===== "+commandId+": Ignoring invalid command: "+e.getMessage()+" ======");
+        }
+    }
+    
+    /**
+     * Create an MQTT device communication manager.
+     * @param t the topology to add the device to
+     * @param props the {@code mqttDevice.*} configuration.
+     *        The {@code mqttDevice.topic.prefix} property's {@code {user.name}}
+     *        and {@code {application.name}} variables are replaced.
+     * @return the device
+     */
+    public static MqttDevice newMqttDevice(Topology t, Properties props) {
+        updateTopicPrefix(props);
+        MqttDevice mqttDevice = new MqttDevice(t, props);
         System.out.println("MqttDevice serverURLs " + Arrays.toString(mqttDevice.getMqttConfig().getServerURLs()));
         System.out.println("MqttDevice clientId " + mqttDevice.getMqttConfig().getClientId());
         System.out.println("MqttDevice deviceId " + props.getProperty("mqttDevice.id"));
         System.out.println("MqttDevice event topic pattern " + mqttDevice.eventTopic(null));
         System.out.println("MqttDevice command topic pattern " + mqttDevice.commandTopic(null));
+        return mqttDevice;
     }
     
     /**
      * Get the application's MqttDevice
-     * @return the MqttDevice
+     * @return the MqttDevice, null if the application is hosted
+     * @see #iotDevice()
      */
     public MqttDevice mqttDevice() {
         return mqttDevice;
     }
     
-    private void updateTopicPrefix() {
+    /**
+     * Get the application's device for publishing events and
+     * receiving commands.
+     * <p>
+     * The device is the application's {@link #mqttDevice()} or,
+     * when the application is hosted, the host's shared device.
+     * @return the device
+     */
+    public IotDevice iotDevice() {
+        return device;
+    }
+    
+    private static void updateTopicPrefix(Properties props) {
         String val = props.getProperty("mqttDevice.topic.prefix");
         if (val != null) {
             val = val.replace("{user.name}", System.getProperty("user.name"));
@@ -104,6 +265,164 @@ public abstract class AbstractMqttApplication extends AbstractApplication {
         return sensorId + "." + commandId;
     }
     
+    /**
+     * Determine if event payloads should use compact encodings,
+     * such as {@link CompactSeriesCodec}, where available.
+     * <p>
+     * Controlled by the {@code application.events.compact} property.
+     * The default is false.
+     * @return true if compact encodings are configured
+     */
+    public boolean isCompactEvents() {
+        return Boolean.parseBoolean(props.getProperty("application.events.compact", "false"));
+    }
+    
+    /**
+     * Publish a stream as device events, isolating the stream
+     * from a slow or unavailable MQTT broker.
+     * <p>
+     * The events are queued by a {@link BackpressureQueue} whose policy
+     * is selected by these properties, where a
+     * {@code application.events.<eventId>.backpressure.*} property
+     * overrides the corresponding {@code application.events.backpressure.*} property:
+     * <ul>
+     * <li>{@code backpressure.policy} - dropOldest, dropNewest, coalesce, spill
+     *     or storeAndForward.
+     *     The default is dropOldest.
+     *     The coalesce policy keeps only the latest event for each sensor id.
+     *     The storeAndForward policy uses a {@link StoreAndForwardQueue}
+     *     that stores the events on disk across restarts and an
+     *     {@link MqttEventForwarder} so an event is stored until the broker
+     *     accepts it.  Use a QoS of 1 or 2 for the broker to acknowledge the events.
+     *     It requires the application's own {@link #mqttDevice()}.</li>
+     * <li>{@code backpressure.capacity} - the number of events queued in memory.
+     *     The default is 30.</li>
+     * <li>{@code backpressure.spill.dir} - the spill policy's directory.
+     *     The default is {@code <java.io.tmpdir>/<application.name>/spill}.</li>
+     * <li>{@code backpressure.spill.maxBytes} - the spill policy's
+     *     maximum size of the spilled events that haven't been published.
+     *     The default is 10MB.</li>
+     * <li>{@code backpressure.storeAndForward.dir} - the storeAndForward policy's
+     *     directory.  The events are stored in its {@code <event>} subdirectory.
+     *     Required by the storeAndForward policy.  Use a directory whose
+     *     contents survive a reboot, e.g., not {@code /tmp}.</li>
+     * <li>{@code backpressure.storeAndForward.maxBytes} - the maximum size of
+     *     the stored events.  The oldest events are dropped when it's reached.
+     *     The default is 100MB.</li>
+     * <li>{@code backpressure.storeAndForward.segmentBytes} - the size of
+     *     a segment file.  The default is 4MB.</li>
+     * <li>{@code backpressure.storeAndForward.drainRate} - the maximum number of
+     *     events published per second, e.g., to limit catching up after
+     *     a broker outage.  The default is 0, unlimited.</li>
+     * </ul>
+     * @param stream the events
+     * @param eventId the device eventId
+     * @param qos the MQTT QoS for the events
+     * @return the sink for the published events
+     * @throws IllegalArgumentException if the storeAndForward policy is
+     *         configured without a directory or the application is hosted
+     * @see MqttDevice#events(TStream, String, int)
+     */
+    public TSink<JsonObject> publishEvents(TStream<JsonObject> stream, String eventId, int qos) {
+        return publishEvents(stream, eventId, jo -> eventId, qos);
+    }
+    
+    /**
+     * Publish a stream as device events with a per-event eventId,
+     * isolating the stream from a slow or unavailable MQTT broker.
+     * <p>
+     * Same as {@link #publishEvents(TStream, String, int)} except
+     * the device eventId is determined by {@code eventIdFn}.
+     * {@code event} identifies the stream's backpressure configuration,
+     * e.g., {@code application.events.<event>.backpressure.policy}.
+     * @param stream the events
+     * @param event the name of the stream's events
+     * @param eventIdFn function to compute the device eventId for an event
+     * @param qos the MQTT QoS for the events
+     * @return the sink for the published events
+     * @throws IllegalArgumentException if the storeAndForward policy is
+     *         configured without a directory or the application is hosted
+     * @see MqttDevice#events(TStream, Function, org.apache.edgent.function.UnaryOperator, Function)
+     */
+    public TSink<JsonObject> publishEvents(TStream<JsonObject> stream, String event,
+            Function<JsonObject,String> eventIdFn, int qos) {
+        String policyName = getEventsProperty(event, "backpressure.policy", "dropOldest");
+        String name = event + ".backpressure";
+        if (STORE_AND_FORWARD.equalsIgnoreCase(policyName)) {
+            // the queue publishes the events; its stream has the published events
+            TStream<JsonObject> events = stream.pipe(
+                    newStoreAndForwardQueue(event, name, eventIdFn, qos)).tag(name);
+            utils().latencyStream(events, event+".publish", LatencyProbe.jsonStampFn());
+            return events.sink(Functions.discard());
+        }
+        Pipe<JsonObject,JsonObject> queue =
+                newBackpressureQueue(event, name, BackpressureQueue.Policy.of(policyName));
+        TStream<JsonObject> events = stream.pipe(queue).tag(name);
+        utils().latencyStream(events, event+".publish", LatencyProbe.jsonStampFn());
+        return iotDevice().events(events, eventIdFn, jo -> jo, jo -> qos);
+    }
+    
+    private BackpressureQueue<JsonObject> newBackpressureQueue(String event, String name,
+            BackpressureQueue.Policy policy) {
+        int capacity = Integer.parseInt(
+                getEventsProperty(event, "backpressure.capacity", "30"));
+        BackpressureQueue<JsonObject> queue;
+        switch (policy) {
+        case DROP_NEWEST:
+            queue = BackpressureQueue.dropNewest(name, capacity);
+            break;
+        case COALESCE:
+            queue = BackpressureQueue.coalesce(name, capacity, JsonTuples.keyFn());
+            break;
+        case SPILL:
+            String dir = getEventsProperty(event, "backpressure.spill.dir",
+                    new File(new File(System.getProperty("java.io.tmpdir"),
+                            props.getProperty("application.name")), "spill").getPath());
+            long maxBytes = Long.parseLong(
+                    getEventsProperty(event, "backpressure.spill.maxBytes", "10000000"));
+            queue = BackpressureQueue.spill(name, capacity, new File(dir), maxBytes,
+                    jo -> jo.toString(),
+                    line -> new JsonParser().parse(line).getAsJsonObject());
+            break;
+        default:
+            queue = BackpressureQueue.dropOldest(name, capacity);
+            break;
+        }
+        return queue;
+    }
+    
+    private StoreAndForwardQueue<JsonObject> newStoreAndForwardQueue(String event, String name,
+            Function<JsonObject,String> eventIdFn, int qos) {
+        // a default directory, e.g., in java.io.tmpdir, may not survive a reboot
+        String dir = getEventsProperty(event, "backpressure.storeAndForward.dir", "");
+        if (dir.isEmpty())
+            throw new IllegalArgumentException("application.events.backpressure.storeAndForward.dir"
+                    + " is required for the " + STORE_AND_FORWARD + " policy");
+        // a hosted application's events are published by the host without confirmation
+        if (mqttDevice == null)
+            throw new IllegalArgumentException("The " + STORE_AND_FORWARD
+                    + " policy requires the application's own MqttDevice");
+        long maxBytes = Long.parseLong(
+                getEventsProperty(event, "backpressure.storeAndForward.maxBytes", "100000000"));
+        int segmentBytes = Integer.parseInt(
+                getEventsProperty(event, "backpressure.storeAndForward.segmentBytes", "4000000"));
+        double drainRate = Double.parseDouble(
+                getEventsProperty(event, "backpressure.storeAndForward.drainRate", "0"));
+        PayloadDecoder<JsonObject> decoder = PayloadDecoders.json();
+        return new StoreAndForwardQueue<>(name, new File(dir, event), maxBytes, segmentBytes,
+                drainRate, jo -> jo.toString().getBytes(StandardCharsets.UTF_8),
+                bytes -> decoder.decode(event, ByteBuffer.wrap(bytes)),
+                new MqttEventForwarder(mqttDevice, eventIdFn, qos, Boolean.parseBoolean(
+                        props.getProperty("mqttDevice.events.retain", "false"))));
+    }
+    
+    private String getEventsProperty(String event, String key, String defaultValue) {
+        String val = props.getProperty("application.events."+event+"."+key);
+        if (val == null)
+            val = props.getProperty("application.events."+key, defaultValue);
+        return val.trim();
+    }
+    
     /**
      * Extract a simple string valued command arg 
      * from a {@link MqttDevice#commands(String...)} returned
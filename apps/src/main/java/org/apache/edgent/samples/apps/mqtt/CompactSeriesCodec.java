@@ -0,0 +1,226 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.mqtt;
+
+import static org.apache.edgent.samples.apps.JsonTuples.KEY_READING;
+import static org.apache.edgent.samples.apps.JsonTuples.KEY_TS;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A compact encoding for a series of {@code (msecTimestamp, reading)}
+ * values in a {@link org.apache.edgent.connectors.mqtt.iot.MqttDevice MqttDevice}
+ * event payload.
+ * <p>
+ * Rather than a JsonArray of JsonObjects, the series is added to
+ * the event's JsonObject as a single base64 string property
+ * along with a {@code <property>.enc} property identifying the encoding.
+ * The encoded form is:
+ * <ul>
+ * <li>a version byte and the number of decimal digits of the readings</li>
+ * <li>the number of values</li>
+ * <li>the timestamps, each as the delta from the previous one</li>
+ * <li>the readings as fixed-point values, each as the delta from the previous one</li>
+ * </ul>
+ * All integers are zigzag encoded varints so small deltas take a byte or two.
+ * The encoded series of 10 readings with 2 decimal digits, including
+ * the {@code .enc} property, is about a quarter of the size of its JSON equivalent.
+ * <p>
+ * {@link #decode(JsonObject)} restores the series to a JsonArray of
+ * {@code {"msec":<msec>, "reading":<reading>}} JsonObjects.
+ * {@link DeviceCommsApp} uses it to display received events.
+ */
+public class CompactSeriesCodec {
+
+    /**
+     * The value of the {@code <property>.enc} property for an encoded series.
+     */
+    public static final String ENCODING = "compactSeries/1";
+    /**
+     * The suffix of the property identifying the encoding of a property.
+     */
+    public static final String ENCODING_SUFFIX = ".enc";
+
+    private static final byte VERSION = 1;
+
+    private final int decimals;
+    private final double scale;
+    private long[] msecs = new long[16];
+    private double[] readings = new double[16];
+    private int n;
+
+    /**
+     * Create an encoder.
+     * @param decimals the number of decimal digits of the readings to retain, 0-9.
+     */
+    public CompactSeriesCodec(int decimals) {
+        if (decimals < 0 || decimals > 9)
+            throw new IllegalArgumentException("decimals");
+        this.decimals = decimals;
+        this.scale = Math.pow(10, decimals);
+    }
+
+    /**
+     * Add a value to the series being encoded.
+     * @param msec the msecTimestamp
+     * @param reading the reading
+     * @return this
+     */
+    public CompactSeriesCodec add(long msec, double reading) {
+        if (n == msecs.length) {
+            msecs = Arrays.copyOf(msecs, 2 * n);
+            readings = Arrays.copyOf(readings, 2 * n);
+        }
+        msecs[n] = msec;
+        readings[n] = reading;
+        n++;
+        return this;
+    }
+
+    /**
+     * Encode the series and reset the encoder.
+     * @return the encoded series
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + 6 * n);
+        out.write(VERSION);
+        out.write(decimals);
+        writeVarLong(out, n);
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            writeVarLong(out, zigzag(msecs[i] - prev));
+            prev = msecs[i];
+        }
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            long fixed = Math.round(readings[i] * scale);
+            writeVarLong(out, zigzag(fixed - prev));
+            prev = fixed;
+        }
+        n = 0;
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the series, add it to a JsonObject, and reset the encoder.
+     * @param jo the JsonObject
+     * @param key the property name for the series
+     * @return {@code jo}
+     */
+    public JsonObject addTo(JsonObject jo, String key) {
+        jo.addProperty(key, Base64.getEncoder().encodeToString(encode()));
+        jo.addProperty(key + ENCODING_SUFFIX, ENCODING);
+        return jo;
+    }
+
+    /**
+     * Decode an encoded series.
+     * @param bytes the encoded series
+     * @return JsonArray of {@code {"msec":<msec>, "reading":<reading>}}
+     * @throws IllegalArgumentException if the encoding isn't recognized
+     */
+    public static JsonArray decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = in.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported version: "+version);
+        double scale = Math.pow(10, in.get());
+        int n = (int) readVarLong(in);
+        long[] msecs = new long[n];
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            prev += unzigzag(readVarLong(in));
+            msecs[i] = prev;
+        }
+        JsonArray ja = new JsonArray();
+        prev = 0;
+        for (int i = 0; i < n; i++) {
+            prev += unzigzag(readVarLong(in));
+            JsonObject jo = new JsonObject();
+            jo.addProperty(KEY_TS, msecs[i]);
+            jo.addProperty(KEY_READING, prev / scale);
+            ja.add(jo);
+        }
+        return ja;
+    }
+
+    /**
+     * Decode all of the encoded series properties of a JsonObject.
+     * <p>
+     * Each {@code <property>} with a {@code <property>.enc} of {@link #ENCODING}
+     * is replaced by its decoded JsonArray and {@code <property>.enc} is removed.
+     * @param jo the JsonObject
+     * @return {@code jo}
+     */
+    public static JsonObject decode(JsonObject jo) {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String,JsonElement> e : jo.entrySet()) {
+            String key = e.getKey();
+            if (key.endsWith(ENCODING_SUFFIX)
+                    && e.getValue().isJsonPrimitive()
+                    && ENCODING.equals(e.getValue().getAsString()))
+                keys.add(key.substring(0, key.length() - ENCODING_SUFFIX.length()));
+        }
+        for (String key : keys) {
+            JsonElement value = jo.get(key);
+            if (value != null && value.isJsonPrimitive()) {
+                jo.add(key, decode(Base64.getDecoder().decode(value.getAsString())));
+                jo.remove(key + ENCODING_SUFFIX);
+            }
+        }
+        return jo;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
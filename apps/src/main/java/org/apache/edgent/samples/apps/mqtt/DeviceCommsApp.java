@@ -18,6 +18,11 @@ under the License.
 */
 package org.apache.edgent.samples.apps.mqtt;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map;
+
 import org.apache.edgent.connectors.iot.QoS;
 import org.apache.edgent.connectors.mqtt.MqttStreams;
 import org.apache.edgent.topology.TStream;
@@ -35,14 +40,20 @@ import com.google.gson.JsonObject;
  * <p>
  * This client avoids the need for other MQTT clients (e.g., from a mosquitto
  * installation) to observe and control the applications.
+ * <p>
+ * {@code watch -e <eventId>[,<eventId>...]} watches only the named events.
+ * The events are received with a single wildcard subscription
+ * and routed to a stream per event by a {@link TopicRouter}.
  */
 public class DeviceCommsApp extends AbstractMqttApplication {
     
-    private static final String usage = "Usage: watch | send <cmdLabel> <cmdArg>";
+    private static final String usage = "Usage: watch [-e <eventId>[,<eventId>...]] [<field> ...] | send <cmdLabel> <cmdArg>";
 
     private String mode;
     private String cmdLabel;
     private String cmdArg;
+    private String[] fields;
+    private String[] eventIds = new String[0];
     
     public static void main(String[] args) throws Exception {
         if (args.length < 1)
@@ -60,6 +71,13 @@ public class DeviceCommsApp extends AbstractMqttApplication {
                 application.cmdLabel = args[i++];
                 application.cmdArg = args[i++];
             }
+            else {
+                if (i < args.length && args[i].equals("-e")) {
+                    i++;
+                    application.eventIds = args[i++].split(",");
+                }
+                application.fields = Arrays.copyOfRange(args, i, args.length);
+            }
         
             application.run();
         }
@@ -101,14 +119,46 @@ public class DeviceCommsApp extends AbstractMqttApplication {
         }
         else if (mode.equals("watch")) {
             String topicFilter = mqttDevice().eventTopic(null);
-            System.out.println("Watching topic filter "+topicFilter);
-            TStream<String> events = mqtt.subscribe(topicFilter, QoS.FIRE_AND_FORGET,
-                    (topic,payload) -> { 
-                        String s = "\n# topic "+topic;
-                        s += "\n" + new String(payload);
-                        return s;
-                    });
-            events.print();
+            System.out.println("Watching topic filter "+topicFilter
+                    + (eventIds.length == 0 ? "" : " events "+Arrays.toString(eventIds))
+                    + (fields.length == 0 ? "" : " fields "+Arrays.toString(fields)));
+            // Only the watched fields of an event are decoded
+            PayloadDecoder<JsonObject> jsonDecoder = fields.length == 0
+                    ? PayloadDecoders.json() : PayloadDecoders.jsonFields(fields);
+            PayloadDecoder<String> textDecoder = PayloadDecoders.utf8();
+            TStream<Map.Entry<String,String>> events = PayloadDecoders.subscribe(mqtt,
+                    topicFilter, QoS.FIRE_AND_FORGET, 
+                    (topic,payload) -> new SimpleImmutableEntry<>(topic,
+                            decodePayload(topic, payload, jsonDecoder, textDecoder)));
+            if (eventIds.length == 0) {
+                events.map(e -> "\n# topic "+e.getKey()+"\n"+e.getValue()).print();
+            }
+            else {
+                // One subscription, routed to a stream per watched event
+                TopicRouter<Map.Entry<String,String>> router =
+                        new TopicRouter<>(events, Map.Entry::getKey);
+                for (String eventId : eventIds) {
+                    router.route(mqttDevice().eventTopic(eventId))
+                        .map(e -> "\n# event "+eventId+" topic "+e.getKey()+"\n"+e.getValue())
+                        .print();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Decode an event payload and any compact encodings in it.
+     * @return the decoded JSON, or the payload text if it isn't a JSON object
+     */
+    private static String decodePayload(String topic, ByteBuffer payload,
+            PayloadDecoder<JsonObject> jsonDecoder, PayloadDecoder<String> textDecoder) {
+        try {
+            return CompactSeriesCodec.decode(
+                    jsonDecoder.decode(topic, payload.duplicate())).toString();
+        }
+        catch (RuntimeException e) {
+            // not JSON or not decodable; display the raw payload
         }
+        return textDecoder.decode(topic, payload);
     }
 }
@@ -0,0 +1,174 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.mqtt;
+
+import java.util.UUID;
+
+import org.apache.edgent.connectors.mqtt.MqttConfig;
+import org.apache.edgent.connectors.mqtt.iot.MqttDevice;
+import org.apache.edgent.function.Function;
+import org.apache.edgent.function.Predicate;
+import org.apache.edgent.function.Supplier;
+import org.apache.edgent.topology.json.JsonFunctions;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Publish device events and report whether the broker accepted them.
+ * <p>
+ * {@link MqttDevice#events(org.apache.edgent.topology.TStream, String, int) MqttDevice.events()}
+ * logs and discards an event whose publish fails, e.g., while the
+ * broker is unreachable, so its caller can't tell whether an event was
+ * delivered.  A forwarder publishes an event to the device's event topic
+ * on its own connection and {@link #test(JsonObject)} returns true only
+ * once the publish completes.  With QoS 1 or 2 the publish completes
+ * when the broker acknowledges the event.
+ * <p>
+ * The connection uses the device's MQTT configuration with a
+ * {@code <clientId>.forwarder} client id.  It's made when an event is
+ * published and remade after a failed publish.  A publish fails if
+ * it doesn't complete within {@code mqtt.actionTimeToWaitMillis},
+ * or 10 seconds if that isn't set.
+ * <p>
+ * A forwarder is used as a {@link org.apache.edgent.samples.apps.StoreAndForwardQueue}
+ * forwarder so an event's stored position is advanced only once the
+ * event is delivered.
+ */
+public class MqttEventForwarder implements Predicate<JsonObject>, AutoCloseable {
+    private static final long serialVersionUID = 1L;
+    // the publish timeout if mqtt.actionTimeToWaitMillis isn't positive
+    private static final long DEFAULT_TIME_TO_WAIT_MSEC = 10_000;
+    // how long a publish is retried while the client's publishes are in progress
+    private static final long IN_FLIGHT_RETRY_MSEC = 1000;
+    
+    private final Supplier<MqttConfig> configFn;
+    private final Function<JsonObject,String> topicFn;
+    private final int qos;
+    private final boolean retain;
+    private transient volatile MqttClient client;
+    private volatile boolean closed;
+
+    /**
+     * Create a forwarder.
+     * @param mqttDevice the device whose events are published
+     * @param eventIdFn function to compute the device eventId for an event
+     * @param qos the MQTT QoS for the events
+     * @param retain true to publish the events as retained messages
+     */
+    public MqttEventForwarder(MqttDevice mqttDevice, Function<JsonObject,String> eventIdFn,
+            int qos, boolean retain) {
+        if (qos < 0 || qos > 2)
+            throw new IllegalArgumentException("qos");
+        MqttConfig config = mqttDevice.getMqttConfig();
+        this.configFn = () -> config;
+        this.topicFn = jo -> mqttDevice.eventTopic(eventIdFn.apply(jo));
+        this.qos = qos;
+        this.retain = retain;
+    }
+
+    /**
+     * Publish an event.
+     * @param event the event
+     * @return true if the publish completed, false if it failed
+     *         and the event should be published again
+     */
+    @Override
+    public boolean test(JsonObject event) {
+        MqttMessage message = new MqttMessage(JsonFunctions.asBytes().apply(event));
+        message.setQos(qos);
+        message.setRetained(retain);
+        String topic = topicFn.apply(event);
+        long deadline = System.currentTimeMillis() + IN_FLIGHT_RETRY_MSEC;
+        for (;;) {
+            try {
+                client().publish(topic, message);
+                return true;
+            } catch (MqttException e) {
+                // a completed publish is counted as in progress until the
+                // client's callback thread releases it, so retry briefly
+                if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT
+                        || System.currentTimeMillis() > deadline) {
+                    disconnect();
+                    return false;
+                }
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private MqttClient client() throws MqttException {
+        MqttClient client = this.client;
+        if (client != null && client.isConnected())
+            return client;
+        disconnect();
+        if (closed)
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+        MqttConfig config = configFn.get();
+        String clientId = config.getClientId() != null
+                ? config.getClientId() : UUID.randomUUID().toString();
+        client = new MqttClient(config.getServerURLs()[0], clientId + ".forwarder",
+                new MemoryPersistence());
+        // an unbounded wait would stall the forwarding on a half-open connection
+        long timeToWait = config.getActionTimeToWaitMillis();
+        client.setTimeToWait(timeToWait > 0 ? timeToWait : DEFAULT_TIME_TO_WAIT_MSEC);
+        this.client = client;
+        // a close while connecting disconnects the new client
+        if (closed)
+            disconnect();
+        client.connect((MqttConnectOptions) config.options());
+        return client;
+    }
+
+    private void disconnect() {
+        MqttClient client = this.client;
+        if (client == null)
+            return;
+        this.client = null;
+        try {
+            client.disconnectForcibly(0, 1000);
+        } catch (MqttException e) {
+            // not connected
+        }
+        try {
+            client.close();
+        } catch (MqttException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Close the forwarder's connection.  A publish in progress fails.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        disconnect();
+    }
+
+}
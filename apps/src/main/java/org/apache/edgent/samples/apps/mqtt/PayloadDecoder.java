@@ -0,0 +1,45 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.mqtt;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Decode a received MQTT message's payload into a tuple.
+ * <p>
+ * The decoder is passed the payload's bytes without first converting
+ * them to a {@code String}, so a decoder can take only what it needs
+ * from the payload.
+ *
+ * @param <T> Tuple type
+ * @see PayloadDecoders
+ */
+public interface PayloadDecoder<T> extends Serializable {
+
+    /**
+     * Decode a payload.
+     * @param topic the message's topic
+     * @param payload the message's payload, from its position to its limit.
+     *        The decoder may change the buffer's position.
+     * @return the tuple, or null to discard the message
+     * @throws IllegalArgumentException if the payload can't be decoded
+     */
+    T decode(String topic, ByteBuffer payload);
+}
@@ -0,0 +1,196 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.mqtt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.edgent.connectors.mqtt.MqttStreams;
+import org.apache.edgent.function.BiFunction;
+import org.apache.edgent.topology.TStream;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * {@link PayloadDecoder} implementations and an MQTT subscribe
+ * that decodes the messages' payload bytes.
+ * <p>
+ * {@link MqttStreams#subscribe(String, int)} converts each payload to a String
+ * and an application then typically parses the String into a JsonObject.
+ * Decoding the payload bytes directly avoids the copies, and
+ * {@link #jsonFields(String...)} avoids building a JsonObject
+ * of the fields the application doesn't use.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<JsonObject> readings = PayloadDecoders.subscribe(mqtt, "devices/+/evt/#", 0,
+ *         PayloadDecoders.jsonFields("id", "reading"));
+ * }</pre>
+ */
+public class PayloadDecoders {
+
+    private PayloadDecoders() { }
+
+    /**
+     * Subscribe to a topic filter and decode the received messages.
+     * <p>
+     * A message whose payload can't be decoded is discarded.
+     * @param <T> Tuple type
+     * @param mqtt the MQTT connector
+     * @param topicFilter the topic filter to subscribe to
+     * @param qos the quality of service
+     * @param decoder the payload decoder
+     * @return the decoded tuples
+     */
+    public static <T> TStream<T> subscribe(MqttStreams mqtt, String topicFilter, int qos,
+            PayloadDecoder<T> decoder) {
+        return mqtt.subscribe(topicFilter, qos, message2Tuple(decoder))
+                .filter(tuple -> tuple != null);
+    }
+
+    /**
+     * Get a function, for {@link MqttStreams#subscribe(String, int, BiFunction)},
+     * that decodes a message's payload.
+     * @param <T> Tuple type
+     * @param decoder the payload decoder
+     * @return the function.  The function returns null if the payload can't be decoded.
+     */
+    public static <T> BiFunction<String,byte[],T> message2Tuple(PayloadDecoder<T> decoder) {
+        return (topic, payload) -> {
+            try {
+                return decoder.decode(topic, ByteBuffer.wrap(payload));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Get a decoder of a payload's UTF-8 text.
+     * @return the decoder
+     */
+    public static PayloadDecoder<String> utf8() {
+        return (topic, payload) -> {
+            if (payload.hasArray())
+                return new String(payload.array(), payload.arrayOffset() + payload.position(),
+                        payload.remaining(), StandardCharsets.UTF_8);
+            return StandardCharsets.UTF_8.decode(payload).toString();
+        };
+    }
+
+    /**
+     * Get a decoder of a payload's bytes.
+     * <p>
+     * The payload's array is returned, without a copy, if the payload is the whole array.
+     * @return the decoder
+     */
+    public static PayloadDecoder<byte[]> bytes() {
+        return (topic, payload) -> {
+            if (payload.hasArray() && payload.arrayOffset() == 0 && payload.position() == 0
+                    && payload.remaining() == payload.array().length)
+                return payload.array();
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            return bytes;
+        };
+    }
+
+    /**
+     * Get a decoder of a payload's JSON object.
+     * <p>
+     * The object is parsed from the payload's bytes.
+     * @return the decoder
+     */
+    public static PayloadDecoder<JsonObject> json() {
+        return (topic, payload) -> {
+            try (JsonReader reader = newReader(payload)) {
+                return new JsonParser().parse(reader).getAsJsonObject();
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                throw new IllegalArgumentException("Invalid JSON object payload", e);
+            }
+        };
+    }
+
+    /**
+     * Get a streaming decoder of some of the properties of a payload's JSON object.
+     * <p>
+     * The payload's object is read as a stream of JSON tokens.
+     * Only the values of the requested properties are built;
+     * the values of other properties are skipped without being built,
+     * and the rest of the payload isn't read once all of the requested
+     * properties have been found.
+     * @param names the names of the object's properties to decode.
+     *        A property's value may be any JSON value.
+     * @return the decoder.  The decoded JsonObject has the requested
+     *         properties that are present in the payload.
+     */
+    public static PayloadDecoder<JsonObject> jsonFields(String... names) {
+        if (names.length == 0)
+            throw new IllegalArgumentException("names");
+        Set<String> fields = new HashSet<>(Arrays.asList(names));
+        return (topic, payload) -> {
+            JsonObject jo = new JsonObject();
+            try (JsonReader reader = newReader(payload)) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT)
+                    throw new IllegalArgumentException("Payload isn't a JSON object");
+                reader.beginObject();
+                JsonParser parser = new JsonParser();
+                int found = 0;
+                while (found < fields.size() && reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (fields.contains(name) && !jo.has(name)) {
+                        jo.add(name, parser.parse(reader));
+                        found++;
+                    }
+                    else {
+                        reader.skipValue();
+                    }
+                }
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                throw new IllegalArgumentException("Invalid JSON object payload", e);
+            }
+            return jo;
+        };
+    }
+
+    private static JsonReader newReader(ByteBuffer payload) {
+        ByteArrayInputStream in;
+        if (payload.hasArray()) {
+            in = new ByteArrayInputStream(payload.array(),
+                    payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        else {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            in = new ByteArrayInputStream(bytes);
+        }
+        return new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.mqtt;
+
+import org.apache.edgent.function.Consumer;
+import org.apache.edgent.function.Function;
+import org.apache.edgent.topology.TStream;
+
+/**
+ * Route a stream of messages to a stream for each of a set of MQTT topic filters.
+ * <p>
+ * Rather than each consumer filtering a wildcard subscription's stream
+ * by topic, the filters are compiled into a {@link TopicTrie} and
+ * each message is submitted to the streams of the filters its
+ * topic matches.  The cost of routing a message is proportional to the
+ * depth of its topic rather than to the number of filters.
+ * A message is submitted to each of its matching filters' streams.
+ * <p>
+ * The routes are added while the topology is built.  A route's stream
+ * is a source whose tuples are submitted by the thread that
+ * submits the message, e.g., the MQTT subscriber's thread.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * TStream<Map.Entry<String,String>> msgs = mqtt.subscribe("devices/#", 0,
+ *         (topic, payload) -> new AbstractMap.SimpleImmutableEntry<>(topic, new String(payload)));
+ * TopicRouter<Map.Entry<String,String>> router = new TopicRouter<>(msgs, Map.Entry::getKey);
+ * TStream<Map.Entry<String,String>> alerts = router.route("devices/+/evt/alert/#");
+ * TStream<Map.Entry<String,String>> truck7 = router.route("devices/truck7/#");
+ * }</pre>
+ *
+ * @param <T> Tuple type
+ */
+public class TopicRouter<T> {
+    private final TStream<T> messages;
+    private final TopicTrie<Consumer<T>> trie = new TopicTrie<>();
+
+    /**
+     * Create a router.
+     * @param messages the messages to route
+     * @param topicFn function to get a message's topic
+     */
+    public TopicRouter(TStream<T> messages, Function<T,String> topicFn) {
+        this.messages = messages;
+        TopicTrie<Consumer<T>> trie = this.trie;
+        messages.sink(msg -> trie.match(topicFn.apply(msg), submitter -> submitter.accept(msg)));
+    }
+
+    /**
+     * Get a stream of the messages whose topic matches a filter.
+     * @param topicFilter the topic filter, possibly with {@code +} and {@code #} wildcards
+     * @return the stream
+     * @throws IllegalArgumentException if the filter isn't valid
+     */
+    public TStream<T> route(String topicFilter) {
+        TopicTrie.validate(topicFilter);
+        TopicTrie<Consumer<T>> trie = this.trie;
+        TStream<T> routed = messages.topology().events(
+                (Consumer<T> submitter) -> trie.add(topicFilter, submitter));
+        return routed.tag(topicFilter);
+    }
+
+}
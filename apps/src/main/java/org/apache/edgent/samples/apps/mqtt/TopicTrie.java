@@ -0,0 +1,162 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.mqtt;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.edgent.function.Consumer;
+
+/**
+ * A trie of MQTT topic filters for matching a topic against many filters.
+ * <p>
+ * The filters are compiled into a trie of their topic levels, with
+ * the {@code +} and {@code #} wildcards as special children of a level,
+ * so the cost of matching a topic is proportional to the topic's number
+ * of levels rather than to the number of filters.
+ * <p>
+ * Matching follows the MQTT 3.1.1 rules: {@code +} matches a single level,
+ * {@code #} matches any number of levels, including the parent level, and
+ * a wildcard at the first level doesn't match a topic starting with {@code $}.
+ * <p>
+ * Filters may be added and removed while topics are matched.
+ * The trie's nodes aren't removed when their filters are removed.
+ *
+ * @param <V> the type of a filter's values
+ * @see TopicRouter
+ */
+public class TopicTrie<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String PLUS = "+";
+    private static final String HASH = "#";
+
+    private final Node<V> root = new Node<>();
+
+    private static final class Node<V> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Map<String,Node<V>> children = new ConcurrentHashMap<>();
+        volatile Node<V> plus;
+        // the values of the filters ending at this node
+        final List<V> values = new CopyOnWriteArrayList<>();
+        // the values of the filters ending with '#' after this node
+        final List<V> hashValues = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Validate a topic filter.
+     * @param filter the topic filter
+     * @throws IllegalArgumentException if the filter isn't valid
+     */
+    public static void validate(String filter) {
+        if (filter.isEmpty())
+            throw new IllegalArgumentException("Empty topic filter");
+        String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.contains(HASH) && (!level.equals(HASH) || i != levels.length - 1))
+                throw new IllegalArgumentException("Invalid '#' in topic filter: " + filter);
+            if (level.contains(PLUS) && !level.equals(PLUS))
+                throw new IllegalArgumentException("Invalid '+' in topic filter: " + filter);
+        }
+    }
+
+    /**
+     * Add a value for a topic filter.
+     * @param filter the topic filter
+     * @param value the value
+     * @throws IllegalArgumentException if the filter isn't valid
+     */
+    public synchronized void add(String filter, V value) {
+        validate(filter);
+        Node<V> node = root;
+        for (String level : filter.split("/", -1)) {
+            if (level.equals(HASH)) {
+                node.hashValues.add(value);
+                return;
+            }
+            node = child(node, level);
+        }
+        node.values.add(value);
+    }
+
+    // called while synchronized
+    private Node<V> child(Node<V> node, String level) {
+        if (level.equals(PLUS)) {
+            if (node.plus == null)
+                node.plus = new Node<>();
+            return node.plus;
+        }
+        return node.children.computeIfAbsent(level, l -> new Node<>());
+    }
+
+    /**
+     * Remove a value for a topic filter.
+     * @param filter the topic filter
+     * @param value the value
+     * @return true if the value was present
+     */
+    public synchronized boolean remove(String filter, V value) {
+        Node<V> node = root;
+        for (String level : filter.split("/", -1)) {
+            if (level.equals(HASH))
+                return node.hashValues.remove(value);
+            node = level.equals(PLUS) ? node.plus : node.children.get(level);
+            if (node == null)
+                return false;
+        }
+        return node.values.remove(value);
+    }
+
+    /**
+     * Call an action for the values of each filter that matches a topic.
+     * <p>
+     * A value is passed once for each of its filters that matches.
+     * @param topic the topic
+     * @param action the action
+     */
+    public void match(String topic, Consumer<V> action) {
+        match(root, topic, 0, action);
+    }
+
+    private void match(Node<V> node, String topic, int start, Consumer<V> action) {
+        boolean wildcards = start > 0 || !topic.startsWith("$");
+        if (wildcards) {
+            for (V value : node.hashValues)
+                action.accept(value);
+        }
+        if (start > topic.length()) {
+            for (V value : node.values)
+                action.accept(value);
+            return;
+        }
+        int end = topic.indexOf('/', start);
+        if (end == -1)
+            end = topic.length();
+        Node<V> child = node.children.get(topic.substring(start, end));
+        if (child != null)
+            match(child, topic, end + 1, action);
+        Node<V> plus = node.plus;
+        if (plus != null && wildcards)
+            match(plus, topic, end + 1, action);
+    }
+
+}
@@ -28,6 +28,9 @@ under the License.
  * <li>{@link org.apache.edgent.samples.apps.AbstractApplication} - a base class for
  *     Edgent applications providing commonly needed features.
  *     </li>
+ * <li>{@link org.apache.edgent.samples.apps.ApplicationHost} - run many applications
+ *     in one JVM, sharing one provider and MQTT connection.
+ *     </li>
  * <li>{@link org.apache.edgent.samples.apps.TopologyProviderFactory} - a configuration
  *     driven factory for an Edgent topology provider.
  *     </li>
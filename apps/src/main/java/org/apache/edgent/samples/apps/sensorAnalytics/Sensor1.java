@@ -27,17 +27,30 @@ import static org.apache.edgent.samples.apps.JsonTuples.KEY_READING;
 import static org.apache.edgent.samples.apps.JsonTuples.KEY_TS;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.math3.util.Pair;
 import org.apache.edgent.analytics.sensors.Range;
 import org.apache.edgent.analytics.sensors.Ranges;
 import org.apache.edgent.connectors.iot.QoS;
 import org.apache.edgent.function.Supplier;
+import org.apache.edgent.function.UnaryOperator;
+import org.apache.edgent.samples.apps.Checkpoints;
+import org.apache.edgent.samples.apps.ControlRegistry.Control;
 import org.apache.edgent.samples.apps.JsonTuples;
+import org.apache.edgent.samples.apps.LatencyProbe;
+import org.apache.edgent.samples.apps.SensorSample;
+import org.apache.edgent.samples.apps.SnapshotWindow;
+import org.apache.edgent.samples.apps.TimeBucketHistogram;
+import org.apache.edgent.samples.apps.mqtt.CompactSeriesCodec;
 import org.apache.edgent.samples.utils.sensor.PeriodicRandomSensor;
 import org.apache.edgent.topology.TStream;
 import org.apache.edgent.topology.Topology;
@@ -45,18 +58,38 @@ import org.apache.edgent.topology.plumbing.PlumbingStreams;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 
 /**
- * Analytics for "Sensor1".
+ * Analytics for "Sensor1" type sensors.
  * <p>
  * This sample demonstrates some common continuous sensor analytic themes.
  * <p>
- * In this case we have a simulated sensor producing 1000 samples per second
- * of an integer type in the range of 0-255.
+ * In this case we have one or more simulated sensors, each by default producing
+ * 1000 samples per second of an integer type in the range of 0-255.
+ * The sensors are configured by the application properties:
+ * <ul>
+ * <li>{@code sensors.ids} - a comma separated list of the sensor ids.
+ *     The default is {@code sensor1}.</li>
+ * <li>{@code sensors.count} - alternatively, the number of sensors.
+ *     The sensor ids are {@code <sensors.idPrefix>1..<sensors.count>}
+ *     and the default prefix is {@code sensor}.</li>
+ * <li>{@code <sensorId>.periodMsec} - a sensor's sampling period.
+ *     The default is {@code sensors.periodMsec} or 1 if that isn't set.</li>
+ * <li>{@code <sensorId>.range.outside1hzMeanRange} - a sensor's threshold range.
+ *     The default is {@code range.outside1hzMeanRange}.</li>
+ * <li>{@code sensors.parallelism} - the number of partitions of the sensors
+ *     whose samples are generated and reduced concurrently.
+ *     The default is 1.</li>
+ * </ul>
  * <p>
+ * All of the sensors share the processing pipeline rather than each
+ * sensor having its own.  The pipeline's windows and aggregations are
+ * keyed by the sensor id.
  * The processing pipeline created is roughly:
  * <ul>
- * <li>Batched Data Reduction - reduce the sensor's 1000 samples per second
+ * <li>Batched Data Reduction - reduce each sensor's samples
  *     down to 1 sample per second simple statistical aggregation of the readings.
  *     </li>
  * <li>Compute historical information - each 1hz sample is augmented
@@ -71,6 +104,8 @@ import com.google.gson.JsonObject;
  *     <ul>
  *     <li>when enabled, invdividual outliers are published.</li>
  *     <li>Every 30 seconds a list of the last 10 outliers is published.</li>
+ *     <li>Every minute a histogram of the number of outliers per minute
+ *         over the last 8 hours is published.</li>
  *     </ul>
  *     </li>
  * </ul>
@@ -85,6 +120,10 @@ import com.google.gson.JsonObject;
  *     </li>
  * <li>Conditional stream tracing - configuration controlled inclusion of tracing.
  *     </li>
+ * <li>Warm restart - the windows and histograms are checkpointed
+ *     and restored when the application is restarted, see
+ *     {@link org.apache.edgent.samples.apps.AbstractApplication#checkpoints()}.
+ *     </li>
  * <li>Use of {@link TStream#tag(String...)} to improve information provided by
  *     the Edgent DevelopmentProvider console.</li>
  * </ul>
@@ -92,109 +131,339 @@ import com.google.gson.JsonObject;
 public class Sensor1 {
     private final SensorAnalyticsApplication app;
     private final Topology t;
-    private final String sensorId = "sensor1";
+    // prefix for the trace labels and checkpoint names of the sensors' shared streams
+    private final String traceId = "sensors";
+    private final Map<String,Long> sensors;
+    private final int parallelism;
 
     public Sensor1(Topology t, SensorAnalyticsApplication app) {
         this.t = t;
         this.app = app;
+        this.sensors = getSensors(app.config());
+        this.parallelism = Integer.parseInt(app.config().getProperty("sensors.parallelism", "1"));
+    }
+    
+    /**
+     * Get the configured sensor ids and their sampling periods.
+     * @param config the application configuration
+     * @return map of sensor id to sampling period msec, in configuration order
+     */
+    static Map<String,Long> getSensors(Properties config) {
+        List<String> ids = new ArrayList<>();
+        String count = config.getProperty("sensors.count");
+        if (count != null) {
+            String prefix = config.getProperty("sensors.idPrefix", "sensor");
+            for (int i = 1; i <= Integer.parseInt(count.trim()); i++)
+                ids.add(prefix + i);
+        }
+        else {
+            for (String id : config.getProperty("sensors.ids", "sensor1").split(","))
+                ids.add(id.trim());
+        }
+        
+        String defaultPeriod = config.getProperty("sensors.periodMsec", "1");
+        Map<String,Long> sensors = new LinkedHashMap<>();
+        for (String id : ids)
+            sensors.put(id, Long.parseLong(config.getProperty(id+".periodMsec", defaultPeriod).trim()));
+        return sensors;
     }
     
     /**
-     * Add the sensor's analytics to the topology.
+     * Add the sensors' analytics to the topology.
      */
     public void addAnalytics() {
 
-        // Need synchronization for set/get of dynamically changeable values.
-        AtomicReference<Range<Integer>> range = new AtomicReference<>();
-        AtomicReference<Boolean> isPublish1hzOutsideRange = new AtomicReference<>();
+        // Register the sensors' dynamically changeable controls.
+        // Their values are initialized from the configuration
+        // and changed by device commands.
+        Map<String,Control<Range<Integer>>> ranges = new HashMap<>();
+        Map<String,Control<Boolean>> isPublish1hzOutsideRange = new HashMap<>();
+        for (String sensorId : sensors.keySet()) {
+            Control<Range<Integer>> range = app.controls().register(
+                    app.utils().getSensorPropertyName(sensorId, "outside1hzMeanRange", "range"),
+                    Ranges::valueOfInteger,
+                    app.utils().getRangeInteger(sensorId, "outside1hzMeanRange"));
+            Control<Boolean> isPublish = app.controls().register(
+                    sensorId+".publish1hzOutsideRange", Boolean::valueOf, false);
+            ranges.put(sensorId, range);
+            isPublish1hzOutsideRange.put(sensorId, isPublish);
+            
+            // The sensor's device commands for its controls
+            app.addControlCommand(commandId(sensorId, "set1hzMeanRangeThreshold"), range.getName());
+            app.addControlCommand(commandId(sensorId, "setPublish1hzOutsideRange"), isPublish.getName());
+        }
         
-        // Initialize the controls
-        range.set(app.utils().getRangeInteger(sensorId, "outside1hzMeanRange"));
-        isPublish1hzOutsideRange.set(false);
-        
-        // Handle the sensor's device commands
-        app.mqttDevice().commands(commandId("set1hzMeanRangeThreshold"))
-            .tag(commandId("set1hzMeanRangeThresholdCmd"))
-            .sink(jo -> {
-                    Range<Integer> newRange = Ranges.valueOfInteger(getCommandValue(jo));
-                    System.out.println("===== Changing range to "+newRange+" ======");
-                    range.set(newRange);
-                });
-        app.mqttDevice().commands(commandId("setPublish1hzOutsideRange"))
-            .tag(commandId("setPublish1hzOutsideRangeCmd"))
-            .sink(jo -> {
-                    Boolean b = new Boolean(getCommandValue(jo));
-                    System.out.println("===== Changing isPublish1hzOutsideRange to "+b+" ======");
-                    isPublish1hzOutsideRange.set(b);
-                });
-        
-        // Create a raw simulated sensor stream of 1000 tuples/sec.
-        // Each tuple is Pair<Long timestampMsec, sensor-reading (0..255)>.
-        PeriodicRandomSensor simulatedSensorFactory = new PeriodicRandomSensor();
-        TStream<Pair<Long,Integer>> raw1khz = 
-                simulatedSensorFactory.newInteger(t, 1/*periodMsec*/, 255)
-                .tag("raw1khz");
-        traceStream(raw1khz, "raw1khz");
-        
-        // Wrap the raw sensor reading in a JsonObject for convenience.
-        TStream<JsonObject> j1khz = JsonTuples.wrap(raw1khz, sensorId)
-                .tag("j1khz");
-        traceStream(j1khz, "j1khz");
+        // Changes to the configuration file change the controls too
+        app.typedConfig().subscribe(changes -> {
+                for (String sensorId : sensors.keySet()) {
+                    Control<Range<Integer>> range = ranges.get(sensorId);
+                    if (changes.containsKey(range.getName())
+                            || changes.containsKey(app.utils().getSensorPropertyName(null, "outside1hzMeanRange", "range")))
+                        range.set(app.utils().getRangeInteger(sensorId, "outside1hzMeanRange"));
+                    Control<Boolean> isPublish = isPublish1hzOutsideRange.get(sensorId);
+                    if (changes.containsKey(isPublish.getName()))
+                        isPublish.set(Boolean.valueOf(changes.get(isPublish.getName()).trim()));
+                }
+            });
         
-        // Data-reduction: reduce 1khz samples down to
-        // 1hz aggregate statistics samples.
-        TStream<JsonObject> j1hzStats = j1khz.last(1000, JsonTuples.keyFn())
-                .batch(JsonTuples.statistics(MIN, MAX, MEAN, STDDEV))
-                .tag("1hzStats");
+        // Data-reduction: reduce each simulated sensor's samples
+        // down to 1hz aggregate statistics samples.
+        TStream<JsonObject> j1hzStats = simulated1hzStats(t, sensors, parallelism,
+                raw1khz -> traceStream(raw1khz, "raw1khz"),
+                j1khz -> traceStream(j1khz, "j1khz"),
+                app.checkpoints(), traceId);
+        latencyStream(j1hzStats, "1hzStats");
         
         // Create a 30 second sliding window of average trailing Mean values
         // and enrich samples with that information.
-        j1hzStats = j1hzStats.last(30, JsonTuples.keyFn()).aggregate(
-            (samples, key) -> {
-                // enrich and return the most recently added tuple
-                JsonObject jo = samples.get(samples.size()-1);
-                double meanSum = 0;
-                for (JsonObject js : samples) {
-                    meanSum += JsonTuples.getStatistic(js, MEAN).getAsDouble();
-                }
-                jo.addProperty("AvgTrailingMean", Math.round(meanSum / samples.size()));
-                jo.addProperty("AvgTrailingMeanCnt", samples.size());
-                return jo;
-            })
+        // The trailing statistics are incrementally maintained
+        // as samples enter and leave each sensor's window.
+        j1hzStats = JsonTuples.slidingStatistics(j1hzStats, 30, JsonTuples.keyFn(),
+            sample -> JsonTuples.getStatistic(sample, MEAN).getAsDouble(),
+            (sample, trailing) -> {
+                // enrich and return the newly arrived tuple
+                sample.addProperty("AvgTrailingMean", Math.round(trailing.getMean()));
+                sample.addProperty("AvgTrailingMeanCnt", trailing.getN());
+                return sample;
+            },
+            app.checkpoints(), traceId+".1hzStats.trailing")
             .tag("1hzStats.enriched");
         traceStream(j1hzStats, "j1hzStats");
+        latencyStream(j1hzStats, "1hzStats.enriched");
 
         // Detect 1hz samples whose MEAN value are
-        // outside the configuration specified range.
+        // outside the sensor's configuration specified range.
         TStream<JsonObject> outside1hzMeanRange = j1hzStats.filter(
                 sample -> {
                     int value = JsonTuples.getStatistic(sample, MEAN).getAsInt();
-                    return !range.get().contains(value);
+                    return !ranges.get(JsonTuples.keyFn().apply(sample)).get().contains(value);
                 })
                 .tag("outside1hzMeanRange");
-        traceStream(outside1hzMeanRange, () -> "outside1hzMeanRange"+range.get()); 
+        traceStream(outside1hzMeanRange, "outside1hzMeanRange"); 
         
         // Log every outside1hzMeanRange event
         app.utils().logStream(outside1hzMeanRange, "ALERT", "outside1hzMeanRange");
         
         // Conditionally publish every outside1hzMeanRange event.
-        // Use a pressureReliever to prevent backpressure if the broker
-        // can't be contacted.
-        // TODO enhance MqttDevice with configurable reliever. 
-        app.mqttDevice().events(
-                PlumbingStreams.pressureReliever(
-                    outside1hzMeanRange.filter(tuple -> isPublish1hzOutsideRange.get())
-                                       .tag("outside1hzMeanRangeEvent.conditional"),
-                    tuple -> 0, 30).tag("outside1hzMeanRangeEvent.pressureRelieved"),
-                app.sensorEventId(sensorId, "outside1hzMeanRangeEvent"), QoS.FIRE_AND_FORGET);
+        // The events are published through the configured backpressure
+        // policy to prevent backpressure if the broker can't be contacted.
+        publishEvents(
+                outside1hzMeanRange.filter(tuple -> isPublish1hzOutsideRange.get(
+                                                    JsonTuples.keyFn().apply(tuple)).get())
+                                   .tag("outside1hzMeanRangeEvent.conditional"),
+                "outside1hzMeanRangeEvent");
         
         // Demonstrate periodic publishing of a sliding window if
         // something changed since it was last published.
         periodicallyPublishLastNInfo(outside1hzMeanRange, 10, 30,
                 "periodicLastOutsideRangeEvent");
         
-        // TODO histogram: #alerts over the last 8hr
+        // Maintain a histogram of the number of outside1hzMeanRange
+        // events per minute over the last 8hr and periodically publish it.
+        periodicallyPublishHistogram(outside1hzMeanRange, 8*60, 1, TimeUnit.MINUTES,
+                "outside1hzMeanRangeHistogram");
+
+    }
+    
+    /**
+     * Create a stream of 1hz aggregate statistics samples
+     * for a collection of simulated sensors.
+     * <p>
+     * The sensors are grouped by their sampling period and each group
+     * is divided into {@code parallelism} partitions.  Each partition's
+     * samples are generated by a single poll and reduced by a keyed
+     * batch aggregation, so the partitions are processed concurrently
+     * and a sensor's samples are always processed in order.
+     * The partitions' 1hz samples are merged onto a single thread.
+     * 
+     * @param t the topology
+     * @param sensors map of sensor id to sampling period msec
+     * @param parallelism the number of partitions per sampling period
+     * @param j1khzFn function applied to each partition's sample stream, e.g., to trace it
+     * @return the 1hz samples of all of the sensors
+     */
+    public static TStream<JsonObject> simulated1hzStats(Topology t, Map<String,Long> sensors,
+            int parallelism, UnaryOperator<TStream<SensorSample>> j1khzFn) {
+        return simulated1hzStats(t, sensors, parallelism, raw1khz -> raw1khz, j1khzFn, null, null);
+    }
+    
+    /**
+     * Same as {@link #simulated1hzStats(Topology, Map, int, UnaryOperator)}
+     * with checkpointing of each partition's partial batches.
+     * <p>
+     * A partition with a single sensor, e.g., the default single sensor,
+     * is generated by a {@link PeriodicRandomSensor} whose raw readings
+     * are passed to {@code raw1khzFn} before they're converted to samples.
+     * <p>
+     * A partition's batches are checkpointed as
+     * {@code <checkpointPrefix>.1hzStats.<periodMsec>msec.p<partition>}
+     * so they're only restored if the sensors' partitioning is unchanged.
+     * 
+     * @param t the topology
+     * @param sensors map of sensor id to sampling period msec
+     * @param parallelism the number of partitions per sampling period
+     * @param raw1khzFn function applied to a single sensor partition's raw readings, e.g., to trace it
+     * @param j1khzFn function applied to each partition's sample stream, e.g., to trace it
+     * @param checkpoints the checkpoints to register the batches with.  May be null.
+     * @param checkpointPrefix the prefix of the batches' checkpoint names
+     * @return the 1hz samples of all of the sensors
+     */
+    public static TStream<JsonObject> simulated1hzStats(Topology t, Map<String,Long> sensors,
+            int parallelism, UnaryOperator<TStream<Pair<Long,Integer>>> raw1khzFn,
+            UnaryOperator<TStream<SensorSample>> j1khzFn,
+            Checkpoints checkpoints, String checkpointPrefix) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism");
+        
+        Map<Long,List<List<String>>> partitions = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<String,Long> e : sensors.entrySet()) {
+            List<List<String>> periodPartitions = partitions.get(e.getValue());
+            if (periodPartitions == null) {
+                periodPartitions = new ArrayList<>();
+                for (int p = 0; p < parallelism; p++)
+                    periodPartitions.add(new ArrayList<>());
+                partitions.put(e.getValue(), periodPartitions);
+            }
+            periodPartitions.get(i++ % parallelism).add(e.getKey());
+        }
 
+        Set<TStream<JsonObject>> reduced = new HashSet<>();
+        for (Map.Entry<Long,List<List<String>>> e : partitions.entrySet()) {
+            long periodMsec = e.getKey();
+            int partition = 0;
+            for (List<String> ids : e.getValue()) {
+                if (ids.isEmpty())
+                    continue;
+                String tag = periodMsec+"msec.p"+partition++;
+                
+                // Create a raw simulated sensor stream of samples.
+                // At high rates, avoid the cost of wrapping every reading
+                // in a JsonObject.  JsonObjects are only created for the
+                // reduced 1hz samples.
+                TStream<SensorSample> j1khz;
+                if (ids.size() == 1) {
+                    // Each tuple is Pair<Long timestampMsec, sensor-reading (0..254)>.
+                    TStream<Pair<Long,Integer>> raw1khz = new PeriodicRandomSensor()
+                            .newInteger(t, periodMsec, 255)
+                            .tag("raw1khz", tag);
+                    raw1khz = raw1khzFn.apply(raw1khz);
+                    j1khz = JsonTuples.samples(raw1khz, ids.get(0));
+                }
+                else {
+                    j1khz = simulatedSensors(t, ids, periodMsec, 255);
+                }
+                j1khz.tag("j1khz", tag);
+                j1khz = j1khzFn.apply(j1khz);
+                
+                // Data-reduction: reduce the samples to 1hz aggregate statistics samples.
+                // The statistics are computed incrementally as each sample arrives.
+                int samplesPerSec = (int) Math.max(1, 1000 / periodMsec);
+                reduced.add(JsonTuples.batchStatistics(j1khz, samplesPerSec,
+                            checkpoints, checkpointPrefix+".1hzStats."+tag,
+                            MIN, MAX, MEAN, STDDEV)
+                        .tag("1hzStats", tag));
+            }
+        }
+        
+        TStream<JsonObject> j1hzStats = reduced.iterator().next();
+        if (reduced.size() > 1) {
+            // The 1hz stream's processing isn't thread safe;
+            // merge the partitions onto a single thread.
+            j1hzStats = PlumbingStreams.isolate(j1hzStats.union(reduced), true)
+                    .tag("1hzStats");
+        }
+        return j1hzStats;
+    }
+    
+    /**
+     * Create a stream of simulated samples for a collection of sensors
+     * with readings from {@link Random#nextInt(int)}.
+     * <p>
+     * Every {@code periodMsec} a sample is generated for each sensor.
+     * @param t the topology
+     * @param ids the sensor ids
+     * @param periodMsec how frequently to generate a sensor's sample
+     * @param bound the upper bound (exclusive) of a reading. Must be positive.
+     * @return the sample stream
+     */
+    static TStream<SensorSample> simulatedSensors(Topology t, List<String> ids,
+            long periodMsec, int bound) {
+        // share a single id instance among all of a sensor's samples
+        String[] sampleIds = new String[ids.size()];
+        for (int i = 0; i < sampleIds.length; i++)
+            sampleIds[i] = ids.get(i).intern();
+        Random r = new Random();
+        return t.poll(() -> {
+                    long msec = System.currentTimeMillis();
+                    List<SensorSample> samples = new ArrayList<>(sampleIds.length);
+                    for (String id : sampleIds)
+                        samples.add(new SensorSample(id, msec, r.nextInt(bound)));
+                    return samples;
+                }, periodMsec, TimeUnit.MILLISECONDS)
+                .flatMap(samples -> samples);
+    }
+    
+    /**
+     * Publish a stream of sensor events, each as its sensor's device event.
+     * @param stream the events
+     * @param event sensor's publish event label
+     */
+    private void publishEvents(TStream<JsonObject> stream, String event) {
+        app.publishEvents(stream, event,
+                jo -> app.sensorEventId(JsonTuples.keyFn().apply(jo), event),
+                QoS.FIRE_AND_FORGET);
+    }
+    
+    /**
+     * Periodically publish a histogram of the number of tuples
+     * on a stream per time interval.
+     * <p>
+     * Each sensor's histogram is published every {@code bucketTime}
+     * if it contains any tuples.
+     * @param stream tuples to count
+     * @param nBuckets number of histogram buckets
+     * @param bucketTime the time interval of a bucket
+     * @param unit unit for {@code bucketTime}
+     * @param event sensor's publish event label
+     */
+    private void periodicallyPublishHistogram(TStream<JsonObject> stream,
+            int nBuckets, long bucketTime, TimeUnit unit, String event) {
+        
+        // The memory used by a sensor's histogram is fixed,
+        // regardless of the tuple rate.
+        TimeBucketHistogram<JsonObject,String> histogram =
+                TimeBucketHistogram.of(stream, nBuckets, bucketTime, unit, JsonTuples.keyFn());
+        if (app.checkpoints() != null)
+            app.checkpoints().register(traceId+"."+event, histogram);
+        
+        TStream<JsonObject> periodicHistogram =
+                t.poll(() -> 1, bucketTime, unit).tag(event+".trigger")
+                .flatMap(trigger -> {
+                    List<JsonObject> histograms = new ArrayList<>();
+                    for (String sensorId : histogram.keys()) {
+                        if (histogram.total(sensorId) == 0)
+                            continue;
+                        // a compact representation: an array of the counts, oldest first
+                        JsonObject jo = new JsonObject();
+                        jo.addProperty(KEY_ID, sensorId);
+                        jo.addProperty(KEY_TS, System.currentTimeMillis());
+                        jo.addProperty("bucketSec", histogram.getBucketMsec() / 1000);
+                        JsonArray ja = new JsonArray();
+                        for (int count : histogram.counts(sensorId))
+                            ja.add(new JsonPrimitive(count));
+                        jo.add("counts", ja);
+                        histograms.add(jo);
+                    }
+                    return histograms;
+                })
+                .tag(event);
+        
+        traceStream(periodicHistogram, event);
+        
+        // Use the configured backpressure policy to prevent
+        // backpressure if the broker can't be contacted.
+        publishEvents(periodicHistogram, event);
     }
     
     /**
@@ -210,70 +479,72 @@ public class Sensor1 {
         // Demonstrate periodic publishing of a sliding window if
         // something changed since it was last published.
 
-        // Maintain a sliding window of the last N tuples.
-        // TODO today, windows don't provide "anytime" access to their collection
-        // so maintain our own current copy of the collection that we can
-        // access it when needed.
-        // 
-        List<JsonObject> lastN = Collections.synchronizedList(new ArrayList<>());
-        stream.last(count, JsonTuples.keyFn())
-            .aggregate((samples, key) -> samples)
-            .tag(event+".lastN")
-            .sink(samples -> {
-                    // Capture the new list/window.  
-                    synchronized(lastN) {
-                        lastN.clear();
-                        lastN.addAll(samples);
-                    }
-                });
+        // Maintain a sliding window of the last N tuples for each sensor.
+        // The window's current contents can be accessed when needed
+        // without copying the collection for every tuple.
+        SnapshotWindow<JsonObject,String> lastN =
+                SnapshotWindow.lastN(stream, count, JsonTuples.keyFn());
+        if (app.checkpoints() != null)
+            app.checkpoints().register(traceId+"."+event, lastN.checkpointable(
+                    jo -> jo.toString(), text -> new JsonParser().parse(text).getAsJsonObject()));
     
-        // Publish the lastN (with trimmed down info) every nSec seconds
+        // Publish each sensor's lastN (with trimmed down info) every nSec seconds
         // if anything changed since the last publish.
+        boolean isCompact = app.isCompactEvents();
         TStream<JsonObject> periodicLastN = 
                 t.poll(() -> 1, nSec, TimeUnit.SECONDS).tag(event+".trigger")
-                .filter(trigger -> !lastN.isEmpty()).tag(event+".changed")
-                .map(trigger -> {
-                    synchronized(lastN) {
-                        // create a single JsonObject with the list
-                        // of reduced-content samples
-                        JsonObject jo = new JsonObject();
-                        jo.addProperty(KEY_ID, sensorId);
-                        jo.addProperty(KEY_TS, System.currentTimeMillis());
-                        jo.addProperty("window", count);
-                        jo.addProperty("pubFreqSec", nSec);
-                        JsonArray ja = new JsonArray();
-                        jo.add("lastN", ja);
-                        for (JsonObject j : lastN) {
-                            JsonObject jo2 = new JsonObject();
-                            ja.add(jo2);
-                            jo2.add(KEY_TS, j.get(KEY_TS));
-                            // reduce size: include only 2 significant digits
-                            jo2.addProperty(KEY_READING, String.format("%.2f", 
-                                JsonTuples.getStatistic(j, MEAN).getAsDouble()));
-                        }
-                        lastN.clear();
-                        return jo;
+                .flatMap(trigger -> {
+                    List<JsonObject> events = new ArrayList<>();
+                    for (String sensorId : lastN.keys()) {
+                        List<JsonObject> samples = lastN.snapshotIfChanged(sensorId);
+                        if (samples != null)
+                            events.add(lastNInfo(sensorId, samples, count, nSec, isCompact));
                     }
+                    return events;
                 })
                 .tag(event);
 
         traceStream(periodicLastN, event);
 
-        // Use a pressureReliever to prevent backpressure if the broker
-        // can't be contacted.
-        // TODO enhance MqttDevice with configurable reliever. 
-        app.mqttDevice().events(
-                PlumbingStreams.pressureReliever(periodicLastN, tuple -> 0, 30)
-                    .tag(event+".pressureRelieved"),
-                app.sensorEventId(sensorId, event), QoS.FIRE_AND_FORGET);
+        // Use the configured backpressure policy to prevent
+        // backpressure if the broker can't be contacted.
+        publishEvents(periodicLastN, event);
     }
     
-    private String commandId(String commandId) {
-        return app.commandId(sensorId, commandId);
+    private static JsonObject lastNInfo(String sensorId, List<JsonObject> samples,
+            int count, int nSec, boolean isCompact) {
+        // create a single JsonObject with the list
+        // of reduced-content samples
+        JsonObject jo = new JsonObject();
+        jo.addProperty(KEY_ID, sensorId);
+        jo.addProperty(KEY_TS, System.currentTimeMillis());
+        jo.addProperty("window", count);
+        jo.addProperty("pubFreqSec", nSec);
+        if (isCompact) {
+            // reduce size: a compact encoding of the
+            // timestamps and 2 significant digit readings
+            CompactSeriesCodec codec = new CompactSeriesCodec(2);
+            for (JsonObject j : samples) {
+                codec.add(j.get(KEY_TS).getAsLong(),
+                    JsonTuples.getStatistic(j, MEAN).getAsDouble());
+            }
+            return codec.addTo(jo, "lastN");
+        }
+        JsonArray ja = new JsonArray();
+        jo.add("lastN", ja);
+        for (JsonObject j : samples) {
+            JsonObject jo2 = new JsonObject();
+            ja.add(jo2);
+            jo2.add(KEY_TS, j.get(KEY_TS));
+            // reduce size: include only 2 significant digits
+            jo2.addProperty(KEY_READING, String.format("%.2f", 
+                JsonTuples.getStatistic(j, MEAN).getAsDouble()));
+        }
+        return jo;
     }
     
-    private String getCommandValue(JsonObject jo) {
-        return app.getCommandValueString(jo);
+    private String commandId(String sensorId, String commandId) {
+        return app.commandId(sensorId, commandId);
     }
     
     private <T> TStream<T> traceStream(TStream<T> stream, String label) {
@@ -281,6 +552,10 @@ public class Sensor1 {
     }
     
     private <T> TStream<T> traceStream(TStream<T> stream, Supplier<String> label) {
-        return app.utils().traceStream(stream, sensorId, label); 
+        return app.utils().traceStream(stream, traceId, label); 
+    }
+    
+    private TStream<JsonObject> latencyStream(TStream<JsonObject> stream, String tag) {
+        return app.utils().latencyStream(stream, traceId+"."+tag, LatencyProbe.jsonStampFn());
     }
 }
@@ -48,7 +48,8 @@ public class SensorAnalyticsApplication extends AbstractMqttApplication {
     @Override
     protected void buildTopology(Topology t) {
         
-        // Add the "sensor1" analytics to the topology
+        // Add the analytics for the configured "sensor1" type sensors
+        // to the topology
         new Sensor1(t, this).addAnalytics();
         
         // TODO Add the "sensor2" analytics to the topology
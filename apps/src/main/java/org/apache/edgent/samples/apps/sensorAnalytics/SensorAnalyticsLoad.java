@@ -0,0 +1,125 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.apps.sensorAnalytics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.edgent.execution.Job;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.samples.apps.JsonTuples;
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.Topology;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A load harness for the {@link Sensor1} data reduction with many sensors.
+ * <p>
+ * For each configuration of the number of simulated sensors,
+ * the sensors' samples are reduced to 1hz aggregate statistics
+ * for a period of time and the following are reported:
+ * <ul>
+ * <li>the number of samples processed per second</li>
+ * <li>the number of 1hz samples produced per second</li>
+ * <li>the heap used at the end of the run</li>
+ * <li>the number of garbage collections and their total time during the run</li>
+ * </ul>
+ * <p>
+ * Usage: {@code SensorAnalyticsLoad [sensorCounts [seconds [periodMsec [parallelism]]]]}
+ * <br>
+ * The defaults are {@code 100,1000,10000 20 1 <availableProcessors>}.
+ * <p>
+ * No MQTT broker is needed.
+ */
+public class SensorAnalyticsLoad {
+
+    public static void main(String[] args) throws Exception {
+        String sensorCounts = args.length > 0 ? args[0] : "100,1000,10000";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long periodMsec = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format("seconds=%d periodMsec=%d parallelism=%d",
+                seconds, periodMsec, parallelism));
+        System.out.println(String.format("%8s %14s %12s %10s %8s %10s",
+                "sensors", "samples/sec", "1hz/sec", "heapMB", "gcCount", "gcMsec"));
+        for (String count : sensorCounts.split(",")) {
+            run(Integer.parseInt(count.trim()), seconds, periodMsec, parallelism);
+        }
+    }
+
+    private static void run(int nSensors, int seconds, long periodMsec, int parallelism)
+            throws Exception {
+        Map<String,Long> sensors = new LinkedHashMap<>();
+        for (int i = 1; i <= nSensors; i++)
+            sensors.put("sensor"+i, periodMsec);
+
+        DirectProvider tp = new DirectProvider();
+        Topology t = tp.newTopology("SensorAnalyticsLoad"+nSensors);
+
+        // The number of samples processed is the sum of
+        // the number of samples aggregated by the 1hz samples.
+        AtomicLong nSamples = new AtomicLong();
+        AtomicLong n1hz = new AtomicLong();
+        TStream<JsonObject> j1hzStats =
+                Sensor1.simulated1hzStats(t, sensors, parallelism, j1khz -> j1khz);
+        j1hzStats.sink(jo -> {
+                nSamples.addAndGet(jo.get(JsonTuples.KEY_AGG_COUNT).getAsLong());
+                n1hz.incrementAndGet();
+            });
+
+        System.gc();
+        long gcCount = gcCount();
+        long gcMsec = gcMsec();
+
+        Job job = tp.submit(t).get();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        long samples = nSamples.get();
+        long samples1hz = n1hz.get();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        gcCount = gcCount() - gcCount;
+        gcMsec = gcMsec() - gcMsec;
+        job.stateChange(Job.Action.CLOSE);
+        job.complete(10, TimeUnit.SECONDS);
+
+        System.out.println(String.format("%8d %14d %12d %10d %8d %10d",
+                nSensors, samples / seconds, samples1hz / seconds,
+                heapUsed / (1024 * 1024), gcCount, gcMsec));
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMsec() {
+        long msec = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            msec += Math.max(0, gc.getCollectionTime());
+        return msec;
+    }
+}
@@ -72,7 +72,9 @@ under the License.
  * <h2>Application output:</h2>
  * <p>
  * The application periodically (every 30sec), publishes a list of
- * the last 10 outliers to MQTT.  When enabled, it also publishes 
+ * the last 10 outliers to MQTT.  Every minute it publishes a histogram
+ * of the number of outliers per minute over the last 8 hours.
+ * When enabled, it also publishes 
  * full details of individual outliers as they occur.
  * It also subscribes to MQTT topics for commands to dynamically change the
  * threshold range and whether to publish individual outliers.
@@ -109,10 +111,10 @@ under the License.
  * [4] MqttDevice event topic pattern id/012345/evt/+/fmt/json
  * [5] MqttDevice command topic pattern id/012345/cmd/+/fmt/json
  * [6] Edgent Console URL for the job: http://localhost:57324/console
- * [7] sensor1.outside1hzMeanRange[124..129]: {"id":"sensor1","reading":{"N":1000,"MIN":0.0,"MAX":254.0,"MEAN":130.23200000000006,"STDDEV":75.5535473324351},"msec":1454623874408,"agg.begin.msec":1454623873410,"agg.count":1000,"AvgTrailingMean":128,"AvgTrailingMeanCnt":4}
+ * [7] sensors.outside1hzMeanRange[124..129]: {"id":"sensor1","reading":{"N":1000,"MIN":0.0,"MAX":254.0,"MEAN":130.23200000000006,"STDDEV":75.5535473324351},"msec":1454623874408,"agg.begin.msec":1454623873410,"agg.count":1000,"AvgTrailingMean":128,"AvgTrailingMeanCnt":4}
  * ...
  * [8] ===== Changing range to [125..127] ======
- * sensor1.outside1hzMeanRange[125..127]: {"id":"sensor1","reading":{"N":1000,"MIN":0.0,"MAX":254.0,"MEAN":129.00099999999978,"STDDEV":74.3076080870567},"msec":1454624142419,"agg.begin.msec":1454624141420,"agg.count":1000,"AvgTrailingMean":127,"AvgTrailingMeanCnt":30}
+ * sensors.outside1hzMeanRange[125..127]: {"id":"sensor1","reading":{"N":1000,"MIN":0.0,"MAX":254.0,"MEAN":129.00099999999978,"STDDEV":74.3076080870567},"msec":1454624142419,"agg.begin.msec":1454624141420,"agg.count":1000,"AvgTrailingMean":127,"AvgTrailingMeanCnt":30}
  * [9] ===== Changing isPublish1hzOutsideRange to true ======
  * ...
  * }</pre>
@@ -132,6 +134,11 @@ under the License.
  * $ ./runDeviceComms.sh watch
  * }</pre>
  * <p>
+ * To observe only some of the events, e.g., the 1hz outliers:
+ * <pre>{@code
+ * $ ./runDeviceComms.sh watch -e sensor1.outside1hzMeanRangeEvent
+ * }</pre>
+ * <p>
  * To change the outlier threshold setting:
  * <br>The command value is the new range string: {@code [<lowerBound>..<upperBound>]}.
  * <pre>{@code
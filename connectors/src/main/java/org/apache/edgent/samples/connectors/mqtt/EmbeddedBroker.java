@@ -0,0 +1,356 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.connectors.mqtt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.edgent.function.Consumer;
+import org.apache.edgent.samples.apps.mqtt.TopicTrie;
+
+/**
+ * A minimal in-process MQTT 3.1.1 broker, e.g., to run the MQTT samples
+ * and benchmarks without a network or an installed broker.
+ * <p>
+ * The broker listens on the loopback interface and supports:
+ * <ul>
+ * <li>publish and subscribe with QoS 0 and 1.  A QoS 2 publish is accepted
+ *     and delivered with QoS 1; a QoS 2 subscription is granted QoS 1.</li>
+ * <li>the {@code +} and {@code #} topic filter wildcards</li>
+ * <li>retained messages</li>
+ * </ul>
+ * Sessions aren't persisted, authentication isn't supported,
+ * and a will message is ignored.
+ * <p>
+ * Each connection is read by its own daemon thread.
+ * The subscriptions are held in a {@link TopicTrie} so the cost of
+ * routing a message is proportional to its topic's depth rather than
+ * to the number of subscriptions.
+ */
+public class EmbeddedBroker implements AutoCloseable {
+    private static final int CONNECT = 1, CONNACK = 2, PUBLISH = 3, PUBACK = 4,
+            PUBREC = 5, PUBREL = 6, PUBCOMP = 7, SUBSCRIBE = 8, SUBACK = 9,
+            UNSUBSCRIBE = 10, UNSUBACK = 11, PINGREQ = 12, PINGRESP = 13, DISCONNECT = 14;
+
+    private final ServerSocket serverSocket;
+    private final TopicTrie<Subscription> subscriptions = new TopicTrie<>();
+    private final Map<String,byte[]> retained = new ConcurrentHashMap<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Start a broker.
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port can't be bound
+     */
+    public EmbeddedBroker(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "mqtt-broker-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Get the port the broker listens on.
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get the broker's server URI for a client.
+     * @return the URI
+     */
+    public String getServerURI() {
+        return "tcp://" + serverSocket.getInetAddress().getHostAddress() + ":" + getPort();
+    }
+
+    /**
+     * Stop the broker and close its connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (Connection c : connections)
+            c.close();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection c = new Connection(socket);
+                connections.add(c);
+                Thread reader = new Thread(c::read, "mqtt-broker-" + getPort() + "-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed)
+                    System.err.println("EmbeddedBroker accept failed: " + e);
+            }
+        }
+    }
+
+    private static final class Subscription {
+        final Connection connection;
+        final String filter;
+        final int qos;
+
+        Subscription(Connection connection, String filter, int qos) {
+            this.connection = connection;
+            this.filter = filter;
+            this.qos = qos;
+        }
+    }
+
+    /**
+     * A client connection.
+     */
+    private final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Map<String,Subscription> filters = new ConcurrentHashMap<>();
+        private int nextPacketId;
+        // reused by route(), which is only called by the connection's thread
+        private final Map<Connection,Integer> deliveries = new HashMap<>();
+        private int routeQos;
+        private final Consumer<Subscription> addDelivery =
+                s -> deliveries.merge(s.connection, Math.min(routeQos, s.qos), Math::max);
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    int header = in.readUnsignedByte();
+                    int len = readRemainingLength();
+                    byte[] body = new byte[len];
+                    in.readFully(body);
+                    if (!handle(header >> 4, header & 0x0F, body))
+                        break;
+                }
+            } catch (EOFException | SocketException e) {
+                // disconnected
+            } catch (IOException | RuntimeException e) {
+                if (!closed)
+                    System.err.println("EmbeddedBroker connection failed: " + e);
+            } finally {
+                close();
+            }
+        }
+
+        private int readRemainingLength() throws IOException {
+            int len = 0;
+            for (int shift = 0; shift < 28; shift += 7) {
+                int b = in.readUnsignedByte();
+                len |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return len;
+            }
+            throw new IOException("Malformed remaining length");
+        }
+
+        private boolean handle(int type, int flags, byte[] body) throws IOException {
+            switch (type) {
+            case CONNECT:
+                write(CONNACK << 4, new byte[] { 0, 0 });
+                break;
+            case PUBLISH: {
+                int qos = (flags >> 1) & 0x03;
+                int topicLen = u16(body, 0);
+                String topic = new String(body, 2, topicLen, StandardCharsets.UTF_8);
+                int pos = 2 + topicLen;
+                int packetId = 0;
+                if (qos > 0) {
+                    packetId = u16(body, pos);
+                    pos += 2;
+                }
+                byte[] payload = new byte[body.length - pos];
+                System.arraycopy(body, pos, payload, 0, payload.length);
+                if ((flags & 0x01) != 0) {
+                    if (payload.length == 0)
+                        retained.remove(topic);
+                    else
+                        retained.put(topic, payload);
+                }
+                if (qos == 1)
+                    write(PUBACK << 4, packetId(packetId));
+                else if (qos == 2)
+                    write(PUBREC << 4, packetId(packetId));
+                route(topic, Math.min(qos, 1), payload);
+                break;
+            }
+            case PUBREL:
+                write(PUBCOMP << 4, packetId(u16(body, 0)));
+                break;
+            case PUBACK:
+            case PUBREC:
+            case PUBCOMP:
+                break;
+            case SUBSCRIBE: {
+                // the SUBACK is the packet id and a granted QoS per filter
+                ByteArrayOutputStream suback = new ByteArrayOutputStream();
+                suback.write(body, 0, 2);
+                TopicTrie<Subscription> added = new TopicTrie<>();
+                int pos = 2;
+                while (pos < body.length) {
+                    int filterLen = u16(body, pos);
+                    String filter = new String(body, pos + 2, filterLen, StandardCharsets.UTF_8);
+                    int qos = Math.min(body[pos + 2 + filterLen] & 0x03, 1);
+                    pos += 3 + filterLen;
+                    unsubscribe(filter);
+                    Subscription s = new Subscription(this, filter, qos);
+                    try {
+                        subscriptions.add(filter, s);
+                        filters.put(filter, s);
+                        added.add(filter, s);
+                        suback.write(qos);
+                    } catch (IllegalArgumentException e) {
+                        suback.write(0x80);
+                    }
+                }
+                write(SUBACK << 4, suback.toByteArray());
+                // the retained messages for this SUBSCRIBE's filters
+                for (Map.Entry<String,byte[]> r : retained.entrySet()) {
+                    int[] qos = { -1 };
+                    added.match(r.getKey(), s -> qos[0] = Math.max(qos[0], s.qos));
+                    if (qos[0] != -1)
+                        publish(r.getKey(), qos[0], true, r.getValue());
+                }
+                break;
+            }
+            case UNSUBSCRIBE: {
+                int pos = 2;
+                while (pos < body.length) {
+                    int filterLen = u16(body, pos);
+                    unsubscribe(new String(body, pos + 2, filterLen, StandardCharsets.UTF_8));
+                    pos += 2 + filterLen;
+                }
+                write(UNSUBACK << 4, packetId(u16(body, 0)));
+                break;
+            }
+            case PINGREQ:
+                write(PINGRESP << 4, new byte[0]);
+                break;
+            case DISCONNECT:
+                return false;
+            default:
+                throw new IOException("Unsupported packet type " + type);
+            }
+            return true;
+        }
+
+        private void route(String topic, int qos, byte[] payload) {
+            // one delivery per connection at the highest matching QoS
+            routeQos = qos;
+            subscriptions.match(topic, addDelivery);
+            for (Map.Entry<Connection,Integer> d : deliveries.entrySet())
+                d.getKey().publish(topic, d.getValue(), false, payload);
+            deliveries.clear();
+        }
+
+        private void unsubscribe(String filter) {
+            Subscription s = filters.remove(filter);
+            if (s != null)
+                subscriptions.remove(filter, s);
+        }
+
+        void publish(String topic, int qos, boolean retain, byte[] payload) {
+            byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            int len = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+            byte[] body = new byte[len];
+            body[0] = (byte) (topicBytes.length >> 8);
+            body[1] = (byte) topicBytes.length;
+            System.arraycopy(topicBytes, 0, body, 2, topicBytes.length);
+            int pos = 2 + topicBytes.length;
+            synchronized (this) {
+                if (qos > 0) {
+                    nextPacketId = nextPacketId % 0xFFFF + 1;
+                    body[pos++] = (byte) (nextPacketId >> 8);
+                    body[pos++] = (byte) nextPacketId;
+                }
+                System.arraycopy(payload, 0, body, pos, payload.length);
+                try {
+                    write(PUBLISH << 4 | qos << 1 | (retain ? 1 : 0), body);
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        private synchronized void write(int header, byte[] body) throws IOException {
+            out.write(header);
+            int len = body.length;
+            do {
+                int b = len & 0x7F;
+                len >>>= 7;
+                out.write(len > 0 ? b | 0x80 : b);
+            } while (len > 0);
+            out.write(body);
+            out.flush();
+        }
+
+        void close() {
+            connections.remove(this);
+            for (Subscription s : filters.values())
+                unsubscribe(s.filter);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static int u16(byte[] b, int pos) {
+        return (b[pos] & 0xFF) << 8 | (b[pos + 1] & 0xFF);
+    }
+
+    private static byte[] packetId(int id) {
+        return new byte[] { (byte) (id >> 8), (byte) id };
+    }
+
+}
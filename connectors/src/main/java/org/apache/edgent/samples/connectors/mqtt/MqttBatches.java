@@ -0,0 +1,219 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.connectors.mqtt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.edgent.connectors.mqtt.MqttStreams;
+import org.apache.edgent.oplet.OpletContext;
+import org.apache.edgent.oplet.core.Pipe;
+import org.apache.edgent.topology.TSink;
+import org.apache.edgent.topology.TStream;
+
+/**
+ * Publish a stream's tuples in batches, packing many tuples into
+ * a single MQTT message, and restore the individual tuples
+ * of the received batches.
+ * <p>
+ * A batch is published when it has {@code maxTuples} tuples or
+ * {@code maxMsec} milliseconds after its first tuple, whichever comes first.
+ * With many small tuples, batching reduces the per-message overhead
+ * of the client and broker.
+ * <p>
+ * A batch message's payload is a 2 byte header, the number of tuples
+ * and each tuple's UTF-8 encoded length and bytes.  The header isn't
+ * valid UTF-8, so a received message that isn't a batch,
+ * e.g., from {@link MqttStreams#publish(TStream, String, int, boolean)},
+ * is a single tuple.
+ * <p>
+ * Sample use:
+ * <pre>{@code
+ * MqttBatches.publish(mqtt, readings, 100, 250, "readings", 0, false);
+ * 
+ * TStream<String> readings = MqttBatches.subscribe(mqtt, "readings", 0);
+ * }</pre>
+ */
+public class MqttBatches {
+    private static final byte MAGIC0 = (byte) 0xEB;
+    private static final byte MAGIC1 = 0x01;
+    private static final int HEADER_LEN = 2 + Integer.BYTES;
+
+    private MqttBatches() { }
+
+    /**
+     * Publish a stream's tuples in batches.
+     * @param mqtt the MQTT connector
+     * @param stream the tuples to publish
+     * @param maxTuples the maximum number of tuples in a batch
+     * @param maxMsec the maximum time, in milliseconds, to hold a batch's first tuple.
+     *        0 to only publish full batches.
+     * @param topic the topic to publish to
+     * @param qos the quality of service
+     * @param retain true to retain the last batch
+     * @return the sink
+     */
+    public static TSink<List<String>> publish(MqttStreams mqtt, TStream<String> stream,
+            int maxTuples, long maxMsec, String topic, int qos, boolean retain) {
+        return mqtt.publish(batch(stream, maxTuples, maxMsec),
+                batch -> topic, MqttBatches::encode, batch -> qos, batch -> retain);
+    }
+
+    /**
+     * Subscribe to a topic and restore the individual tuples of the received batches.
+     * @param mqtt the MQTT connector
+     * @param topicFilter the topic filter to subscribe to
+     * @param qos the quality of service
+     * @return the received tuples
+     */
+    public static TStream<String> subscribe(MqttStreams mqtt, String topicFilter, int qos) {
+        return unbatch(mqtt.subscribe(topicFilter, qos, (topic, payload) -> payload));
+    }
+
+    /**
+     * Collect a stream's tuples into batches.
+     * @param stream the tuples
+     * @param maxTuples the maximum number of tuples in a batch
+     * @param maxMsec the maximum time, in milliseconds, to hold a batch's first tuple.
+     *        0 to only submit full batches.
+     * @return the batches
+     */
+    public static TStream<List<String>> batch(TStream<String> stream, int maxTuples, long maxMsec) {
+        if (maxTuples < 1)
+            throw new IllegalArgumentException("maxTuples");
+        if (maxMsec < 0)
+            throw new IllegalArgumentException("maxMsec");
+        return stream.pipe(new Batcher(maxTuples, maxMsec)).tag("batch");
+    }
+
+    /**
+     * Restore the individual tuples of received message payloads.
+     * @param payloads the message payloads
+     * @return the tuples
+     * @see #decode(byte[])
+     */
+    public static TStream<String> unbatch(TStream<byte[]> payloads) {
+        return payloads.flatMap(MqttBatches::decode).tag("unbatch");
+    }
+
+    /**
+     * Encode a batch as a message payload.
+     * @param batch the tuples
+     * @return the payload
+     */
+    public static byte[] encode(List<String> batch) {
+        byte[][] tuples = new byte[batch.size()][];
+        int len = HEADER_LEN;
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = batch.get(i).getBytes(StandardCharsets.UTF_8);
+            len += Integer.BYTES + tuples[i].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        buf.put(MAGIC0).put(MAGIC1).putInt(tuples.length);
+        for (byte[] tuple : tuples)
+            buf.putInt(tuple.length).put(tuple);
+        return buf.array();
+    }
+
+    /**
+     * Decode a message payload.
+     * @param payload the payload
+     * @return the batch's tuples, or the payload as a single UTF-8 tuple
+     *         if it isn't a batch
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    public static List<String> decode(byte[] payload) {
+        if (payload.length < HEADER_LEN || payload[0] != MAGIC0 || payload[1] != MAGIC1)
+            return Collections.singletonList(new String(payload, StandardCharsets.UTF_8));
+        ByteBuffer buf = ByteBuffer.wrap(payload, 2, payload.length - 2);
+        int count = buf.getInt();
+        if (count < 0 || count > buf.remaining() / Integer.BYTES)
+            throw new IllegalArgumentException("Malformed batch: count " + count);
+        List<String> tuples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int len = buf.getInt();
+            if (len < 0 || len > buf.remaining())
+                throw new IllegalArgumentException("Malformed batch: length " + len);
+            tuples.add(new String(payload, buf.position(), len, StandardCharsets.UTF_8));
+            buf.position(buf.position() + len);
+        }
+        return tuples;
+    }
+
+    /**
+     * Submits a batch when it's full or when its first tuple has waited {@code maxMsec}.
+     * <p>
+     * A timed flush is scheduled with the job's executor.
+     * A batch that's pending when the job is closed isn't submitted.
+     */
+    private static class Batcher extends Pipe<String,List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final int maxTuples;
+        private final long maxMsec;
+        private transient ScheduledExecutorService scheduler;
+        private transient List<String> batch;
+        // identifies the current batch for its timed flush
+        private transient long generation;
+
+        Batcher(int maxTuples, long maxMsec) {
+            this.maxTuples = maxTuples;
+            this.maxMsec = maxMsec;
+        }
+
+        @Override
+        public void initialize(OpletContext<String,List<String>> context) {
+            super.initialize(context);
+            scheduler = context.getService(ScheduledExecutorService.class);
+        }
+
+        @Override
+        public synchronized void accept(String tuple) {
+            if (batch == null) {
+                batch = new ArrayList<>(Math.min(maxTuples, 1024));
+                if (maxMsec > 0 && maxTuples > 1) {
+                    long flushGeneration = generation;
+                    scheduler.schedule(() -> flush(flushGeneration), maxMsec, TimeUnit.MILLISECONDS);
+                }
+            }
+            batch.add(tuple);
+            if (batch.size() >= maxTuples)
+                flush(generation);
+        }
+
+        // the batch is submitted while holding the lock so batches stay in order
+        private synchronized void flush(long flushGeneration) {
+            if (batch == null || flushGeneration != generation)
+                return;
+            List<String> full = batch;
+            batch = null;
+            generation++;
+            submit(full);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.connectors.mqtt;
+
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_BATCH_MILLIS;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_BATCH_SIZE;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_CLIENT_ID;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_DURATION_SEC;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_EMBEDDED_BROKER;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_PAYLOAD_SIZE;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_PUBLISHERS;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_QOS;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_RATE;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_SERVER_URI;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_TOPIC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.edgent.connectors.mqtt.MqttConfig;
+import org.apache.edgent.connectors.mqtt.MqttStreams;
+import org.apache.edgent.execution.Job;
+import org.apache.edgent.function.Supplier;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.samples.apps.LatencyHistogram;
+import org.apache.edgent.samples.apps.LatencyProbe;
+import org.apache.edgent.samples.connectors.Options;
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.Topology;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Measure the throughput and end-to-end latency of the MQTT connector.
+ * <p>
+ * {@code publishers} publisher topologies, each with its own MQTT connection,
+ * publish {@code rate} messages per second of {@code payloadSize} bytes
+ * to the topic for {@code duration} seconds.  A message's payload starts
+ * with the time it was created.  A subscriber topology receives the messages
+ * and records their latency.  The messages are published in batches
+ * if {@code batchSize} is greater than 1.
+ * <p>
+ * With {@code embeddedBroker}, the messages are published through
+ * an {@link EmbeddedBroker}, so the benchmark runs without a network.
+ * <p>
+ * The throughput is reported every second.  When the benchmark is done
+ * the number of messages sent and received, the throughput and
+ * the p50, p99 and p99.9 latencies are reported.  The first second
+ * is a warmup that isn't included.  The lost messages include any that
+ * the connector failed to publish, e.g., when too many QoS 1 messages
+ * are in flight.
+ * <p>
+ * e.g., {@code MqttClient bench embeddedBroker rate=10000 payloadSize=200 publishers=2 qos=1}
+ */
+public class MqttBenchmark {
+    // flush a publisher's in-flight messages before the report
+    private static final long DRAIN_MSEC = 2000;
+    private static final long WARMUP_SEC = 1;
+    private static final String STAMP_END = ":";
+
+    private MqttBenchmark() { }
+
+    /**
+     * Run the benchmark.
+     * @param options command line options
+     * @throws Exception on failure
+     */
+    public static void run(Options options) throws Exception {
+        EmbeddedBroker broker = null;
+        if ((Boolean) options.get(OPT_EMBEDDED_BROKER)) {
+            broker = new EmbeddedBroker(0);
+            options.put(OPT_SERVER_URI, broker.getServerURI());
+        }
+        int publishers = options.get(OPT_PUBLISHERS);
+        int rate = options.get(OPT_RATE);
+        int payloadSize = options.get(OPT_PAYLOAD_SIZE);
+        int duration = options.get(OPT_DURATION_SEC);
+        int batchSize = options.get(OPT_BATCH_SIZE);
+        String topic = options.get(OPT_TOPIC);
+        int qos = options.get(OPT_QOS);
+        System.out.println(String.format(
+                "Benchmark: broker=%s publishers=%d rate=%d/sec payloadSize=%d qos=%d batchSize=%d duration=%ds",
+                options.get(OPT_SERVER_URI), publishers, rate, payloadSize, qos, batchSize, duration));
+
+        String clientId = options.get(OPT_CLIENT_ID,
+                "mqttBench" + Long.toHexString(System.currentTimeMillis()));
+
+        DirectProvider tp = new DirectProvider();
+        AtomicLong sent = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+
+        // The subscriber records each message's latency
+        Topology st = tp.newTopology("mqttBenchSubscriber");
+        MqttStreams subscriber = new MqttStreams(st, () -> newConfig(options, clientId + "-sub"));
+        LatencyProbe<String> probe = new LatencyProbe<>("mqttBench", MqttBenchmark::stamp);
+        MqttBatches.subscribe(subscriber, topic, qos)
+            .pipe(probe)
+            .sink(msg -> received.incrementAndGet());
+        Job subscriberJob = tp.submit(st).get();
+        // let the subscriber connect before publishing
+        Thread.sleep(1000);
+
+        List<Job> publisherJobs = new ArrayList<>();
+        for (int i = 0; i < publishers; i++) {
+            String publisherId = clientId + "-pub" + i;
+            Topology pt = tp.newTopology("mqttBenchPublisher" + i);
+            MqttStreams publisher = new MqttStreams(pt, () -> newConfig(options, publisherId));
+            TStream<String> msgs = pt.poll(new PacedMessages(rate, payloadSize), 1, TimeUnit.MILLISECONDS)
+                    .flatMap(batch -> batch)
+                    .peek(msg -> sent.incrementAndGet());
+            if (batchSize > 1)
+                MqttBatches.publish(publisher, msgs, batchSize, options.get(OPT_BATCH_MILLIS),
+                        topic, qos, false);
+            else
+                publisher.publish(msgs, topic, qos, false);
+            publisherJobs.add(tp.submit(pt).get());
+        }
+
+        long startReceived = 0;
+        long startNanos = 0;
+        long last = 0;
+        for (int sec = 1; sec <= duration; sec++) {
+            Thread.sleep(1000);
+            long n = received.get();
+            System.out.println(String.format("[%3ds] sent=%d received=%d received/sec=%d",
+                    sec, sent.get(), n, n - last));
+            last = n;
+            if (sec == WARMUP_SEC) {
+                probe.getHistogram().reset();
+                startReceived = n;
+                startNanos = System.nanoTime();
+            }
+        }
+        for (Job job : publisherJobs)
+            job.stateChange(Job.Action.CLOSE);
+        long endNanos = System.nanoTime();
+        long endReceived = received.get();
+        Thread.sleep(DRAIN_MSEC);
+        subscriberJob.stateChange(Job.Action.CLOSE);
+        if (broker != null)
+            broker.close();
+
+        LatencyHistogram h = probe.getHistogram();
+        double seconds = (endNanos - startNanos) / 1e9;
+        double msgsPerSec = (endReceived - startReceived) / seconds;
+        System.out.println(String.format(
+                "Result: sent=%d received=%d lost=%d msgs/sec=%.0f MB/sec=%.2f",
+                sent.get(), received.get(), sent.get() - received.get(),
+                msgsPerSec, msgsPerSec * payloadSize / 1e6));
+        System.out.println(String.format(
+                "Latency usec: p50=%d p99=%d p99.9=%d max=%d",
+                h.getPercentile(50) / 1000, h.getPercentile(99) / 1000,
+                h.getPercentile(99.9) / 1000, h.getMax() / 1000));
+    }
+
+    private static MqttConfig newConfig(Options options, String clientId) {
+        MqttConfig config = Runner.newConfig(options);
+        config.setClientId(clientId);
+        config.setPersistence(new MemoryPersistence());
+        return config;
+    }
+
+    private static long stamp(String msg) {
+        int end = msg.indexOf(STAMP_END);
+        if (end <= 0)
+            return LatencyProbe.NO_STAMP;
+        try {
+            return Long.parseLong(msg.substring(0, end));
+        } catch (NumberFormatException e) {
+            // another publisher's message on the topic
+            return LatencyProbe.NO_STAMP;
+        }
+    }
+
+    /**
+     * Creates the messages due at a rate since the first poll.
+     * A message is its {@code System.nanoTime()} creation time, padded to the payload size.
+     * The publishers and the subscriber share the process, and so the clock.
+     */
+    private static class PacedMessages implements Supplier<List<String>> {
+        private static final long serialVersionUID = 1L;
+        // limit the catch-up after a stall
+        private static final int MAX_PER_POLL = 10_000;
+        private final int rate;
+        private final int payloadSize;
+        private transient String padding;
+        private long startNanos;
+        private long created;
+
+        PacedMessages(int rate, int payloadSize) {
+            this.rate = rate;
+            this.payloadSize = payloadSize;
+        }
+
+        @Override
+        public List<String> get() {
+            long now = System.nanoTime();
+            if (padding == null) {
+                char[] pad = new char[payloadSize];
+                Arrays.fill(pad, 'x');
+                padding = new String(pad);
+                startNanos = now;
+            }
+            long due = (long) ((now - startNanos) / 1e9 * rate);
+            int n = (int) Math.min(due - created, MAX_PER_POLL);
+            if (n <= 0)
+                return Collections.emptyList();
+            created = Math.max(created + n, due - MAX_PER_POLL);
+            List<String> msgs = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                String stamp = System.nanoTime() + STAMP_END;
+                msgs.add(stamp.length() >= payloadSize ? stamp
+                        : stamp + padding.substring(stamp.length()));
+            }
+            return msgs;
+        }
+    }
+
+}
@@ -31,6 +31,19 @@ import org.apache.edgent.samples.connectors.Options;
  * The client either publishes some messages to a MQTT topic  
  * or subscribes to the topic and reports the messages received.
  * <p>
+ * With {@code batchSize} greater than 1 the publisher packs up to
+ * {@code batchSize} messages into a single MQTT message, publishing
+ * a partial batch {@code batchMillis} milliseconds after its first message.
+ * The subscriber restores the individual messages of a batch.
+ * See {@link MqttBatches}.
+ * <p>
+ * With {@code fields}, the subscriber decodes only the named fields
+ * of received JSON object messages.
+ * See {@link org.apache.edgent.samples.apps.mqtt.PayloadDecoders PayloadDecoders}.
+ * <p>
+ * {@code bench} runs a throughput and latency benchmark, optionally
+ * with an in-process broker.  See {@link MqttBenchmark}.
+ * <p>
  * By default, a running MQTT broker with the following
  * characteristics is assumed:
  * <ul>
@@ -59,13 +72,17 @@ import org.apache.edgent.samples.connectors.Options;
 public class MqttClient {
     private static final String usage = "usage: "
             + "\n" + "[-v] [-h]"
-            + "\n" + "pub | sub"
+            + "\n" + "pub | sub | bench"
             + "\n" + "[serverURI=<value>]"
             + "\n" + "[clientId=<value>]"
             + "\n" + "[cleanSession=<true|false>]"
             + "\n" + "[topic=<value>] [qos=<value>]"
             + "\n" + "[retain]"
-            + "\n" + "[pubcnt=<value>]"
+            + "\n" + "[pubcnt=<value>] [pubMillis=<value>]"
+            + "\n" + "[batchSize=<value>] [batchMillis=<value>]"
+            + "\n" + "[rate=<value>] [payloadSize=<value>] [publishers=<value>]"
+            + "\n" + "[duration=<value>] [embeddedBroker]"
+            + "\n" + "[fields=<name>[,<name>...]]"
             + "\n" + "[cnTimeout=<value>]"
             + "\n" + "[actionTimeoutMillis=<value>]"
             + "\n" + "[idleTimeout=<value>]"
@@ -100,8 +117,10 @@ public class MqttClient {
             return null;
         }
                
-        if (!(Boolean)options.get(OPT_PUB) && !(Boolean)options.get(OPT_SUB)) {
-            System.err.println(String.format("Missing argument '%s' or '%s'.", OPT_PUB, OPT_SUB));
+        if (!(Boolean)options.get(OPT_PUB) && !(Boolean)options.get(OPT_SUB)
+                && !(Boolean)options.get(OPT_BENCH)) {
+            System.err.println(String.format("Missing argument '%s', '%s' or '%s'.",
+                    OPT_PUB, OPT_SUB, OPT_BENCH));
             System.out.println(usage);
             return null;
         }
@@ -135,6 +154,7 @@ public class MqttClient {
     static final String OPT_HELP = "-h";
     static final String OPT_PUB = "pub";
     static final String OPT_SUB = "sub";
+    static final String OPT_BENCH = "bench";
     static final String OPT_SERVER_URI = "serverURI";
     static final String OPT_CLIENT_ID = "clientId";
     static final String OPT_CN_TIMEOUT_SEC = "cnTimeout";
@@ -150,6 +170,15 @@ public class MqttClient {
     static final String OPT_KEY_STORE = "keyStore";
     static final String OPT_KEY_STORE_PASSWORD = "keyStorePassword";
     static final String OPT_PUB_CNT = "pubcnt";
+    static final String OPT_PUB_MILLIS = "pubMillis";
+    static final String OPT_BATCH_SIZE = "batchSize";
+    static final String OPT_BATCH_MILLIS = "batchMillis";
+    static final String OPT_RATE = "rate";
+    static final String OPT_PAYLOAD_SIZE = "payloadSize";
+    static final String OPT_PUBLISHERS = "publishers";
+    static final String OPT_DURATION_SEC = "duration";
+    static final String OPT_EMBEDDED_BROKER = "embeddedBroker";
+    static final String OPT_FIELDS = "fields";
     static final String OPT_IDLE_TIMEOUT_SEC = "idleTimeout";
     static final String OPT_IDLE_RECONNECT_INTERVAL_SEC = "idleReconnectInterval";
     
@@ -159,10 +188,19 @@ public class MqttClient {
         opts.addHandler(OPT_VERBOSE, null, false);
         opts.addHandler(OPT_PUB, null, false);
         opts.addHandler(OPT_SUB, null, false);
+        opts.addHandler(OPT_BENCH, null, false);
+        opts.addHandler(OPT_EMBEDDED_BROKER, null, false);
         opts.addHandler(OPT_SERVER_URI, v -> v, "tcp://localhost:1883");
         opts.addHandler(OPT_TOPIC, v -> v, "mqttSampleTopic");
         opts.addHandler(OPT_RETAIN, null, false);
         opts.addHandler(OPT_PUB_CNT, v -> Integer.valueOf(v), -1);
+        opts.addHandler(OPT_PUB_MILLIS, v -> Long.valueOf(v), 1000L);
+        opts.addHandler(OPT_BATCH_SIZE, v -> Integer.valueOf(v), 1);
+        opts.addHandler(OPT_BATCH_MILLIS, v -> Long.valueOf(v), 100L);
+        opts.addHandler(OPT_RATE, v -> Integer.valueOf(v), 1000);
+        opts.addHandler(OPT_PAYLOAD_SIZE, v -> Integer.valueOf(v), 100);
+        opts.addHandler(OPT_PUBLISHERS, v -> Integer.valueOf(v), 1);
+        opts.addHandler(OPT_DURATION_SEC, v -> Integer.valueOf(v), 10);
         opts.addHandler(OPT_QOS, v -> Integer.valueOf(v), 0);
 
         // optional options (no default value)
@@ -178,6 +216,7 @@ public class MqttClient {
         opts.addHandler(OPT_KEY_STORE_PASSWORD, v -> v);
         opts.addHandler(OPT_IDLE_TIMEOUT_SEC, v -> Integer.valueOf(v));
         opts.addHandler(OPT_IDLE_RECONNECT_INTERVAL_SEC, v -> Integer.valueOf(v));
+        opts.addHandler(OPT_FIELDS, v -> v);
     }
     
 }
@@ -18,7 +18,10 @@ under the License.
 */
 package org.apache.edgent.samples.connectors.mqtt;
 
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_BATCH_MILLIS;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_BATCH_SIZE;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_PUB_CNT;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_PUB_MILLIS;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_QOS;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_RETAIN;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_TOPIC;
@@ -58,15 +61,23 @@ public class PublisherApp {
         
         // Create a sample stream of tuples to publish
         TStream<String> msgs = t.poll(new MsgSupplier(options.get(OPT_PUB_CNT)),
-                                        1L, TimeUnit.SECONDS);
+                                        options.get(OPT_PUB_MILLIS), TimeUnit.MILLISECONDS);
 
         // Create the MQTT broker connector
         MqttConfig config= Runner.newConfig(options);
         MqttStreams mqtt = new MqttStreams(t, () -> config);
         
-        // Publish the stream to the topic.  The String tuple is the message value.
-        mqtt.publish(msgs, options.get(OPT_TOPIC), 
-                    options.get(OPT_QOS), options.get(OPT_RETAIN));
+        int batchSize = options.get(OPT_BATCH_SIZE);
+        if (batchSize > 1) {
+            // Publish batches of tuples to the topic, one message per batch.
+            MqttBatches.publish(mqtt, msgs, batchSize, options.get(OPT_BATCH_MILLIS),
+                    options.get(OPT_TOPIC), options.get(OPT_QOS), options.get(OPT_RETAIN));
+        }
+        else {
+            // Publish the stream to the topic.  The String tuple is the message value.
+            mqtt.publish(msgs, options.get(OPT_TOPIC), 
+                        options.get(OPT_QOS), options.get(OPT_RETAIN));
+        }
         
         return t;
     }
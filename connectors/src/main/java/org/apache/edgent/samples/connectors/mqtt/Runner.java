@@ -19,6 +19,7 @@ under the License.
 package org.apache.edgent.samples.connectors.mqtt;
 
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_ACTION_TIMEOUT_MILLIS;
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_BENCH;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_CLEAN_SESSION;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_CLIENT_ID;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_CN_TIMEOUT_SEC;
@@ -46,11 +47,15 @@ import org.apache.edgent.topology.Topology;
 public class Runner {
     
     /**
-     * Build and run the publisher or subscriber application.
+     * Build and run the publisher or subscriber application, or the benchmark.
      * @param options command line options
      * @throws Exception on failure
      */
     public static void run(Options options) throws Exception {
+        if ((Boolean)options.get(OPT_BENCH)) {
+            MqttBenchmark.run(options);
+            return;
+        }
         boolean isPub = options.get(OPT_PUB); 
 
         // Get a topology runtime provider
@@ -18,11 +18,13 @@ under the License.
 */
 package org.apache.edgent.samples.connectors.mqtt;
 
+import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_FIELDS;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_QOS;
 import static org.apache.edgent.samples.connectors.mqtt.MqttClient.OPT_TOPIC;
 
 import org.apache.edgent.connectors.mqtt.MqttConfig;
 import org.apache.edgent.connectors.mqtt.MqttStreams;
+import org.apache.edgent.samples.apps.mqtt.PayloadDecoders;
 import org.apache.edgent.samples.connectors.Options;
 import org.apache.edgent.samples.connectors.Util;
 import org.apache.edgent.topology.TStream;
@@ -58,9 +60,22 @@ public class SubscriberApp {
         
         System.out.println("Using MQTT clientId " + config.getClientId());
         
-        // Subscribe to the topic and create a stream of messages
-        TStream<String> msgs = mqtt.subscribe(options.get(OPT_TOPIC),
+        // Subscribe to the topic and create a stream of messages.
+        TStream<String> msgs;
+        String fields = options.get(OPT_FIELDS);
+        if (fields != null) {
+            // Decode only the fields of the JSON messages
+            msgs = PayloadDecoders.subscribe(mqtt, options.get(OPT_TOPIC),
+                                                options.get(OPT_QOS),
+                                                PayloadDecoders.jsonFields(fields.split(",")))
+                        .map(jo -> jo.toString());
+        }
+        else {
+            // The messages of a batch published by a batching publisher are
+            // restored, other messages are received as is.
+            msgs = MqttBatches.subscribe(mqtt, options.get(OPT_TOPIC),
                                                 options.get(OPT_QOS));
+        }
         
         // Process the received msgs - just print them out
         msgs.sink(tuple -> System.out.println(
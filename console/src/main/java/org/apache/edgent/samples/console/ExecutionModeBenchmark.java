@@ -0,0 +1,181 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+*/
+package org.apache.edgent.samples.console;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.edgent.execution.Job;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.samples.apps.LatencyHistogram;
+import org.apache.edgent.samples.apps.LatencyProbe;
+import org.apache.edgent.samples.apps.TopologyProviderFactory;
+import org.apache.edgent.samples.apps.sensorAnalytics.Sensor1;
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.Topology;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Compare the {@link TopologyProviderFactory} execution modes
+ * for the Sensor1 and ConsoleWaterDetector topologies.
+ * <p>
+ * Each topology is run for a period of time in each mode:
+ * <ul>
+ * <li>default - the runtime's executor</li>
+ * <li>threads1 - a single executor thread</li>
+ * <li>threadsN - an executor thread per processor</li>
+ * </ul>
+ * <p>
+ * The topologies' sources generate tuples at fixed rates, so the
+ * throughput is the same in every mode unless the executor can't keep up.
+ * Instead, what each mode costs is reported:
+ * <ul>
+ * <li>Sensor1 - the p50 and p99 latency of the 1hz statistics since
+ *     the last of their simulated samples was created.
+ *     The latencies are measured against the samples' millisecond
+ *     timestamps, so they have millisecond resolution.</li>
+ * <li>the process's CPU time per second of the run, if the JVM reports it</li>
+ * <li>the peak number of platform threads</li>
+ * </ul>
+ * <p>
+ * Usage: {@code ExecutionModeBenchmark [seconds [sensors [wells]]]}
+ * <br>
+ * The defaults are {@code 10 1000 1000}: 1000 sensors sampled at 1khz
+ * and 1000 wells, each with a reading per second.
+ */
+public class ExecutionModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int nSensors = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int nWells = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int nProcessors = Runtime.getRuntime().availableProcessors();
+
+        Map<String,Properties> modes = new LinkedHashMap<>();
+        modes.put("default", new Properties());
+        modes.put("threads1", executorProps("threads", "1"));
+        modes.put("threadsN", executorProps("threads", String.valueOf(nProcessors)));
+
+        System.out.println(String.format("seconds=%d sensors=%d wells=%d processors=%d",
+                seconds, nSensors, nWells, nProcessors));
+        System.out.println(String.format("%-10s %-22s %8s %8s %12s %8s",
+                "mode", "topology", "p50ms", "p99ms", "cpuMsec/sec", "threads"));
+        for (Map.Entry<String,Properties> mode : modes.entrySet()) {
+            TopologyProviderFactory tpFactory = new TopologyProviderFactory(mode.getValue());
+            report(mode.getKey(), "Sensor1",
+                    runSensor1(tpFactory, nSensors, nProcessors, seconds));
+            report(mode.getKey(), "ConsoleWaterDetector",
+                    runWaterDetector(tpFactory, nWells, seconds));
+        }
+    }
+
+    private static Properties executorProps(String key, String value) {
+        Properties props = new Properties();
+        props.setProperty("topology.executor."+key, value);
+        props.setProperty("topology.executor.threadName", "bench");
+        return props;
+    }
+
+    private static void report(String mode, String topology, Result result) {
+        LatencyHistogram latency = result.latency;
+        System.out.println(String.format("%-10s %-22s %8s %8s %12s %8d",
+                mode, topology,
+                latency == null ? "-" : String.valueOf(TimeUnit.NANOSECONDS.toMillis(latency.getPercentile(50))),
+                latency == null ? "-" : String.valueOf(TimeUnit.NANOSECONDS.toMillis(latency.getPercentile(99))),
+                result.cpuMsecPerSec < 0 ? "-" : String.valueOf(result.cpuMsecPerSec),
+                result.peakThreads));
+    }
+
+    private static Result runSensor1(TopologyProviderFactory tpFactory,
+            int nSensors, int parallelism, int seconds) throws Exception {
+        Map<String,Long> sensors = new LinkedHashMap<>();
+        for (int i = 1; i <= nSensors; i++)
+            sensors.put("sensor"+i, 1L);
+
+        DirectProvider tp = tpFactory.newProvider();
+        Topology t = tpFactory.newTopology(tp, "Sensor1");
+        LatencyProbe<JsonObject> probe = LatencyProbe.epochMillis("1hzStats", LatencyProbe.jsonStampFn());
+        Sensor1.simulated1hzStats(t, sensors, parallelism, j1khz -> j1khz)
+            .pipe(probe)
+            .sink(jo -> { });
+        return run(tp, t, seconds, probe.getHistogram());
+    }
+
+    private static Result runWaterDetector(TopologyProviderFactory tpFactory,
+            int nWells, int seconds) throws Exception {
+        DirectProvider tp = tpFactory.newProvider();
+        Topology t = tpFactory.newTopology(tp, "ConsoleWaterDetector");
+        for (int wellId = 1; wellId <= nWells; wellId++) {
+            TStream<JsonObject> well = ConsoleWaterDetector.waterDetector(t, wellId);
+            TStream<JsonObject> alerts = ConsoleWaterDetector.alertFilter(well, wellId, false);
+            for (TStream<JsonObject> alert : ConsoleWaterDetector.splitAlert(alerts, wellId))
+                alert.sink(tuple -> { });
+        }
+        return run(tp, t, seconds, null);
+    }
+
+    private static Result run(DirectProvider tp, Topology t, int seconds, LatencyHistogram latency)
+            throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+        int baseThreads = threads.getThreadCount();
+
+        Job job = tp.submit(t).get();
+        // let the topology start before measuring
+        Thread.sleep(1000);
+        if (latency != null)
+            latency.reset();
+        long startCpu = processCpuNanos();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        long endCpu = processCpuNanos();
+
+        Result result = new Result();
+        result.latency = latency;
+        result.cpuMsecPerSec = startCpu < 0 || endCpu < 0 ? -1
+                : TimeUnit.NANOSECONDS.toMillis(endCpu - startCpu) / seconds;
+        result.peakThreads = threads.getPeakThreadCount() - baseThreads;
+        job.stateChange(Job.Action.CLOSE);
+        job.complete(10, TimeUnit.SECONDS);
+        return result;
+    }
+
+    /**
+     * Get the process's CPU time.
+     * @return the time in nanoseconds, -1 if the JVM doesn't report it
+     */
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    private static class Result {
+        LatencyHistogram latency;
+        long cpuMsecPerSec;
+        int peakThreads;
+    }
+}
@@ -25,6 +25,8 @@ under the License.
  * Stream tags, Oplet kind and Tuple count.  A DevelopmentProvider is used which automatically adds a Metrics counter to the topology.
  * </li>
  * <li>HttpServerSample.java - a <i>very</i> simple application that just brings up the Edgent console - with no jobs.</li>
+ * <li>ExecutionModeBenchmark.java - compares the Sensor1 and ConsoleWaterDetector topologies
+ * under the {@code TopologyProviderFactory} execution modes.</li>
  * </ul>
  */
 package org.apache.edgent.samples.console;
\ No newline at end of file